@@ -0,0 +1,234 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.server;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Reviews read by the {@link ReviewServer}, with their CM once it is parsed,
+ * so requests for the same review do not read and parse it again. The
+ * least recently used reviews are dropped when their estimated size goes
+ * over a limit, and a review is dropped when it is saved.
+ * <p>
+ * When a review is not in the cache, the first request reads it and other
+ * requests for it wait for that read instead of reading it too.
+ * <p>
+ * Reviews with the same text, as students that have not changed the
+ * template yet, share one parsed CM, which is only counted in the size of
+ * the review that parsed it. The texts themselves are shared when the
+ * store returns the same one, as {@link ContentReviewStore} does.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class ConceptMapCache {
+
+	/**
+	 * A review being read or already read.
+	 */
+	private static class Entry {
+		/** Reads the review, once */
+		private final FutureTask<Review> load;
+		/** The parsed CM, null until a region is requested */
+		private volatile StoredConceptMap cmap;
+		/** Estimated bytes taken, 0 while being read */
+		private long size;
+
+		private Entry(FutureTask<Review> load) {
+			this.load = load;
+		}
+	}
+
+	/** Where reviews are read from */
+	private final ReviewStore store;
+	/** Maximum estimated bytes of the reviews kept */
+	private final long maxSize;
+	/** Reviews by key, in access order */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	/** Estimated bytes of the reviews kept */
+	private long size = 0;
+	/** Parsed CMs by their text, while some review uses them */
+	private final WeakHashMap<String, WeakReference<StoredConceptMap>> parsed = new WeakHashMap<String, WeakReference<StoredConceptMap>>();
+	/** Requests answered from the cache and reads from the store */
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * @param store where reviews are read from
+	 * @param maxSize maximum estimated bytes of the reviews kept
+	 */
+	public ConceptMapCache(ReviewStore store, long maxSize) {
+		this.store = store;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Gets a review, reading it if it is not in the cache.
+	 * 
+	 * @param key the review key
+	 * @return the review
+	 * @throws IOException
+	 */
+	public Review get(String key) throws IOException {
+		return await(key, entry(key));
+	}
+
+	/**
+	 * Gets the parsed CM of a review, parsing it if it was not parsed yet.
+	 * 
+	 * @param key the review key
+	 * @return the CM, shared with other reviews so it must not be changed
+	 * @throws IOException
+	 */
+	public StoredConceptMap getConceptMap(String key) throws IOException {
+		Entry entry = entry(key);
+		Review review = await(key, entry);
+		if(entry.cmap == null) {
+			synchronized (entry) {
+				if(entry.cmap == null) {
+					StoredConceptMap cmap = parsed(review.getText());
+					if(cmap == null) {
+						cmap = new StoredConceptMap(review.getText());
+						synchronized (this.parsed) {
+							this.parsed.put(review.getText(), new WeakReference<StoredConceptMap>(cmap));
+						}
+						// A parsed CM takes a few times the memory of its text
+						resize(key, entry, sizeOf(review) * 3);
+					}
+					entry.cmap = cmap;
+				}
+			}
+		}
+		return entry.cmap;
+	}
+
+	/**
+	 * @return the CM parsed for another review with the same text, or null
+	 */
+	private StoredConceptMap parsed(String text) {
+		synchronized (this.parsed) {
+			WeakReference<StoredConceptMap> cmap = this.parsed.get(text);
+			return cmap == null ? null : cmap.get();
+		}
+	}
+
+	/**
+	 * Drops a review, after it was saved.
+	 * 
+	 * @param key the review key
+	 */
+	public synchronized void invalidate(String key) {
+		Entry entry = this.entries.remove(key);
+		if(entry != null)
+			this.size -= entry.size;
+	}
+
+	/**
+	 * @return hits, misses, reviews and estimated bytes of the cache
+	 */
+	@Override
+	public synchronized String toString() {
+		return this.hits + " hits, " + this.misses + " misses, " + this.entries.size() + " reviews, " + this.size + " bytes";
+	}
+
+	/**
+	 * Gets the entry of a review, reading the review in this thread if no
+	 * other is.
+	 */
+	private Entry entry(final String key) {
+		Entry entry;
+		synchronized (this) {
+			entry = this.entries.get(key);
+			if(entry != null) {
+				this.hits++;
+				return entry;
+			}
+			this.misses++;
+			entry = new Entry(new FutureTask<Review>(new Callable<Review>() {
+				public Review call() throws IOException {
+					return store.get(key);
+				}
+			}));
+			this.entries.put(key, entry);
+		}
+		entry.load.run();
+		return entry;
+	}
+
+	/**
+	 * Waits for the review of an entry. A failed read is dropped so the
+	 * next request reads the review again.
+	 */
+	private Review await(String key, Entry entry) throws IOException {
+		try {
+			Review review = entry.load.get();
+			if(entry.size == 0)
+				resize(key, entry, sizeOf(review));
+			return review;
+		} catch (ExecutionException e) {
+			synchronized (this) {
+				if(this.entries.get(key) == entry)
+					this.entries.remove(key);
+			}
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted reading " + key);
+		}
+	}
+
+	/**
+	 * Sets the size of an entry still in the cache, and drops the least
+	 * recently used reviews if the cache is over its limit.
+	 */
+	private synchronized void resize(String key, Entry entry, long newSize) {
+		if(this.entries.get(key) != entry || entry.size >= newSize)
+			return;
+		this.size += newSize - entry.size;
+		entry.size = newSize;
+		for(Iterator<Entry> it = this.entries.values().iterator(); it.hasNext() && this.size > this.maxSize;) {
+			Entry eldest = it.next();
+			// Entries being read have no size yet
+			if(eldest.size == 0)
+				continue;
+			it.remove();
+			this.size -= eldest.size;
+		}
+	}
+
+	/**
+	 * @return the estimated bytes of a review, two per character
+	 */
+	private static long sizeOf(Review review) {
+		return 64 + review.getText().length() * 2L;
+	}
+}
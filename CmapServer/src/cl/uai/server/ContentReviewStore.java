@@ -0,0 +1,293 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.server;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * A store that keeps each distinct full CM once. Full CMs are named by the
+ * SHA-1 of their canonical form, see {@link StoredConceptMap#canonical(String)},
+ * so students that saved the same CM, usually the template of an activity,
+ * share one file. The file has the CM exactly as the first review sent it,
+ * and a CM that is equal in canonical form but not in its text is saved
+ * in its review as it is, so no review is changed by sharing. The review
+ * in the underlying store has a reference to the file instead of the CM,
+ * followed by its deltas and journal lines as usual.
+ * <p>
+ * The last CMs read are kept in memory, and reviews that refer to the same
+ * file without lines after it get the same text.
+ * <p>
+ * Each CM file has the number of reviews that refer to it, and it is
+ * deleted when none does. A review takes its reference before it is saved
+ * and releases the old one after, so a crash may leave a CM that is never
+ * deleted, but never a review without its CM. Texts that are not a single
+ * full CM are saved as they are, but no text sent by a client may start
+ * with a reference, as it would be taken for one.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class ContentReviewStore implements ReviewStore {
+
+	/** For logging purposes */
+	private static Logger logger = Logger.getLogger(ContentReviewStore.class.getName());
+
+	/** Starts the line that refers to a CM file, stored lines start with %3C */
+	public static final String REFERENCE = "blob:";
+
+	/** Number of locks reviews and CM files are spread over */
+	private static final int LOCKS = 64;
+	/** Number of CMs kept in memory */
+	private static final int CACHED_CMAPS = 256;
+	/** CMs are URL encoded, so they are ASCII */
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	/** The store with the reviews */
+	private final ReviewStore store;
+	/** Where CM files are */
+	private final Path directory;
+	/** Locks for the reviews, by hash of the key */
+	private final ReentrantLock[] keyLocks;
+	/** Locks for the CM files, by hash of their name */
+	private final ReentrantLock[] blobLocks;
+	/** Last CMs read, by hash */
+	private final Map<String, String> cmaps = new LinkedHashMap<String, String>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > CACHED_CMAPS;
+		}
+	};
+
+	/**
+	 * Keeps the full CMs of a store in a directory, creating it if needed.
+	 * 
+	 * @param store the store with the reviews
+	 * @param directory the directory
+	 * @throws IOException
+	 */
+	public ContentReviewStore(ReviewStore store, Path directory) throws IOException {
+		this.store = store;
+		this.directory = directory;
+		Files.createDirectories(directory);
+		this.keyLocks = new ReentrantLock[LOCKS];
+		this.blobLocks = new ReentrantLock[LOCKS];
+		for(int i = 0; i < LOCKS; i++) {
+			this.keyLocks[i] = new ReentrantLock();
+			this.blobLocks[i] = new ReentrantLock();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see cl.uai.server.ReviewStore#get(java.lang.String)
+	 */
+	public Review get(String key) throws IOException {
+		// A save of the review may release its CM file, and delete it, meanwhile
+		ReentrantLock lock = lock(this.keyLocks, key);
+		lock.lock();
+		try {
+			Review review = this.store.get(key);
+			String text = review.getText();
+			String hash = reference(text);
+			if(hash == null)
+				return review;
+			int newline = text.indexOf('\n');
+			String cmap = read(hash);
+			return new Review(newline < 0 ? cmap : cmap + text.substring(newline), review.getEtag(), review.getLastModified());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see cl.uai.server.ReviewStore#save(java.lang.String, java.lang.String, java.util.List)
+	 */
+	public void save(String key, String value, List<String> lines) throws IOException {
+		if(value != null && value.startsWith(REFERENCE))
+			throw new IllegalArgumentException("Invalid review value");
+		for(String line : lines)
+			if(line.startsWith(REFERENCE))
+				throw new IllegalArgumentException("Invalid review line");
+		if(value == null) {
+			this.store.save(key, value, lines);
+			return;
+		}
+		String canonical = StoredConceptMap.canonical(value);
+		String hash = canonical == null ? null : FileReviewStore.hash(canonical);
+
+		ReentrantLock lock = lock(this.keyLocks, key);
+		lock.lock();
+		try {
+			String old = reference(this.store.get(key).getText());
+			boolean shared = hash != null && acquire(hash, value);
+			try {
+				this.store.save(key, shared ? REFERENCE + hash : value, lines);
+			} catch (IOException e) {
+				if(shared)
+					release(hash);
+				throw e;
+			}
+			if(old != null)
+				release(old);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see cl.uai.server.ReviewStore#close()
+	 */
+	public void close() throws IOException {
+		this.store.close();
+	}
+
+	/**
+	 * Takes a reference to a CM file, writing it if it is new.
+	 * 
+	 * @return false if the file has a different text of the CM, and no reference was taken
+	 */
+	private boolean acquire(String hash, String value) throws IOException {
+		ReentrantLock lock = lock(this.blobLocks, hash);
+		lock.lock();
+		try {
+			Path file = blobFile(hash);
+			int references = references(hash);
+			if(references == 0 || !Files.exists(file)) {
+				Files.createDirectories(file.getParent());
+				FileReviewStore.replace(file, value);
+				forget(hash);
+			} else if(!read(hash).equals(value)) {
+				return false;
+			}
+			FileReviewStore.replace(referencesFile(hash), Integer.toString(references + 1));
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Releases a reference to a CM file, deleting it if it was the last.
+	 */
+	private void release(String hash) throws IOException {
+		ReentrantLock lock = lock(this.blobLocks, hash);
+		lock.lock();
+		try {
+			int references = references(hash) - 1;
+			if(references > 0) {
+				FileReviewStore.replace(referencesFile(hash), Integer.toString(references));
+			} else {
+				Files.deleteIfExists(blobFile(hash));
+				Files.deleteIfExists(referencesFile(hash));
+				forget(hash);
+				logger.fine("Deleted unused CM " + hash);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reads a CM file, or gets it from memory.
+	 */
+	private String read(String hash) throws IOException {
+		synchronized (this.cmaps) {
+			String cmap = this.cmaps.get(hash);
+			if(cmap != null)
+				return cmap;
+		}
+		String cmap = new String(Files.readAllBytes(blobFile(hash)), ASCII);
+		synchronized (this.cmaps) {
+			this.cmaps.put(hash, cmap);
+		}
+		return cmap;
+	}
+
+	/**
+	 * Drops a CM from memory, when its file changes.
+	 */
+	private void forget(String hash) {
+		synchronized (this.cmaps) {
+			this.cmaps.remove(hash);
+		}
+	}
+
+	/**
+	 * @return the number of reviews that refer to a CM file
+	 */
+	private int references(String hash) throws IOException {
+		Path file = referencesFile(hash);
+		if(!Files.exists(file))
+			return 0;
+		return Integer.parseInt(new String(Files.readAllBytes(file), ASCII).trim());
+	}
+
+	/**
+	 * @return the CM file a review refers to, or null if it has a CM
+	 */
+	private static String reference(String text) {
+		if(!text.startsWith(REFERENCE))
+			return null;
+		int newline = text.indexOf('\n');
+		String hash = text.substring(REFERENCE.length(), newline < 0 ? text.length() : newline);
+		// Only SHA-1 hashes name CM files
+		if(hash.length() != 40)
+			return null;
+		for(int i = 0; i < hash.length(); i++) {
+			char c = hash.charAt(i);
+			if((c < '0' || c > '9') && (c < 'a' || c > 'f'))
+				return null;
+		}
+		return hash;
+	}
+
+	/**
+	 * @return the file of a CM
+	 */
+	private Path blobFile(String hash) {
+		return this.directory.resolve(hash.substring(0, 2)).resolve(hash + ".cmap");
+	}
+
+	/**
+	 * @return the file with the references to a CM
+	 */
+	private Path referencesFile(String hash) {
+		return this.directory.resolve(hash.substring(0, 2)).resolve(hash + ".refs");
+	}
+
+	/**
+	 * @return the lock of a review or a CM file
+	 */
+	private static ReentrantLock lock(ReentrantLock[] locks, String name) {
+		return locks[(name.hashCode() & 0x7fffffff) % locks.length];
+	}
+}
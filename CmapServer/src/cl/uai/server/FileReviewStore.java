@@ -0,0 +1,245 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * A store with a file per review. Deltas and journal lines are appended to
+ * the file, so frequent small saves do not rewrite the whole review, and a
+ * full CM is written to a new file that atomically replaces the old one.
+ * Every save is forced to disk before it returns.
+ * <p>
+ * Files are named after a hash of the review key, in a directory per first
+ * byte of the hash. Saves and reads of the same review are serialized,
+ * saves of different reviews run in parallel.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class FileReviewStore implements ReviewStore {
+
+	/** For logging purposes */
+	private static Logger logger = Logger.getLogger(FileReviewStore.class.getName());
+
+	/** Number of locks reviews are spread over */
+	private static final int LOCKS = 64;
+	/** Reviews are URL encoded, so they are ASCII, but just in case */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Where the files are */
+	private final Path directory;
+	/** Locks for the reviews, by hash of the key */
+	private final ReentrantLock[] locks;
+	/** Times each review was saved since the store started, for its ETag */
+	private final ConcurrentHashMap<String, Long> versions;
+	/** Distinguishes ETags of different runs of the store */
+	private final String run;
+
+	/**
+	 * Creates a store in a directory, creating it if needed.
+	 * 
+	 * @param directory the directory
+	 * @throws IOException
+	 */
+	public FileReviewStore(Path directory) throws IOException {
+		this.directory = directory;
+		Files.createDirectories(directory);
+		this.locks = new ReentrantLock[LOCKS];
+		for(int i = 0; i < LOCKS; i++)
+			this.locks[i] = new ReentrantLock();
+		this.versions = new ConcurrentHashMap<String, Long>();
+		this.run = Long.toString(System.currentTimeMillis(), 36);
+		logger.info("Storing reviews in " + directory.toAbsolutePath());
+	}
+
+	/* (non-Javadoc)
+	 * @see cl.uai.server.ReviewStore#get(java.lang.String)
+	 */
+	public Review get(String key) throws IOException {
+		ReentrantLock lock = lock(key);
+		lock.lock();
+		try {
+			Path file = file(key);
+			if(!Files.exists(file))
+				return new Review("", etag(key), 0);
+			String text = new String(Files.readAllBytes(file), UTF8);
+			return new Review(text, etag(key), Files.getLastModifiedTime(file).toMillis());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see cl.uai.server.ReviewStore#save(java.lang.String, java.lang.String, java.util.List)
+	 */
+	public void save(String key, String value, List<String> lines) throws IOException {
+		if(value == null && lines.isEmpty())
+			return;
+		ReentrantLock lock = lock(key);
+		lock.lock();
+		try {
+			Path file = file(key);
+			Files.createDirectories(file.getParent());
+			if(value != null)
+				replace(file, join(value, lines));
+			else
+				append(file, join(null, lines));
+			Long version = this.versions.get(key);
+			this.versions.put(key, version == null ? 1 : version + 1);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see cl.uai.server.ReviewStore#close()
+	 */
+	public void close() throws IOException {
+		// Files are closed after each save
+	}
+
+	/**
+	 * Appends lines to a review file, forcing them to disk.
+	 * 
+	 * @param file the review file
+	 * @param lines the lines, without a leading newline
+	 * @throws IOException
+	 */
+	private static void append(Path file, String lines) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, 
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		try {
+			String data = channel.size() > 0 ? "\n" + lines : lines;
+			write(channel, data);
+			channel.force(false);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Replaces a review file, writing a new file and then renaming it, so
+	 * a crash leaves either the old or the new review.
+	 * 
+	 * @param file the review file
+	 * @param text the new review
+	 * @throws IOException
+	 */
+	static void replace(Path file, String text) throws IOException {
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, 
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			write(channel, text);
+			channel.force(false);
+		} finally {
+			channel.close();
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		// The rename is durable once the directory is
+		FileChannel dir = FileChannel.open(file.getParent(), StandardOpenOption.READ);
+		try {
+			dir.force(true);
+		} catch (IOException e) {
+			// Some platforms can not sync directories
+		} finally {
+			dir.close();
+		}
+	}
+
+	/**
+	 * Writes a text fully to a channel.
+	 */
+	private static void write(FileChannel channel, String text) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(UTF8));
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	/**
+	 * @return a full CM and lines after it, one per line
+	 */
+	private static String join(String value, List<String> lines) {
+		StringBuilder text = new StringBuilder();
+		if(value != null)
+			text.append(value);
+		for(String line : lines) {
+			if(text.length() > 0)
+				text.append('\n');
+			text.append(line);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * @return the ETag of the current version of a review
+	 */
+	private String etag(String key) {
+		Long version = this.versions.get(key);
+		return "\"" + this.run + "-" + (version == null ? 0 : version) + "\"";
+	}
+
+	/**
+	 * @return the lock of a review
+	 */
+	private ReentrantLock lock(String key) {
+		return this.locks[(key.hashCode() & 0x7fffffff) % LOCKS];
+	}
+
+	/**
+	 * @return the file of a review
+	 */
+	private Path file(String key) {
+		String hash = hash(key);
+		return this.directory.resolve(hash.substring(0, 2)).resolve(hash + ".review");
+	}
+
+	/**
+	 * @return the SHA-1 of a key, in hexadecimal
+	 */
+	static String hash(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF8));
+			StringBuilder hex = new StringBuilder();
+			for(byte b : digest)
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.server;
+
+/**
+ * A stored review, as returned by a {@link ReviewStore}: its text and
+ * what identifies its version, for conditional GETs.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class Review {
+
+	/** The review, a full CM followed by deltas or journal lines */
+	private final String text;
+	/** Changes every time the review is saved */
+	private final String etag;
+	/** Milliseconds when the review was last saved, 0 if never */
+	private final long lastModified;
+
+	/**
+	 * @param text the review
+	 * @param etag changes every time the review is saved
+	 * @param lastModified milliseconds when the review was last saved
+	 */
+	public Review(String text, String etag, long lastModified) {
+		this.text = text;
+		this.etag = etag;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * @return the ETag of the review, quoted
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * @return milliseconds when the review was last saved, 0 if never
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return the review, empty if it was never saved
+	 */
+	public String getText() {
+		return text;
+	}
+}
@@ -0,0 +1,381 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The revisions of each review, kept to see how a CM was built. Each save
+ * that changes the CM is a revision, stored as the structural delta from the revision before
+ * it, and every few revisions a full CM is stored instead so no revision
+ * needs more than {@link #SNAPSHOT_INTERVAL} deltas to be rebuilt.
+ * <p>
+ * A review has two files. The history has a URL encoded XML per revision,
+ * a full CM or a delta. The index has a fixed size entry per revision with
+ * its offset in the history, the revision of the full CM it starts from,
+ * and when it was saved, so a revision is found without reading the ones
+ * before it.
+ * <p>
+ * Revisions are written by a background thread, in the order saves are
+ * recorded, so saves and reads of the latest review do not wait for them.
+ * The first revision of a review is the review as it was saved, read when
+ * the save is recorded.
+ * <p>
+ * Journal entries are commands of the viewer, not changes to the CM, so
+ * reviews saved as journals have a revision per checkpoint only, not per
+ * command.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class ReviewHistory {
+
+	/** For logging purposes */
+	private static Logger logger = Logger.getLogger(ReviewHistory.class.getName());
+
+	/** Maximum revisions from a full CM to the revisions after it */
+	public static final int SNAPSHOT_INTERVAL = 32;
+	/** Reviews whose last revision is kept in memory */
+	private static final int CACHED_REVIEWS = 256;
+	/** Size of an index entry: offset, full CM revision and time */
+	private static final int ENTRY = 8 + 4 + 8;
+	/** The stored text is URL encoded, so it is ASCII */
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	/**
+	 * The last revision of a review.
+	 */
+	private static class State {
+		/** Number of revisions */
+		private int revisions;
+		/** Revision of the last full CM */
+		private int base;
+		/** Size of the last full CM */
+		private long baseSize;
+		/** Size of the deltas after it */
+		private long deltaSize;
+		/** Size of the history */
+		private long size;
+		/** The CM in the last revision */
+		private StoredConceptMap cmap;
+	}
+
+	/** Where histories are */
+	private final Path directory;
+	/** Reads reviews that have no history yet */
+	private final ReviewStore store;
+	/** Writes revisions in order */
+	private final ExecutorService writer = Executors.newSingleThreadExecutor();
+	/** Last revisions, by review key, only used by the writer */
+	private final Map<String, State> states = new LinkedHashMap<String, State>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, State> eldest) {
+			return size() > CACHED_REVIEWS;
+		}
+	};
+
+	/**
+	 * Keeps histories in a directory, creating it if needed.
+	 * 
+	 * @param directory the directory
+	 * @param store the store of the reviews
+	 * @throws IOException
+	 */
+	public ReviewHistory(Path directory, ReviewStore store) throws IOException {
+		this.directory = directory;
+		this.store = store;
+		Files.createDirectories(directory);
+	}
+
+	/**
+	 * Records a save as the next revision of a review, right after it was
+	 * saved in the store. Saves of a review must be recorded in the order
+	 * they were saved.
+	 * 
+	 * @param key the review key
+	 * @param value the full CM, or null
+	 * @param lines the deltas or journal lines appended
+	 * @throws IOException if the review has no history and could not be read
+	 */
+	public void record(final String key, final String value, final List<String> lines) throws IOException {
+		// A review without history starts from what was saved, later saves may be in the store by the time it is written
+		final String saved = Files.exists(indexFile(key)) ? null : this.store.get(key).getText();
+		this.writer.execute(new Runnable() {
+			public void run() {
+				try {
+					write(key, value, lines, saved);
+				} catch (IOException e) {
+					// The review itself was saved, only this revision is lost
+					logger.log(Level.SEVERE, "Could not write a revision of " + key, e);
+					states.remove(key);
+				} catch (RuntimeException e) {
+					logger.log(Level.SEVERE, "Could not write a revision of " + key, e);
+					states.remove(key);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param key the review key
+	 * @return the number of revisions of a review
+	 * @throws IOException
+	 */
+	public int size(String key) throws IOException {
+		Path index = indexFile(key);
+		if(!Files.exists(index))
+			return 0;
+		return (int) (Files.size(index) / ENTRY);
+	}
+
+	/**
+	 * Lists the revisions of a review.
+	 * 
+	 * @param key the review key
+	 * @return when each revision was saved, in milliseconds
+	 * @throws IOException
+	 */
+	public long[] times(String key) throws IOException {
+		int revisions = size(key);
+		long[] times = new long[revisions];
+		if(revisions == 0)
+			return times;
+		ByteBuffer entries = read(indexFile(key), 0, revisions * ENTRY);
+		for(int i = 0; i < revisions; i++)
+			times[i] = entries.getLong(i * ENTRY + 12);
+		return times;
+	}
+
+	/**
+	 * Rebuilds a revision of a review, from the full CM before it and at
+	 * most {@link #SNAPSHOT_INTERVAL} deltas.
+	 * 
+	 * @param key the review key
+	 * @param revision the revision, starting at 0
+	 * @return the CM as a URL encoded XML, null if there is no such revision
+	 * @throws IOException
+	 */
+	public String get(String key, int revision) throws IOException {
+		int revisions = size(key);
+		if(revision < 0 || revision >= revisions)
+			return null;
+		Path index = indexFile(key);
+		ByteBuffer entry = read(index, (long) revision * ENTRY, ENTRY);
+		int base = entry.getInt(8);
+		long start = read(index, (long) base * ENTRY, ENTRY).getLong(0);
+		long end = revision + 1 < revisions ? read(index, (long) (revision + 1) * ENTRY, ENTRY).getLong(0) 
+				: Files.size(historyFile(key));
+		ByteBuffer text = read(historyFile(key), start, (int) (end - start));
+		String lines = new String(text.array(), 0, text.limit(), ASCII);
+		// A revision being written may follow the last one indexed
+		int count = revision - base + 1;
+		int cut = 0;
+		for(int i = 0; i < count && cut >= 0; i++)
+			cut = lines.indexOf('\n', cut) + 1;
+		if(cut > 0)
+			lines = lines.substring(0, cut);
+		return new StoredConceptMap(lines).exportXML();
+	}
+
+	/**
+	 * Writes the revisions recorded so far and stops writing.
+	 */
+	public void close() {
+		this.writer.shutdown();
+		try {
+			this.writer.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes a revision, from the writer thread.
+	 * 
+	 * @param saved the review when the save was recorded, if it had no history
+	 */
+	private void write(String key, String value, List<String> lines, String saved) throws IOException {
+		State state = state(key);
+		StoredConceptMap cmap;
+		if(state.cmap == null) {
+			// The first revision is the review as it was saved
+			cmap = new StoredConceptMap(saved != null ? saved : this.store.get(key).getText());
+		} else {
+			cmap = state.cmap.copy();
+			if(value != null)
+				cmap.read(value);
+			for(String line : lines)
+				cmap.read(line);
+		}
+
+		String delta = state.cmap == null ? null : cmap.exportDelta(state.cmap);
+		if(state.cmap != null && delta == null)
+			return;
+		String full = null;
+		// A full CM when deltas would be too many, or bigger than the CM
+		if(delta == null || state.revisions - state.base >= SNAPSHOT_INTERVAL - 1
+				|| state.deltaSize + delta.length() > state.baseSize) {
+			full = cmap.exportXML();
+		}
+
+		String text = (full != null ? full : delta) + "\n";
+		long offset = state.size;
+		append(historyFile(key), ByteBuffer.wrap(text.getBytes(ASCII)));
+		if(full != null) {
+			state.base = state.revisions;
+			state.baseSize = full.length();
+			state.deltaSize = 0;
+		} else {
+			state.deltaSize += delta.length();
+		}
+		ByteBuffer entry = ByteBuffer.allocate(ENTRY);
+		entry.putLong(offset).putInt(state.base).putLong(System.currentTimeMillis()).flip();
+		append(indexFile(key), entry);
+		state.revisions++;
+		state.size += text.length();
+		state.cmap = cmap;
+	}
+
+	/**
+	 * Gets the last revision of a review, reading its history if it is not
+	 * in memory. Entries of a revision that was not completely written are
+	 * removed.
+	 */
+	private State state(String key) throws IOException {
+		State state = this.states.get(key);
+		if(state != null)
+			return state;
+		state = new State();
+		Path index = indexFile(key);
+		Path history = historyFile(key);
+		Files.createDirectories(index.getParent());
+		if(Files.exists(index)) {
+			state.revisions = (int) (Files.size(index) / ENTRY);
+			truncate(index, (long) state.revisions * ENTRY);
+		}
+		if(state.revisions > 0) {
+			ByteBuffer last = read(index, (long) (state.revisions - 1) * ENTRY, ENTRY);
+			state.base = last.getInt(8);
+			long baseOffset = read(index, (long) state.base * ENTRY, ENTRY).getLong(0);
+			String text = new String(read(history, baseOffset, (int) (Files.size(history) - baseOffset)).array(), ASCII);
+			List<String> revisions = new ArrayList<String>();
+			int from = 0;
+			for(int i = state.base; i < state.revisions; i++) {
+				int newline = text.indexOf('\n', from);
+				revisions.add(text.substring(from, newline));
+				from = newline + 1;
+			}
+			state.size = baseOffset + from;
+			truncate(history, state.size);
+			state.baseSize = revisions.get(0).length();
+			for(int i = 1; i < revisions.size(); i++)
+				state.deltaSize += revisions.get(i).length();
+			state.cmap = new StoredConceptMap();
+			for(String revision : revisions)
+				state.cmap.read(revision);
+		} else if(Files.exists(history)) {
+			truncate(history, 0);
+		}
+		this.states.put(key, state);
+		return state;
+	}
+
+	/**
+	 * @return the history file of a review
+	 */
+	private Path historyFile(String key) {
+		String hash = FileReviewStore.hash(key);
+		return this.directory.resolve(hash.substring(0, 2)).resolve(hash + ".history");
+	}
+
+	/**
+	 * @return the index file of a review
+	 */
+	private Path indexFile(String key) {
+		String hash = FileReviewStore.hash(key);
+		return this.directory.resolve(hash.substring(0, 2)).resolve(hash + ".index");
+	}
+
+	/**
+	 * Appends to a file, forcing it to disk.
+	 */
+	private static void append(Path file, ByteBuffer data) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, 
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		try {
+			while(data.hasRemaining())
+				channel.write(data);
+			channel.force(false);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Reads part of a file.
+	 */
+	private static ByteBuffer read(Path file, long position, int length) throws IOException {
+		ByteBuffer data = ByteBuffer.allocate(length);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			while(data.hasRemaining() && channel.read(data, position + data.position()) >= 0);
+		} finally {
+			channel.close();
+		}
+		data.flip();
+		return data;
+	}
+
+	/**
+	 * Cuts a file, if it is longer.
+	 */
+	private static void truncate(Path file, long size) throws IOException {
+		if(Files.size(file) <= size)
+			return;
+		logger.warning("Truncating incomplete revision of " + file);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+		try {
+			channel.truncate(size);
+			channel.force(false);
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,629 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand-alone review server, implementing the protocol of
+ * {@link cl.uai.client.loaders.ReviewHttpRequest} on a plain JVM:
+ * <ul>
+ * <li>GET with document, review_author and review_name returns the review,
+ * with an ETag and a Last-Modified date, or a 304 if it did not change.
+ * With x, y, width and height it returns the region of the CM in that box.
+ * With revision it returns that revision of the CM, and with revisions the
+ * time of each revision, one per line.</li>
+ * <li>POST with document_id, review_author and review_name replaces the
+ * review with review_value, and appends each review_delta and
+ * review_journal. POSTs whose review_seq is not greater than the last one
+ * of their review_session are acknowledged but ignored.</li>
+ * </ul>
+ * Sessions are forgotten after {@link #SESSION_TIMEOUT} seconds without
+ * requests, or when there are more than {@link #MAX_SESSIONS}, and on
+ * restart, so a retry that arrives after that is saved again.
+ * Reviews are kept in a {@link ReviewStore}, and the ones read last in a
+ * {@link ConceptMapCache} until they are saved. The server can also serve the
+ * compiled client from a war directory, so the whole system runs on one box.
+ * <p>
+ * Requests are answered by a virtual thread each if the JVM has them (Java
+ * 21), as they mostly wait for the disk, or by a fixed number of threads.
+ * Requests that take too long to be received or answered are dropped by
+ * the JDK server, and those that waited too long for a thread are answered
+ * with a 503, which the client retries.
+ * <p>
+ * Usage: {@code ReviewServer [-port 8888] [-data reviews] [-war dir] [-threads n|virtual] [-timeout 30] [-store wal|file] [-dedup true|false] [-history true|false] [-cache MB]}
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class ReviewServer {
+
+	/** For logging purposes */
+	private static Logger logger = Logger.getLogger(ReviewServer.class.getName());
+
+	/** Path reviews are served at, as mapped in the web application */
+	public static final String REVIEW_PATH = "/cmapweb/review";
+
+	/** HTTP dates, as in Last-Modified */
+	private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+	/** Where reviews are kept */
+	private final ReviewStore store;
+	/** The revisions of the reviews, null if they are not kept */
+	private ReviewHistory history;
+	/** Order the saves of a review with their revisions, by hash of the key */
+	private final ReentrantLock[] historyLocks = new ReentrantLock[64];
+	/** Last sequence number applied, by review and session */
+	private final Map<String, Sequence> sequences = new LinkedHashMap<String, Sequence>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Sequence> eldest) {
+			return size() > MAX_SESSIONS 
+					|| System.currentTimeMillis() - eldest.getValue().used > SESSION_TIMEOUT * 1000L;
+		}
+	};
+	/** Reviews read, and their CMs once parsed for region queries */
+	private final ConceptMapCache cache;
+	/** The HTTP server, null until started */
+	private HttpServer server;
+	/** Threads answering requests */
+	private ExecutorService executor;
+	/** Seconds to read a request, answer it, or wait for a thread */
+	private int timeout = REQUEST_TIMEOUT;
+
+	/** When the request being answered by a thread was received */
+	private static final ThreadLocal<Long> received = new ThreadLocal<Long>();
+
+	/**
+	 * The last request of a session. A lock rather than a monitor, so
+	 * virtual threads waiting for a save release their carrier thread.
+	 */
+	private static class Sequence extends ReentrantLock {
+		private static final long serialVersionUID = 1L;
+
+		/** Last sequence number applied */
+		private int last = Integer.MIN_VALUE;
+		/** When the session last sent a request, in milliseconds */
+		private volatile long used = System.currentTimeMillis();
+	}
+
+	/** Seconds without requests after which a session is forgotten */
+	public static final int SESSION_TIMEOUT = 60 * 60;
+	/** Maximum sessions remembered, the least recently used are forgotten */
+	public static final int MAX_SESSIONS = 100000;
+	/** Threads for {@link #start(int, int, Path)} to use a virtual thread per request */
+	public static final int VIRTUAL_THREADS = 0;
+	/** Default seconds to read a request, answer it, or wait for a thread */
+	public static final int REQUEST_TIMEOUT = 30;
+	/** Default estimated bytes of the reviews kept in memory */
+	public static final long CACHE_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * @param store where reviews are kept
+	 */
+	public ReviewServer(ReviewStore store) {
+		this(store, CACHE_SIZE);
+	}
+
+	/**
+	 * @param store where reviews are kept
+	 * @param cacheSize estimated bytes of the reviews kept in memory
+	 */
+	public ReviewServer(ReviewStore store, long cacheSize) {
+		this.store = store;
+		this.cache = new ConceptMapCache(store, cacheSize);
+		for(int i = 0; i < this.historyLocks.length; i++)
+			this.historyLocks[i] = new ReentrantLock();
+	}
+
+	/**
+	 * Keeps the revisions of every review saved.
+	 * 
+	 * @param history where revisions are kept
+	 */
+	public void setHistory(ReviewHistory history) {
+		this.history = history;
+	}
+
+	/**
+	 * Sets how long a request can take to be received or answered, and to
+	 * wait for a thread, before it is dropped.
+	 * 
+	 * @param seconds the timeout in seconds
+	 */
+	public void setTimeout(int seconds) {
+		this.timeout = seconds;
+	}
+
+	/**
+	 * Starts answering requests.
+	 * 
+	 * @param port the port to listen on, 0 for any free port
+	 * @param threads number of threads answering requests, or {@link #VIRTUAL_THREADS}
+	 * @param war directory with the web application to serve, or null
+	 * @throws IOException
+	 */
+	public void start(int port, int threads, Path war) throws IOException {
+		// Read by the JDK server when it is first created, unless set in the command line
+		if(System.getProperty("sun.net.httpserver.maxReqTime") == null)
+			System.setProperty("sun.net.httpserver.maxReqTime", Integer.toString(this.timeout));
+		if(System.getProperty("sun.net.httpserver.maxRspTime") == null)
+			System.setProperty("sun.net.httpserver.maxRspTime", Integer.toString(this.timeout));
+		this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+		this.server.createContext(REVIEW_PATH, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				handleReview(exchange);
+			}
+		});
+		if(war != null) {
+			final Path root = war.toAbsolutePath().normalize();
+			this.server.createContext("/", new HttpHandler() {
+				public void handle(HttpExchange exchange) throws IOException {
+					handleStatic(exchange, root);
+				}
+			});
+		}
+		this.executor = newExecutor(threads);
+		final ExecutorService requests = this.executor;
+		this.server.setExecutor(new Executor() {
+			public void execute(final Runnable command) {
+				final long time = System.nanoTime();
+				requests.execute(new Runnable() {
+					public void run() {
+						received.set(time);
+						try {
+							command.run();
+						} finally {
+							received.remove();
+						}
+					}
+				});
+			}
+		});
+		this.server.start();
+		logger.info("Serving reviews at http://localhost:" + getPort() + REVIEW_PATH);
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return this.server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops answering requests and closes the store.
+	 * 
+	 * @throws IOException
+	 */
+	public void stop() throws IOException {
+		if(this.server != null) {
+			this.server.stop(0);
+			this.executor.shutdown();
+			this.server = null;
+			logger.info("Review cache: " + this.cache);
+		}
+		if(this.history != null)
+			this.history.close();
+		this.store.close();
+	}
+
+	/**
+	 * Answers a request to the review path.
+	 */
+	private void handleReview(HttpExchange exchange) throws IOException {
+		try {
+			// Requests that waited too long for a thread are retried by the client later
+			Long time = received.get();
+			if(time != null && System.nanoTime() - time > this.timeout * 1000000000L) {
+				send(exchange, 503, "Busy");
+				return;
+			}
+			if(exchange.getRequestMethod().equals("GET"))
+				doGet(exchange);
+			else if(exchange.getRequestMethod().equals("POST"))
+				doPost(exchange);
+			else
+				send(exchange, 405, "Method not allowed");
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Error answering " + exchange.getRequestURI(), e);
+			send(exchange, 500, "Error " + e.getMessage());
+		} catch (IllegalArgumentException e) {
+			logger.warning("Rejected " + exchange.getRequestURI() + ": " + e.getMessage());
+			send(exchange, 400, e.getMessage());
+		} catch (RuntimeException e) {
+			logger.log(Level.SEVERE, "Error answering " + exchange.getRequestURI(), e);
+			send(exchange, 500, "Error " + e.getMessage());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Returns a review, or a region of it.
+	 */
+	private void doGet(HttpExchange exchange) throws IOException {
+		Map<String, List<String>> params = parse(exchange.getRequestURI().getRawQuery());
+		String key = key(first(params, "document"), first(params, "review_author"), first(params, "review_name"));
+		exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+
+		if(first(params, "revision") != null || first(params, "revisions") != null) {
+			doGetRevision(exchange, key, first(params, "revision"));
+			return;
+		}
+
+		Review review = this.cache.get(key);
+
+		if(first(params, "x") != null) {
+			int x, y, width, height;
+			try {
+				x = Integer.parseInt(first(params, "x"));
+				y = Integer.parseInt(first(params, "y"));
+				width = Integer.parseInt(first(params, "width"));
+				height = Integer.parseInt(first(params, "height"));
+			} catch (NumberFormatException e) {
+				send(exchange, 400, "Invalid region");
+				return;
+			}
+			send(exchange, 200, this.cache.getConceptMap(key).exportRegion(x, y, width, height));
+			return;
+		}
+
+		exchange.getResponseHeaders().set("ETag", review.getEtag());
+		if(review.getLastModified() > 0)
+			exchange.getResponseHeaders().set("Last-Modified", 
+					HTTP_DATE.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(review.getLastModified()), ZoneOffset.UTC)));
+		String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+		String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+		boolean notModified;
+		if(ifNoneMatch != null) {
+			notModified = ifNoneMatch.equals(review.getEtag());
+		} else if(ifModifiedSince != null && review.getLastModified() > 0) {
+			// Dates in headers have a precision of seconds
+			try {
+				long since = ZonedDateTime.parse(ifModifiedSince, HTTP_DATE).toInstant().toEpochMilli();
+				notModified = review.getLastModified() / 1000 <= since / 1000;
+			} catch (RuntimeException e) {
+				notModified = false;
+			}
+		} else {
+			notModified = false;
+		}
+		if(notModified) {
+			exchange.sendResponseHeaders(304, -1);
+			return;
+		}
+		send(exchange, 200, review.getText());
+	}
+
+	/**
+	 * Returns a revision of a review, or the list of revisions.
+	 */
+	private void doGetRevision(HttpExchange exchange, String key, String revision) throws IOException {
+		if(this.history == null) {
+			send(exchange, 404, "Revisions are not kept");
+			return;
+		}
+		if(revision == null) {
+			StringBuilder list = new StringBuilder();
+			for(long time : this.history.times(key))
+				list.append(time).append('\n');
+			send(exchange, 200, list.toString());
+			return;
+		}
+		String cmap;
+		try {
+			cmap = this.history.get(key, Integer.parseInt(revision));
+		} catch (NumberFormatException e) {
+			send(exchange, 400, "Invalid revision");
+			return;
+		}
+		if(cmap == null)
+			send(exchange, 404, "No such revision");
+		else
+			send(exchange, 200, cmap);
+	}
+
+	/**
+	 * Saves a review.
+	 */
+	private void doPost(HttpExchange exchange) throws IOException {
+		Map<String, List<String>> params = parse(new String(readAll(exchange.getRequestBody()), "UTF-8"));
+		String key = key(first(params, "document_id"), first(params, "review_author"), first(params, "review_name"));
+		String value = first(params, "review_value");
+		List<String> lines = new ArrayList<String>();
+		lines.addAll(all(params, "review_delta"));
+		lines.addAll(all(params, "review_journal"));
+
+		String session = first(params, "review_session");
+		String seq = first(params, "review_seq");
+		if(session == null || seq == null) {
+			save(key, value, lines);
+			send(exchange, 200, "Saved");
+			return;
+		}
+
+		int sequence;
+		try {
+			sequence = Integer.parseInt(seq);
+		} catch (NumberFormatException e) {
+			send(exchange, 400, "Invalid review_seq");
+			return;
+		}
+		Sequence last;
+		synchronized (this.sequences) {
+			last = this.sequences.get(key + "|" + session);
+			if(last == null) {
+				last = new Sequence();
+				this.sequences.put(key + "|" + session, last);
+			}
+			last.used = System.currentTimeMillis();
+		}
+		// Requests of a session are sent one at a time, this only guards against retries
+		last.lock();
+		try {
+			if(sequence <= last.last) {
+				logger.fine("Ignoring request " + sequence + " of " + session + ", last was " + last.last);
+				send(exchange, 200, "Duplicate");
+				return;
+			}
+			save(key, value, lines);
+			last.last = sequence;
+		} finally {
+			last.unlock();
+		}
+		send(exchange, 200, "Saved");
+	}
+
+	/**
+	 * Saves a review in the store, and then in its history.
+	 */
+	private void save(String key, String value, List<String> lines) throws IOException {
+		if(this.history == null) {
+			this.store.save(key, value, lines);
+			this.cache.invalidate(key);
+			return;
+		}
+		// Revisions are recorded in the order the review was saved
+		ReentrantLock lock = this.historyLocks[(key.hashCode() & 0x7fffffff) % this.historyLocks.length];
+		lock.lock();
+		try {
+			this.store.save(key, value, lines);
+			this.cache.invalidate(key);
+			this.history.record(key, value, lines);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Creates the threads answering requests. Virtual threads are used
+	 * only if the JVM has them, so the server still runs on older JVMs.
+	 */
+	private static ExecutorService newExecutor(int threads) {
+		if(threads == VIRTUAL_THREADS) {
+			try {
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (Exception e) {
+				threads = Runtime.getRuntime().availableProcessors() * 4;
+				logger.warning("Virtual threads need Java 21, using " + threads + " threads");
+			}
+		}
+		return Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * Serves a file of the web application.
+	 */
+	private static void handleStatic(HttpExchange exchange, Path root) throws IOException {
+		try {
+			String path = exchange.getRequestURI().getPath();
+			if(path.endsWith("/"))
+				path += "CmapWeb.html";
+			Path file = root.resolve(path.substring(1)).normalize();
+			if(!file.startsWith(root) || !Files.isRegularFile(file)) {
+				send(exchange, 404, "Not found");
+				return;
+			}
+			String name = file.getFileName().toString();
+			String type = "application/octet-stream";
+			if(name.endsWith(".html"))
+				type = "text/html; charset=UTF-8";
+			else if(name.endsWith(".js"))
+				type = "text/javascript";
+			else if(name.endsWith(".css"))
+				type = "text/css";
+			else if(name.endsWith(".gif"))
+				type = "image/gif";
+			else if(name.endsWith(".png"))
+				type = "image/png";
+			else if(name.endsWith(".xml"))
+				type = "text/xml";
+			byte[] data = Files.readAllBytes(file);
+			exchange.getResponseHeaders().set("Content-Type", type);
+			exchange.sendResponseHeaders(200, data.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(data);
+			out.close();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Sends a text response.
+	 */
+	private static void send(HttpExchange exchange, int status, String text) throws IOException {
+		byte[] data = text.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, data.length == 0 ? -1 : data.length);
+		if(data.length > 0) {
+			OutputStream out = exchange.getResponseBody();
+			out.write(data);
+			out.close();
+		}
+	}
+
+	/**
+	 * Parses a query string or a form, a field may have several values.
+	 */
+	static Map<String, List<String>> parse(String form) throws IOException {
+		Map<String, List<String>> params = new HashMap<String, List<String>>();
+		if(form == null || form.length() == 0)
+			return params;
+		for(String pair : form.split("&")) {
+			int equals = pair.indexOf('=');
+			String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), "UTF-8");
+			String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+			List<String> values = params.get(name);
+			if(values == null) {
+				values = new ArrayList<String>();
+				params.put(name, values);
+			}
+			values.add(value);
+		}
+		return params;
+	}
+
+	/**
+	 * @return the first value of a field, or null
+	 */
+	private static String first(Map<String, List<String>> params, String name) {
+		List<String> values = params.get(name);
+		return values == null ? null : values.get(0);
+	}
+
+	/**
+	 * @return all values of a field, maybe none
+	 */
+	private static List<String> all(Map<String, List<String>> params, String name) {
+		List<String> values = params.get(name);
+		return values == null ? Collections.<String>emptyList() : values;
+	}
+
+	/**
+	 * @return the key of a review
+	 */
+	static String key(String document, String author, String name) {
+		return document + "|" + author + "|" + name;
+	}
+
+	/**
+	 * Reads a stream fully.
+	 */
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while((read = in.read(buffer)) > 0)
+			out.write(buffer, 0, read);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Runs the server until the JVM is stopped.
+	 * 
+	 * @param args [-port 8888] [-data reviews] [-war dir] [-threads n|virtual] [-timeout 30] [-store wal|file] [-dedup true|false] [-history true|false] [-cache MB]
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = 8888;
+		Path data = Paths.get("reviews");
+		Path war = null;
+		int threads = VIRTUAL_THREADS;
+		int timeout = REQUEST_TIMEOUT;
+		String storeType = "wal";
+		boolean dedup = true;
+		boolean keepHistory = true;
+		long cacheSize = CACHE_SIZE;
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			if(args[i].equals("-port"))
+				port = Integer.parseInt(args[i + 1]);
+			else if(args[i].equals("-data"))
+				data = Paths.get(args[i + 1]);
+			else if(args[i].equals("-war"))
+				war = Paths.get(args[i + 1]);
+			else if(args[i].equals("-threads"))
+				threads = args[i + 1].equals("virtual") ? VIRTUAL_THREADS : Integer.parseInt(args[i + 1]);
+			else if(args[i].equals("-timeout"))
+				timeout = Integer.parseInt(args[i + 1]);
+			else if(args[i].equals("-store"))
+				storeType = args[i + 1];
+			else if(args[i].equals("-dedup"))
+				dedup = Boolean.parseBoolean(args[i + 1]);
+			else if(args[i].equals("-cache"))
+				cacheSize = Long.parseLong(args[i + 1]) * 1024 * 1024;
+			else if(args[i].equals("-history"))
+				keepHistory = Boolean.parseBoolean(args[i + 1]);
+			else
+				System.err.println("Unknown option " + args[i]);
+		}
+		ReviewStore store = storeType.equals("file") ? new FileReviewStore(data) : new WalReviewStore(data);
+		if(dedup)
+			store = new ContentReviewStore(store, data.resolve("cmaps"));
+		final ReviewServer server = new ReviewServer(store, cacheSize);
+		server.setTimeout(timeout);
+		if(keepHistory)
+			server.setHistory(new ReviewHistory(data.resolve("history"), store));
+		server.start(port, threads, war);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				try {
+					server.stop();
+				} catch (IOException e) {
+					logger.severe("Error closing the store " + e.getMessage());
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,159 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.server;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures the {@link ReviewServer} with many clients at once, as at the
+ * end of a quiz, answering requests with a fixed number of threads and
+ * with a virtual thread per request. Each client saves a delta of its own
+ * review and loads it, again and again, over its own connection.
+ * <p>
+ * Usage: {@code ReviewServerBenchmark [-clients 1000] [-seconds 10] [-threads n]}
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class ReviewServerBenchmark {
+
+	/** Size of each delta, in characters */
+	private static final int DELTA_SIZE = 200;
+
+	/**
+	 * Runs the benchmark with both kinds of threads and prints the results.
+	 * 
+	 * @param args [-clients 1000] [-seconds 10] [-threads n]
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int clients = 1000;
+		int seconds = 10;
+		int threads = Runtime.getRuntime().availableProcessors() * 4;
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			if(args[i].equals("-clients"))
+				clients = Integer.parseInt(args[i + 1]);
+			else if(args[i].equals("-seconds"))
+				seconds = Integer.parseInt(args[i + 1]);
+			else if(args[i].equals("-threads"))
+				threads = Integer.parseInt(args[i + 1]);
+			else
+				System.err.println("Unknown option " + args[i]);
+		}
+		Logger.getLogger("cl.uai.server").setLevel(Level.WARNING);
+		// Warms up the JIT so the first mode is not at a disadvantage
+		run(null, threads, clients, 2);
+		run(null, ReviewServer.VIRTUAL_THREADS, clients, 2);
+		run(threads + " threads", threads, clients, seconds);
+		run("virtual threads", ReviewServer.VIRTUAL_THREADS, clients, seconds);
+	}
+
+	/**
+	 * Runs the clients against a new server for some time, and prints the
+	 * results if the run has a name.
+	 */
+	private static void run(String name, int threads, int clients, int seconds) throws Exception {
+		Path data = Files.createTempDirectory("cmapserver-benchmark");
+		ReviewServer server = new ReviewServer(new WalReviewStore(data));
+		server.start(0, threads, null);
+		String url = "http://localhost:" + server.getPort() + ReviewServer.REVIEW_PATH;
+
+		char[] text = new char[DELTA_SIZE];
+		Arrays.fill(text, 'd');
+		String delta = new String(text);
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		final long[] latencies = new long[clients * 10000];
+		final AtomicInteger requests = new AtomicInteger();
+		final AtomicInteger errors = new AtomicInteger();
+		final long end = System.nanoTime() + seconds * 1000000000L;
+		final CountDownLatch done = new CountDownLatch(clients);
+		long start = System.nanoTime();
+		for(int i = 0; i < clients; i++) {
+			String author = "student" + i;
+			HttpRequest save = HttpRequest.newBuilder(URI.create(url))
+					.header("Content-Type", "application/x-www-form-urlencoded")
+					.POST(HttpRequest.BodyPublishers.ofString("document_id=benchmark&review_author=" + author 
+							+ "&review_name=review&review_delta=" + delta)).build();
+			HttpRequest load = HttpRequest.newBuilder(URI.create(url + "?document=benchmark&review_author=" + author 
+					+ "&review_name=review")).build();
+			send(client, new HttpRequest[] { save, load }, 0, end, latencies, requests, errors, done);
+		}
+		done.await();
+		long elapsed = System.nanoTime() - start;
+		server.stop();
+
+		int count = Math.min(requests.get(), latencies.length);
+		if(name == null)
+			return;
+		long[] sorted = Arrays.copyOf(latencies, count);
+		Arrays.sort(sorted);
+		System.out.println(String.format("%s, %d clients: %.0f requests/s, p50 %.2f ms, p99 %.2f ms, %d errors", 
+				name, clients, requests.get() / (elapsed / 1e9), 
+				percentile(sorted, 0.50), percentile(sorted, 0.99), errors.get()));
+	}
+
+	/**
+	 * Sends the requests of a client one after the other until the end.
+	 */
+	private static void send(final HttpClient client, final HttpRequest[] cycle, final int next, final long end, 
+			final long[] latencies, final AtomicInteger requests, final AtomicInteger errors, final CountDownLatch done) {
+		if(System.nanoTime() > end) {
+			done.countDown();
+			return;
+		}
+		final long begin = System.nanoTime();
+		CompletableFuture<HttpResponse<String>> response = client.sendAsync(cycle[next], HttpResponse.BodyHandlers.ofString());
+		response.whenComplete(new BiConsumer<HttpResponse<String>, Throwable>() {
+			public void accept(HttpResponse<String> result, Throwable error) {
+				int n = requests.getAndIncrement();
+				if(n < latencies.length)
+					latencies[n] = System.nanoTime() - begin;
+				if(error != null || result.statusCode() != 200)
+					errors.incrementAndGet();
+				send(client, cycle, (next + 1) % cycle.length, end, latencies, requests, errors, done);
+			}
+		});
+	}
+
+	/**
+	 * @return a percentile of sorted latencies, in milliseconds
+	 */
+	private static double percentile(long[] sorted, double p) {
+		if(sorted.length == 0)
+			return 0;
+		int index = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, index)] / 1e6;
+	}
+}
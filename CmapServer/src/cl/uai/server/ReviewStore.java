@@ -0,0 +1,65 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.server;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where the {@link ReviewServer} keeps reviews. A review is identified by a
+ * key made of its document, author and name, and stored as the client
+ * loads it: a full CM followed by the deltas or journal lines saved after
+ * it, one per line. Saves must be durable when they return.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public interface ReviewStore {
+
+	/**
+	 * Reads a review.
+	 * 
+	 * @param key the review key
+	 * @return the review, with an empty text if it was never saved
+	 * @throws IOException
+	 */
+	public Review get(String key) throws IOException;
+
+	/**
+	 * Saves a review, replacing it with a full CM if there is one, and then
+	 * appending lines to it.
+	 * 
+	 * @param key the review key
+	 * @param value the full CM, or null
+	 * @param lines the deltas or journal lines to append, may be empty
+	 * @throws IOException
+	 */
+	public void save(String key, String value, List<String> lines) throws IOException;
+
+	/**
+	 * Releases the files used by the store.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException;
+}
@@ -0,0 +1,136 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures how many saves per second a store takes, and their latency.
+ * Each thread saves its own review as the client does: a full CM first,
+ * and then one delta per save.
+ * <p>
+ * Usage: {@code ReviewStoreBenchmark [-store wal|file] [-data dir] [-threads 32] [-saves 500]}
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class ReviewStoreBenchmark {
+
+	/** Size of the full CM saved first, in characters */
+	private static final int FULL_SIZE = 2000;
+	/** Size of each delta, in characters */
+	private static final int DELTA_SIZE = 200;
+
+	/**
+	 * Runs the benchmark and prints its results.
+	 * 
+	 * @param args [-store wal|file] [-data dir] [-threads 32] [-saves 500]
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String storeType = "wal";
+		Path data = null;
+		int threads = 32;
+		int saves = 500;
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			if(args[i].equals("-store"))
+				storeType = args[i + 1];
+			else if(args[i].equals("-data"))
+				data = Paths.get(args[i + 1]);
+			else if(args[i].equals("-threads"))
+				threads = Integer.parseInt(args[i + 1]);
+			else if(args[i].equals("-saves"))
+				saves = Integer.parseInt(args[i + 1]);
+			else
+				System.err.println("Unknown option " + args[i]);
+		}
+		if(data == null)
+			data = Files.createTempDirectory("cmapserver-benchmark");
+
+		final ReviewStore store = storeType.equals("file") ? new FileReviewStore(data) : new WalReviewStore(data);
+		final int count = saves;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+		long start = System.nanoTime();
+		for(int t = 0; t < threads; t++) {
+			final String key = ReviewServer.key("benchmark", "author" + t, "review");
+			results.add(executor.submit(new Callable<long[]>() {
+				public long[] call() throws IOException {
+					long[] latencies = new long[count];
+					List<String> none = Collections.emptyList();
+					for(int i = 0; i < count; i++) {
+						long begin = System.nanoTime();
+						if(i == 0)
+							store.save(key, text('c', FULL_SIZE), none);
+						else
+							store.save(key, null, Collections.singletonList(text((char) ('a' + i % 26), DELTA_SIZE)));
+						latencies[i] = System.nanoTime() - begin;
+					}
+					return latencies;
+				}
+			}));
+		}
+		long[] all = new long[threads * saves];
+		int n = 0;
+		for(Future<long[]> result : results) {
+			for(long latency : result.get())
+				all[n++] = latency;
+		}
+		long elapsed = System.nanoTime() - start;
+		executor.shutdown();
+		store.close();
+
+		Arrays.sort(all);
+		System.out.println(String.format("%s store, %d threads, %d saves: %.0f saves/s, p50 %.2f ms, p99 %.2f ms, max %.2f ms", 
+				storeType, threads, all.length, all.length / (elapsed / 1e9),
+				percentile(all, 0.50), percentile(all, 0.99), all[all.length - 1] / 1e6));
+	}
+
+	/**
+	 * @return a percentile of sorted latencies, in milliseconds
+	 */
+	private static double percentile(long[] sorted, double p) {
+		int index = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, index)] / 1e6;
+	}
+
+	/**
+	 * @return a text of some length
+	 */
+	private static String text(char c, int length) {
+		char[] text = new char[length];
+		Arrays.fill(text, c);
+		return new String(text);
+	}
+}
@@ -0,0 +1,657 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A store that writes saves to a write-ahead log, and folds the log into a
+ * snapshot file per review in the background.
+ * <p>
+ * Saves are queued to a single committer thread, which writes everything
+ * queued in one write and forces it to disk once, so concurrent saves share
+ * the cost of a sync (group commit). A save returns, and is seen by reads,
+ * only when its batch is on disk. Each record of the log has its length and
+ * a CRC, and a torn record at the end of the log is discarded when the
+ * store is opened.
+ * <p>
+ * Reviews saved since the last compaction are kept in memory, and others
+ * are read from their snapshot. Compaction starts a new log segment,
+ * writes a snapshot of every review in memory, and deletes the older
+ * segments. A snapshot records the position of the last record it
+ * includes, so replaying the log on start skips what it already has.
+ * The position of that record is also the ETag of the review.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class WalReviewStore implements ReviewStore {
+
+	/** For logging purposes */
+	private static Logger logger = Logger.getLogger(WalReviewStore.class.getName());
+
+	/** Bytes in the current segment that trigger a compaction */
+	public static final long SEGMENT_SIZE = 64 * 1024 * 1024;
+	/** Seconds between compactions */
+	public static final int COMPACT_INTERVAL = 60;
+	/** Maximum records written in one group commit */
+	public static final int MAX_BATCH = 4096;
+
+	/** Number of locks reviews are spread over */
+	private static final int LOCKS = 256;
+	/** Reviews are URL encoded, so they are ASCII, but just in case */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** Length and CRC before each record */
+	private static final int HEADER = 8;
+
+	/**
+	 * The current text of a review, and the log position of its last save.
+	 */
+	private static class Entry {
+		private String text;
+		private int segment;
+		private long offset;
+		private long modified;
+		/** If the last save is not in the snapshot */
+		private boolean dirty;
+
+		private Entry(String text, int segment, long offset, long modified) {
+			this.text = text;
+			this.segment = segment;
+			this.offset = offset;
+			this.modified = modified;
+		}
+
+		/**
+		 * @return if a position is after the last save
+		 */
+		private boolean before(int segment, long offset) {
+			return this.segment < segment || (this.segment == segment && this.offset < offset);
+		}
+	}
+
+	/**
+	 * A save waiting to be written, or a marker for {@link #sync()} if it has
+	 * no data.
+	 */
+	private static class Record {
+		private final byte[] data;
+		private int segment;
+		private long offset;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private IOException error;
+
+		private Record(byte[] data) {
+			this.data = data;
+		}
+
+		/**
+		 * Waits until the record is on disk.
+		 */
+		private void await() throws IOException {
+			try {
+				this.done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted waiting for commit");
+			}
+			if(this.error != null)
+				throw this.error;
+		}
+	}
+
+	/** Where log segments are */
+	private final Path logs;
+	/** Where snapshots are */
+	private final Path snapshots;
+	/** Reviews saved since the last compaction */
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	/** Locks for the reviews, by hash of the key */
+	private final ReentrantLock[] locks;
+	/** Records waiting for the committer, in log order */
+	private final LinkedBlockingQueue<Record> queue = new LinkedBlockingQueue<Record>();
+	/** Guards the position of the next record */
+	private final Object appendLock = new Object();
+	/** Segment and offset of the next record */
+	private int segment;
+	private long offset;
+	/** Writes the queued records */
+	private final Thread committer;
+	/** Runs compactions */
+	private final ScheduledExecutorService compactor;
+	/** If a compaction is running or scheduled */
+	private final AtomicBoolean compacting = new AtomicBoolean(false);
+	/** Set when the store is closed */
+	private volatile boolean closed = false;
+	/** The error that stopped the committer, if any */
+	private volatile IOException failure;
+
+	/**
+	 * Opens a store in a directory, replaying its log.
+	 * 
+	 * @param directory the directory
+	 * @throws IOException
+	 */
+	public WalReviewStore(Path directory) throws IOException {
+		this.logs = directory.resolve("log");
+		this.snapshots = directory.resolve("snapshots");
+		Files.createDirectories(this.logs);
+		Files.createDirectories(this.snapshots);
+		this.locks = new ReentrantLock[LOCKS];
+		for(int i = 0; i < LOCKS; i++)
+			this.locks[i] = new ReentrantLock();
+
+		int last = recover();
+		// New saves go to a new segment, recovered ones are folded by the next compaction
+		this.segment = last + 1;
+		this.offset = 0;
+
+		this.committer = new Thread("review-wal-committer") {
+			@Override
+			public void run() {
+				commitLoop();
+			}
+		};
+		this.committer.setDaemon(true);
+		this.committer.start();
+
+		this.compactor = Executors.newSingleThreadScheduledExecutor();
+		this.compactor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				compactNow();
+			}
+		}, COMPACT_INTERVAL, COMPACT_INTERVAL, TimeUnit.SECONDS);
+		logger.info("Review log in " + directory.toAbsolutePath() + ", " + this.entries.size() + " reviews recovered");
+	}
+
+	/* (non-Javadoc)
+	 * @see cl.uai.server.ReviewStore#get(java.lang.String)
+	 */
+	public Review get(String key) throws IOException {
+		ReentrantLock lock = lock(key);
+		lock.lock();
+		try {
+			Entry entry = entry(key);
+			return new Review(entry.text, "\"" + entry.segment + "-" + entry.offset + "\"", entry.modified);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see cl.uai.server.ReviewStore#save(java.lang.String, java.lang.String, java.util.List)
+	 */
+	public void save(String key, String value, List<String> lines) throws IOException {
+		if(value == null && lines.isEmpty())
+			return;
+		if(this.closed || this.failure != null)
+			throw new IOException("The review store is closed", this.failure);
+
+		Record record = new Record(encode(key, value, lines));
+		boolean full;
+		ReentrantLock lock = lock(key);
+		lock.lock();
+		try {
+			Entry entry = entry(key);
+			// The position is taken under the review lock, so the log has its saves in order
+			synchronized (this.appendLock) {
+				record.segment = this.segment;
+				record.offset = this.offset;
+				this.offset += HEADER + record.data.length;
+				full = this.offset > SEGMENT_SIZE;
+				this.queue.add(record);
+			}
+			if(full)
+				compactSoon();
+			// The save is visible only once it is on disk, other reviews still share the commit
+			record.await();
+			apply(entry, value, lines);
+			entry.segment = record.segment;
+			entry.offset = record.offset;
+			entry.modified = System.currentTimeMillis();
+			entry.dirty = true;
+			this.entries.put(key, entry);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see cl.uai.server.ReviewStore#close()
+	 */
+	public void close() throws IOException {
+		if(this.closed)
+			return;
+		this.compactor.shutdown();
+		try {
+			this.compactor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.closed = true;
+		try {
+			this.committer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Folds the log into snapshots now, waiting until it finishes.
+	 * 
+	 * @throws IOException
+	 */
+	public void compact() throws IOException {
+		int upto;
+		synchronized (this.appendLock) {
+			upto = this.segment;
+			this.segment++;
+			this.offset = 0;
+		}
+		// Everything in the old segments must be on disk before it is folded
+		sync();
+		// The new segment exists even if nothing is saved to it, so its number is
+		// not used again after a restart, snapshots have positions up to it
+		FileChannel.open(segmentFile(upto + 1), StandardOpenOption.CREATE, StandardOpenOption.WRITE).close();
+
+		int written = 0;
+		for(String key : new ArrayList<String>(this.entries.keySet())) {
+			ReentrantLock lock = lock(key);
+			lock.lock();
+			try {
+				Entry entry = this.entries.get(key);
+				if(entry == null)
+					continue;
+				if(entry.dirty) {
+					writeSnapshot(key, entry);
+					written++;
+				}
+				this.entries.remove(key);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		for(int old : segments()) {
+			if(old <= upto)
+				Files.deleteIfExists(segmentFile(old));
+		}
+		logger.fine("Compacted log up to segment " + upto + ", " + written + " snapshots written");
+	}
+
+	/**
+	 * Schedules a compaction, unless one is already pending.
+	 */
+	private void compactSoon() {
+		if(this.compacting.compareAndSet(false, true)) {
+			this.compactor.execute(new Runnable() {
+				public void run() {
+					compactNow();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Runs a compaction from the compactor thread.
+	 */
+	private void compactNow() {
+		try {
+			compact();
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Compaction failed", e);
+		} catch (RuntimeException e) {
+			logger.log(Level.SEVERE, "Compaction failed", e);
+		} finally {
+			this.compacting.set(false);
+		}
+	}
+
+	/**
+	 * Waits until every record queued before it is on disk.
+	 * 
+	 * @throws IOException
+	 */
+	private void sync() throws IOException {
+		Record marker = new Record(null);
+		this.queue.add(marker);
+		marker.await();
+	}
+
+	/**
+	 * Writes queued records in batches, forcing each batch to disk once,
+	 * until the store is closed and the queue is empty.
+	 */
+	private void commitLoop() {
+		FileChannel channel = null;
+		int channelSegment = -1;
+		List<Record> batch = new ArrayList<Record>();
+		List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+		while(!this.closed || !this.queue.isEmpty()) {
+			try {
+				Record first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+				if(first == null)
+					continue;
+				batch.add(first);
+				this.queue.drainTo(batch, MAX_BATCH - 1);
+
+				if(this.failure == null) {
+					try {
+						for(Record record : batch) {
+							if(record.data == null)
+								continue;
+							if(record.segment != channelSegment) {
+								// A new segment, the previous one is completed first
+								if(channel != null) {
+									write(channel, buffers);
+									channel.force(false);
+									channel.close();
+								}
+								channel = FileChannel.open(segmentFile(record.segment), StandardOpenOption.CREATE, 
+										StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+								channelSegment = record.segment;
+							}
+							ByteBuffer header = ByteBuffer.allocate(HEADER);
+							header.putInt(record.data.length).putInt(crc(record.data)).flip();
+							buffers.add(header);
+							buffers.add(ByteBuffer.wrap(record.data));
+						}
+						if(channel != null) {
+							write(channel, buffers);
+							channel.force(false);
+						}
+					} catch (IOException e) {
+						logger.log(Level.SEVERE, "Could not write the review log, the store stops accepting saves", e);
+						this.failure = e;
+					}
+				}
+				for(Record record : batch) {
+					record.error = this.failure;
+					record.done.countDown();
+				}
+				batch.clear();
+				buffers.clear();
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		if(channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.warning("Could not close the review log " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Replays the log segments on top of the snapshots. A torn or corrupt
+	 * record ends the log, it is truncated there and the later segments are
+	 * moved out of the log to the corrupt directory.
+	 * 
+	 * @return the last segment, or 0 if there are none
+	 * @throws IOException
+	 */
+	private int recover() throws IOException {
+		List<Integer> segments = segments();
+		// Numbers of segments moved out of the log are not used again
+		int last = segments.isEmpty() ? 0 : segments.get(segments.size() - 1);
+		for(int i = 0; i < segments.size(); i++) {
+			int number = segments.get(i);
+			Path file = segmentFile(number);
+			byte[] log = Files.readAllBytes(file);
+			ByteBuffer buffer = ByteBuffer.wrap(log);
+			int records = 0;
+			while(buffer.remaining() > 0) {
+				int start = buffer.position();
+				if(buffer.remaining() < HEADER || !validRecord(buffer)) {
+					logger.warning("Truncating review log " + file + " at " + start);
+					FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+					try {
+						channel.truncate(start);
+						channel.force(false);
+					} finally {
+						channel.close();
+					}
+					Path corrupt = this.logs.resolveSibling("corrupt");
+					for(int j = i + 1; j < segments.size(); j++) {
+						Path ignored = segmentFile(segments.get(j));
+						logger.severe("Ignoring review log after a corrupt record " + ignored + ", moved to " + corrupt);
+						Files.createDirectories(corrupt);
+						Files.move(ignored, corrupt.resolve(ignored.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+					}
+					return last;
+				}
+				int length = buffer.getInt();
+				buffer.getInt();
+				byte[] data = new byte[length];
+				buffer.get(data);
+				replay(data, number, start);
+				records++;
+			}
+			logger.fine("Replayed " + records + " records of " + file);
+		}
+		return last;
+	}
+
+	/**
+	 * @return if the record at the buffer position is complete and its CRC matches
+	 */
+	private static boolean validRecord(ByteBuffer buffer) {
+		int start = buffer.position();
+		int length = buffer.getInt(start);
+		int crc = buffer.getInt(start + 4);
+		if(length < 0 || length > buffer.remaining() - HEADER)
+			return false;
+		CRC32 check = new CRC32();
+		check.update(buffer.array(), start + HEADER, length);
+		return (int) check.getValue() == crc;
+	}
+
+	/**
+	 * Applies a logged save, unless the snapshot already has it.
+	 */
+	private void replay(byte[] data, int segment, long offset) throws IOException {
+		DataInputStream in = new DataInputStream(new java.io.ByteArrayInputStream(data));
+		String key = readString(in);
+		String value = in.readBoolean() ? readString(in) : null;
+		int count = in.readInt();
+		List<String> lines = new ArrayList<String>(count);
+		for(int i = 0; i < count; i++)
+			lines.add(readString(in));
+
+		Entry entry = entry(key);
+		if(!entry.before(segment, offset))
+			return;
+		apply(entry, value, lines);
+		entry.segment = segment;
+		entry.offset = offset;
+		entry.modified = System.currentTimeMillis();
+		entry.dirty = true;
+		this.entries.put(key, entry);
+	}
+
+	/**
+	 * Applies a save to the text of a review.
+	 */
+	private static void apply(Entry entry, String value, List<String> lines) {
+		StringBuilder text = new StringBuilder(value != null ? value : entry.text);
+		for(String line : lines) {
+			if(text.length() > 0)
+				text.append('\n');
+			text.append(line);
+		}
+		entry.text = text.toString();
+	}
+
+	/**
+	 * Gets a review from memory, or reads its snapshot. Must be called
+	 * holding the review lock.
+	 */
+	private Entry entry(String key) throws IOException {
+		Entry entry = this.entries.get(key);
+		if(entry != null)
+			return entry;
+		Path file = snapshotFile(key);
+		if(!Files.exists(file))
+			return new Entry("", 0, 0, 0);
+		String snapshot = new String(Files.readAllBytes(file), UTF8);
+		// The first line has the position of the last save included
+		int newline = snapshot.indexOf('\n');
+		String[] position = snapshot.substring(0, newline).split(" ");
+		return new Entry(snapshot.substring(newline + 1), Integer.parseInt(position[0]), 
+				Long.parseLong(position[1]), Files.getLastModifiedTime(file).toMillis());
+	}
+
+	/**
+	 * Writes the snapshot of a review.
+	 */
+	private void writeSnapshot(String key, Entry entry) throws IOException {
+		Path file = snapshotFile(key);
+		Files.createDirectories(file.getParent());
+		FileReviewStore.replace(file, entry.segment + " " + entry.offset + "\n" + entry.text);
+		entry.dirty = false;
+	}
+
+	/**
+	 * @return the numbers of the log segments, in order
+	 */
+	private List<Integer> segments() throws IOException {
+		List<Integer> numbers = new ArrayList<Integer>();
+		DirectoryStream<Path> files = Files.newDirectoryStream(this.logs, "*.wal");
+		try {
+			for(Path file : files) {
+				String name = file.getFileName().toString();
+				numbers.add(Integer.parseInt(name.substring(0, name.length() - 4)));
+			}
+		} finally {
+			files.close();
+		}
+		Collections.sort(numbers);
+		return numbers;
+	}
+
+	/**
+	 * @return the file of a log segment
+	 */
+	private Path segmentFile(int number) {
+		return this.logs.resolve(String.format("%010d.wal", number));
+	}
+
+	/**
+	 * @return the snapshot file of a review
+	 */
+	private Path snapshotFile(String key) {
+		String hash = FileReviewStore.hash(key);
+		return this.snapshots.resolve(hash.substring(0, 2)).resolve(hash + ".review");
+	}
+
+	/**
+	 * @return the lock of a review
+	 */
+	private ReentrantLock lock(String key) {
+		return this.locks[(key.hashCode() & 0x7fffffff) % LOCKS];
+	}
+
+	/**
+	 * Encodes a save as a log record.
+	 */
+	private static byte[] encode(String key, String value, List<String> lines) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + (value == null ? 0 : value.length()));
+		DataOutputStream out = new DataOutputStream(bytes);
+		writeString(out, key);
+		out.writeBoolean(value != null);
+		if(value != null)
+			writeString(out, value);
+		out.writeInt(lines.size());
+		for(String line : lines)
+			writeString(out, line);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void writeString(DataOutputStream out, String text) throws IOException {
+		byte[] data = text.getBytes(UTF8);
+		out.writeInt(data.length);
+		out.write(data);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0)
+			throw new EOFException("Invalid string length " + length);
+		byte[] data = new byte[length];
+		in.readFully(data);
+		return new String(data, UTF8);
+	}
+
+	/**
+	 * @return the CRC32 of some data
+	 */
+	private static int crc(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Writes buffers fully to a channel, and empties the list.
+	 */
+	private static void write(FileChannel channel, List<ByteBuffer> buffers) throws IOException {
+		if(buffers.isEmpty())
+			return;
+		ByteBuffer[] array = buffers.toArray(new ByteBuffer[buffers.size()]);
+		long remaining = 0;
+		for(ByteBuffer buffer : array)
+			remaining += buffer.remaining();
+		while(remaining > 0)
+			remaining -= channel.write(array);
+		buffers.clear();
+	}
+}
@@ -0,0 +1,156 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.server;
+
+import static cl.uai.server.TestSupport.check;
+import static cl.uai.server.TestSupport.checkEquals;
+import static cl.uai.server.TestSupport.cmap;
+import static cl.uai.server.TestSupport.directory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests that reviews with the same CM share its file, and that the file
+ * is deleted with its last reference.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class ContentReviewStoreTest {
+
+	private static final List<String> NONE = Collections.emptyList();
+	private static final String FIRST = ReviewServer.key("test", "first", "review");
+	private static final String SECOND = ReviewServer.key("test", "second", "review");
+
+	public static void main(String[] args) {
+		try {
+			referencesAreCounted();
+			forgedReferencesAreRejected();
+			textsAreKept();
+			System.out.println("ContentReviewStoreTest passed");
+		} catch (Throwable e) {
+			// The stores may leave threads running
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Two reviews with the same CM keep one file, until neither refers to it.
+	 */
+	private static void referencesAreCounted() throws IOException {
+		Path data = directory("content");
+		Path blobs = data.resolve("blobs");
+		ContentReviewStore store = new ContentReviewStore(new FileReviewStore(data.resolve("reviews")), blobs);
+		String shared = cmap("Shared", 10);
+		String canonical = StoredConceptMap.canonical(shared);
+		String hash = FileReviewStore.hash(canonical);
+		Path blob = blobs.resolve(hash.substring(0, 2)).resolve(hash + ".cmap");
+		Path refs = blobs.resolve(hash.substring(0, 2)).resolve(hash + ".refs");
+
+		store.save(FIRST, shared, NONE);
+		store.save(SECOND, shared, Collections.singletonList("delta"));
+		checkEquals("2", read(refs), "References of a shared CM");
+		checkEquals(shared, store.get(FIRST).getText(), "First review");
+		checkEquals(shared + "\ndelta", store.get(SECOND).getText(), "Second review with its line");
+		check(store.get(FIRST).getText() == store.get(FIRST).getText(), "Text of a shared CM not shared");
+
+		// Saving the same CM again does not add a reference
+		store.save(FIRST, shared, NONE);
+		checkEquals("2", read(refs), "References after saving the same CM");
+
+		store.save(FIRST, cmap("Changed", 20), NONE);
+		checkEquals("1", read(refs), "References after one review changed");
+		check(Files.exists(blob), "CM deleted while a review refers to it");
+
+		// A review that is not a single CM is kept as it is
+		store.save(SECOND, "not a cmap", NONE);
+		check(!Files.exists(blob), "Unused CM not deleted");
+		check(!Files.exists(refs), "References of an unused CM not deleted");
+		checkEquals("not a cmap", store.get(SECOND).getText(), "Review that is not a CM");
+		checkEquals(cmap("Changed", 20), store.get(FIRST).getText(), "Changed review");
+		store.close();
+	}
+
+	/**
+	 * A CM equal to a shared one in canonical form, but not in its text, is
+	 * kept as it was sent.
+	 */
+	private static void textsAreKept() throws IOException {
+		Path data = directory("texts");
+		Path blobs = data.resolve("blobs");
+		ContentReviewStore store = new ContentReviewStore(new FileReviewStore(data.resolve("reviews")), blobs);
+		String shared = cmap("Shared", 10);
+		// Decimals and attributes the server does not know about
+		String other = shared.replace("posx%3D%2210%22", "posx%3D%2210.5%22%20color%3D%22red%22");
+		checkEquals(StoredConceptMap.canonical(shared), StoredConceptMap.canonical(other), "Canonical forms");
+		String hash = FileReviewStore.hash(StoredConceptMap.canonical(shared));
+		Path refs = blobs.resolve(hash.substring(0, 2)).resolve(hash + ".refs");
+
+		store.save(FIRST, shared, NONE);
+		store.save(SECOND, other, NONE);
+		checkEquals("1", read(refs), "References of a CM with another text");
+		checkEquals(shared, store.get(FIRST).getText(), "Shared review");
+		checkEquals(other, store.get(SECOND).getText(), "Review with another text");
+		store.close();
+	}
+
+	/**
+	 * Reviews cannot refer to CM files themselves, nor to files outside
+	 * the directory.
+	 */
+	private static void forgedReferencesAreRejected() throws IOException {
+		Path data = directory("forged");
+		ContentReviewStore store = new ContentReviewStore(new FileReviewStore(data.resolve("reviews")), data.resolve("blobs"));
+		String hash = FileReviewStore.hash(StoredConceptMap.canonical(cmap("Other", 10)));
+		String[] forged = new String[] { ContentReviewStore.REFERENCE + hash, 
+				ContentReviewStore.REFERENCE + "../../../etc/passwd" };
+		for(String value : forged) {
+			try {
+				store.save(FIRST, value, NONE);
+				throw new AssertionError("Saved a forged reference " + value);
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+			try {
+				store.save(FIRST, null, Collections.singletonList(value));
+				throw new AssertionError("Appended a forged reference " + value);
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+		checkEquals("", store.get(FIRST).getText(), "Review after forged saves");
+		store.close();
+	}
+
+	/**
+	 * @return the text of a file
+	 */
+	private static String read(Path file) throws IOException {
+		return new String(Files.readAllBytes(file), "US-ASCII").trim();
+	}
+}
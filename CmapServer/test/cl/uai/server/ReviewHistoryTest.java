@@ -0,0 +1,161 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.server;
+
+import static cl.uai.server.TestSupport.check;
+import static cl.uai.server.TestSupport.checkEquals;
+import static cl.uai.server.TestSupport.cmap;
+import static cl.uai.server.TestSupport.directory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests that every revision of a review is rebuilt as it was saved.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class ReviewHistoryTest {
+
+	private static final List<String> NONE = Collections.emptyList();
+	private static final String KEY = ReviewServer.key("test", "author", "review");
+	/** Enough revisions for more than one full CM */
+	private static final int REVISIONS = ReviewHistory.SNAPSHOT_INTERVAL * 2 + 5;
+
+	public static void main(String[] args) {
+		try {
+			revisionsAreRebuilt();
+			historyStartsFromTheSave();
+			incompleteRevisionIsRemoved();
+			System.out.println("ReviewHistoryTest passed");
+		} catch (Throwable e) {
+			// The stores may leave threads running
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Revisions before and after full CMs are rebuilt, also once the
+	 * history is read again from its files.
+	 */
+	private static void revisionsAreRebuilt() throws IOException {
+		Path data = directory("history");
+		ReviewStore store = new FileReviewStore(data.resolve("reviews"));
+		ReviewHistory history = new ReviewHistory(data.resolve("history"), store);
+		for(int i = 0; i < REVISIONS / 2; i++)
+			save(store, history, i);
+		history.close();
+
+		// The rest is appended to the history read from its files
+		history = new ReviewHistory(data.resolve("history"), store);
+		for(int i = REVISIONS / 2; i < REVISIONS; i++)
+			save(store, history, i);
+		// A save that does not change the CM is not a revision
+		save(store, history, REVISIONS - 1);
+		history.close();
+
+		history = new ReviewHistory(data.resolve("history"), store);
+		checkEquals(REVISIONS, history.size(KEY), "Revisions");
+		checkEquals(REVISIONS, history.times(KEY).length, "Revision times");
+		for(int i = 0; i < REVISIONS; i++)
+			checkEquals(StoredConceptMap.canonical(cmap("Map", i)), StoredConceptMap.canonical(history.get(KEY, i)), "Revision " + i);
+		check(history.get(KEY, REVISIONS) == null, "Revision after the last");
+		history.close();
+	}
+
+	/**
+	 * The first revision is the review as saved when it was recorded, even
+	 * if it was saved again before the revision was written.
+	 */
+	private static void historyStartsFromTheSave() throws IOException {
+		Path data = directory("first");
+		ReviewStore store = new FileReviewStore(data.resolve("reviews"));
+		// Saved before there was a history
+		store.save(KEY, cmap("Map", 0), NONE);
+		ReviewHistory history = new ReviewHistory(data.resolve("history"), store);
+		store.save(KEY, null, Collections.singletonList(cmap("Map", 1)));
+		history.record(KEY, null, Collections.singletonList(cmap("Map", 1)));
+		save(store, history, 2);
+		history.close();
+
+		checkEquals(2, history.size(KEY), "Revisions");
+		checkEquals(StoredConceptMap.canonical(cmap("Map", 1)), StoredConceptMap.canonical(history.get(KEY, 0)), "First revision");
+		checkEquals(StoredConceptMap.canonical(cmap("Map", 2)), StoredConceptMap.canonical(history.get(KEY, 1)), "Second revision");
+	}
+
+	/**
+	 * A revision cut short, as by a crash, is removed when the history is
+	 * read again.
+	 */
+	private static void incompleteRevisionIsRemoved() throws IOException {
+		Path data = directory("incomplete");
+		ReviewStore store = new FileReviewStore(data.resolve("reviews"));
+		ReviewHistory history = new ReviewHistory(data.resolve("history"), store);
+		save(store, history, 0);
+		save(store, history, 1);
+		history.close();
+
+		String hash = FileReviewStore.hash(KEY);
+		Path directory = data.resolve("history").resolve(hash.substring(0, 2));
+		append(directory.resolve(hash + ".history"), "%3Cconceptmap");
+		append(directory.resolve(hash + ".index"), "12345");
+
+		history = new ReviewHistory(data.resolve("history"), store);
+		checkEquals(2, history.size(KEY), "Revisions with an incomplete one");
+		save(store, history, 2);
+		history.close();
+		checkEquals(3, history.size(KEY), "Revisions after the incomplete one");
+		for(int i = 0; i < 3; i++)
+			checkEquals(StoredConceptMap.canonical(cmap("Map", i)), StoredConceptMap.canonical(history.get(KEY, i)), "Revision " + i);
+	}
+
+	/**
+	 * Saves a CM and records it, as the server does.
+	 */
+	private static void save(ReviewStore store, ReviewHistory history, int posx) throws IOException {
+		String value = cmap("Map", posx);
+		store.save(KEY, value, NONE);
+		history.record(KEY, value, NONE);
+	}
+
+	/**
+	 * Appends text to a file.
+	 */
+	private static void append(Path file, String text) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		try {
+			ByteBuffer data = ByteBuffer.wrap(text.getBytes("US-ASCII"));
+			while(data.hasRemaining())
+				channel.write(data);
+		} finally {
+			channel.close();
+		}
+	}
+}
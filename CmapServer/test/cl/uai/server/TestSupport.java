@@ -0,0 +1,90 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.server;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Helpers for the store tests, which run as plain programs from
+ * {@code ant test} and fail by throwing.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+class TestSupport {
+
+	/**
+	 * Fails a test if a condition does not hold.
+	 * 
+	 * @param condition the condition
+	 * @param message what is wrong if it does not hold
+	 */
+	static void check(boolean condition, String message) {
+		if(!condition)
+			throw new AssertionError(message);
+	}
+
+	/**
+	 * Fails a test if two values differ.
+	 */
+	static void checkEquals(Object expected, Object actual, String message) {
+		if(expected == null ? actual != null : !expected.equals(actual))
+			throw new AssertionError(message + ", expected <" + expected + "> but was <" + actual + ">");
+	}
+
+	/**
+	 * Creates an empty directory for a test, under the directory given by
+	 * the test.data property.
+	 * 
+	 * @param name the test name
+	 * @return the directory
+	 * @throws IOException
+	 */
+	static Path directory(String name) throws IOException {
+		Path base = Paths.get(System.getProperty("test.data", "build/test-data"));
+		Files.createDirectories(base);
+		return Files.createTempDirectory(base, name);
+	}
+
+	/**
+	 * @param title the title of the CM
+	 * @param posx position of its first concept
+	 * @return a stored CM with two concepts and a relationship
+	 */
+	static String cmap(String title, int posx) {
+		String xml = "<conceptmap title=\"" + title + "\">"
+				+ "<concept id=\"1\" label=\"A\" posx=\"" + posx + "\" posy=\"10\"/>"
+				+ "<concept id=\"2\" label=\"B\" posx=\"300\" posy=\"10\"/>"
+				+ "<relationship id=\"1\" source=\"1\" target=\"2\" linkingWord=\"is before\" posx=\"150\" posy=\"10\"/>"
+				+ "</conceptmap>";
+		try {
+			return URLEncoder.encode(xml, "UTF-8").replace("+", "%20");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
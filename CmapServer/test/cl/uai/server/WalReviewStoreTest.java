@@ -0,0 +1,267 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.server;
+
+import static cl.uai.server.TestSupport.check;
+import static cl.uai.server.TestSupport.checkEquals;
+import static cl.uai.server.TestSupport.directory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests the recovery, rotation and compaction of the review log.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class WalReviewStoreTest {
+
+	private static final List<String> NONE = Collections.emptyList();
+	private static final String KEY = ReviewServer.key("test", "author", "review");
+
+	public static void main(String[] args) {
+		try {
+			tornTailIsTruncated();
+			corruptRecordMovesLaterSegments();
+			compactionWritesSnapshots();
+			fullSegmentIsCompacted();
+			replayedLogSkipsSnapshot();
+			restartAfterCompaction();
+			System.out.println("WalReviewStoreTest passed");
+		} catch (Throwable e) {
+			// The stores may leave threads running
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * A record cut short at the end of the log is dropped, and saves
+	 * before it are kept.
+	 */
+	private static void tornTailIsTruncated() throws IOException {
+		Path data = directory("torn");
+		WalReviewStore store = new WalReviewStore(data);
+		store.save(KEY, "cmap", NONE);
+		store.save(KEY, null, Collections.singletonList("delta"));
+		store.close();
+
+		Path segment = segments(data)[0];
+		long size = Files.size(segment);
+		// A header that promises more than was written
+		ByteBuffer torn = ByteBuffer.allocate(11);
+		torn.putInt(100).putInt(12345).put(new byte[] { 1, 2, 3 }).flip();
+		append(segment, torn);
+
+		store = new WalReviewStore(data);
+		checkEquals("cmap\ndelta", store.get(KEY).getText(), "Saves before the torn record");
+		checkEquals(size, Files.size(segment), "Torn record truncated");
+		store.save(KEY, null, Collections.singletonList("after"));
+		store.close();
+
+		store = new WalReviewStore(data);
+		checkEquals("cmap\ndelta\nafter", store.get(KEY).getText(), "Saves after recovery");
+		store.close();
+	}
+
+	/**
+	 * A corrupt record ends the log, later segments are moved out and their
+	 * numbers are not used again.
+	 */
+	private static void corruptRecordMovesLaterSegments() throws IOException {
+		Path data = directory("corrupt");
+		WalReviewStore store = new WalReviewStore(data);
+		store.save(KEY, "first", NONE);
+		store.close();
+		// Each time the store is opened it starts a new segment
+		store = new WalReviewStore(data);
+		store.save(KEY, null, Collections.singletonList("second"));
+		store.close();
+		Path[] segments = segments(data);
+		checkEquals(2, segments.length, "Segments");
+
+		// Flips the last byte of the only record in the first segment
+		byte[] log = Files.readAllBytes(segments[0]);
+		log[log.length - 1] ^= 1;
+		Files.write(segments[0], log);
+
+		store = new WalReviewStore(data);
+		checkEquals("", store.get(KEY).getText(), "Review after a corrupt first record");
+		checkEquals(0L, Files.size(segments[0]), "Corrupt record truncated");
+		check(!Files.exists(segments[1]), "Later segment left in the log");
+		check(Files.exists(data.resolve("corrupt").resolve(segments[1].getFileName())), "Later segment not moved");
+		store.save(KEY, "third", NONE);
+		store.close();
+
+		Path[] after = segments(data);
+		checkEquals(2, after.length, "Segments after recovery");
+		check(after[1].getFileName().compareTo(segments[1].getFileName()) > 0, "Moved segment number reused");
+		store = new WalReviewStore(data);
+		checkEquals("third", store.get(KEY).getText(), "Review after recovery");
+		store.close();
+	}
+
+	/**
+	 * A compaction starts a new segment, writes the snapshots and deletes
+	 * the segments they include.
+	 */
+	private static void compactionWritesSnapshots() throws IOException {
+		Path data = directory("compact");
+		String other = ReviewServer.key("test", "other", "review");
+		WalReviewStore store = new WalReviewStore(data);
+		store.save(KEY, "cmap", NONE);
+		store.save(other, "other", NONE);
+		Path[] before = segments(data);
+		String etag = store.get(KEY).getEtag();
+
+		store.compact();
+		check(!Files.exists(before[0]), "Compacted segment not deleted");
+		checkEquals("cmap", store.get(KEY).getText(), "Review read from its snapshot");
+		checkEquals(etag, store.get(KEY).getEtag(), "ETag of the snapshot");
+
+		store.save(KEY, null, Collections.singletonList("delta"));
+		Path[] after = segments(data);
+		checkEquals(1, after.length, "Segments after a compaction");
+		check(after[0].getFileName().compareTo(before[0].getFileName()) > 0, "Saves after a compaction in a new segment");
+		check(!etag.equals(store.get(KEY).getEtag()), "ETag changes with a save");
+		store.close();
+
+		store = new WalReviewStore(data);
+		checkEquals("cmap\ndelta", store.get(KEY).getText(), "Snapshot and log");
+		checkEquals("other", store.get(other).getText(), "Review only in a snapshot");
+		store.close();
+	}
+
+	/**
+	 * A segment over {@link WalReviewStore#SEGMENT_SIZE} is compacted in the
+	 * background, and saves go on in the next segment.
+	 */
+	private static void fullSegmentIsCompacted() throws IOException, InterruptedException {
+		Path data = directory("rotate");
+		WalReviewStore store = new WalReviewStore(data);
+		char[] large = new char[1024 * 1024];
+		Arrays.fill(large, 'c');
+		String value = new String(large);
+		store.save(KEY, value, NONE);
+		Path first = segments(data)[0];
+		for(long written = 0; written <= WalReviewStore.SEGMENT_SIZE; written += large.length)
+			store.save(KEY, value, NONE);
+		store.save(KEY, null, Collections.singletonList("delta"));
+		for(int i = 0; i < 200 && Files.exists(first); i++)
+			Thread.sleep(50);
+		check(!Files.exists(first), "Full segment not compacted");
+		checkEquals(value + "\ndelta", store.get(KEY).getText(), "Review after the segment was compacted");
+		store.close();
+
+		store = new WalReviewStore(data);
+		checkEquals(value + "\ndelta", store.get(KEY).getText(), "Review after reopening");
+		store.close();
+	}
+
+	/**
+	 * Records that a snapshot already includes are not applied again, as
+	 * when a compaction stops before deleting its segments.
+	 */
+	private static void replayedLogSkipsSnapshot() throws IOException {
+		Path data = directory("replay");
+		WalReviewStore store = new WalReviewStore(data);
+		// Only appended lines, which a second replay would append again
+		store.save(KEY, null, Collections.singletonList("cmap"));
+		store.save(KEY, null, Collections.singletonList("delta"));
+		Path segment = segments(data)[0];
+		Path copy = data.resolve("segment.copy");
+		Files.copy(segment, copy);
+		store.compact();
+		store.close();
+		Files.move(copy, segment, StandardCopyOption.REPLACE_EXISTING);
+
+		store = new WalReviewStore(data);
+		checkEquals("cmap\ndelta", store.get(KEY).getText(), "Review with its log replayed twice");
+		store.close();
+	}
+
+	/**
+	 * Saves after a restart that follows a compaction are logged after the
+	 * positions in the snapshots, so they are replayed and change the ETag.
+	 */
+	private static void restartAfterCompaction() throws IOException {
+		Path data = directory("restart");
+		WalReviewStore store = new WalReviewStore(data);
+		store.save(KEY, "v1", NONE);
+		store.save(KEY, null, Collections.singletonList("delta"));
+		store.compact();
+		String etag = store.get(KEY).getEtag();
+		store.close();
+
+		store = new WalReviewStore(data);
+		store.save(KEY, "v2", NONE);
+		String saved = store.get(KEY).getEtag();
+		check(!etag.equals(saved), "ETag reused after a restart");
+		store.close();
+
+		store = new WalReviewStore(data);
+		checkEquals("v2", store.get(KEY).getText(), "Save after a restart");
+		checkEquals(saved, store.get(KEY).getEtag(), "ETag after a restart");
+		store.close();
+	}
+
+	/**
+	 * @return the log segments of a store, in order
+	 */
+	private static Path[] segments(Path data) throws IOException {
+		List<Path> segments = new ArrayList<Path>();
+		DirectoryStream<Path> files = Files.newDirectoryStream(data.resolve("log"), "*.wal");
+		try {
+			for(Path file : files)
+				segments.add(file);
+		} finally {
+			files.close();
+		}
+		Collections.sort(segments);
+		return segments.toArray(new Path[segments.size()]);
+	}
+
+	/**
+	 * Appends bytes to a file.
+	 */
+	private static void append(Path file, ByteBuffer data) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		try {
+			while(data.hasRemaining())
+				channel.write(data);
+		} finally {
+			channel.close();
+		}
+	}
+}
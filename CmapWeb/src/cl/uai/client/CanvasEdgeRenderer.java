@@ -0,0 +1,183 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.client;
+
+import cl.uai.client.util.IntMap;
+
+import com.google.gwt.animation.client.AnimationScheduler;
+import com.google.gwt.animation.client.AnimationScheduler.AnimationCallback;
+import com.google.gwt.animation.client.AnimationScheduler.AnimationHandle;
+import com.google.gwt.canvas.client.Canvas;
+import com.google.gwt.canvas.dom.client.Context2d;
+import com.google.gwt.user.client.ui.Widget;
+
+/**
+ * Draws relationships on an HTML5 canvas. Nothing is kept per
+ * relationship but its label: when any relationship changes, all of them
+ * are drawn again in one pass in the next animation frame, which is
+ * cheaper than updating thousands of SVG elements. Lines and arrows have
+ * the same geometry and colors as with {@link SvgEdgeRenderer}.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class CanvasEdgeRenderer implements EdgeRenderer {
+
+	/** Color of lines and arrows, as the srcRelationship and tgtRelationship styles */
+	private static final String EDGE_COLOR = "#666666"; //$NON-NLS-1$
+	/** Color of the line drawn while adding a relationship */
+	private static final String LINK_COLOR = "#CCCCCC"; //$NON-NLS-1$
+
+	/** The canvas */
+	private Canvas canvas;
+	/** Labels of the relationships drawn, by relationship id */
+	private IntMap<RelationshipLabel> labels = new IntMap<RelationshipLabel>();
+	/** Line drawn while adding a relationship {x1, y1, x2, y2} */
+	private int[] linkLine = new int[4];
+	/** The redraw scheduled for the next frame, if any */
+	private AnimationHandle scheduled = null;
+
+	/** Draws everything in the next frame */
+	private AnimationCallback redraw = new AnimationCallback() {
+		public void execute(double timestamp) {
+			scheduled = null;
+			draw();
+		}
+	};
+
+	/**
+	 * Creates a renderer, if the browser supports canvas.
+	 * 
+	 * @param width width of the canvas
+	 * @param height height of the canvas
+	 * @return the renderer, or null if there is no canvas
+	 */
+	public static CanvasEdgeRenderer create(int width, int height) {
+		Canvas canvas = Canvas.createIfSupported();
+		if(canvas == null)
+			return null;
+		CanvasEdgeRenderer renderer = new CanvasEdgeRenderer(canvas);
+		renderer.setSize(width, height);
+		return renderer;
+	}
+
+	private CanvasEdgeRenderer(Canvas canvas) {
+		this.canvas = canvas;
+	}
+
+	public Widget getWidget() {
+		return this.canvas;
+	}
+
+	public void add(RelationshipLabel label) {
+		this.labels.put(label.getRelationship().getId(), label);
+		scheduleDraw();
+	}
+
+	public void remove(RelationshipLabel label) {
+		if(this.labels.remove(label.getRelationship().getId()) != null)
+			scheduleDraw();
+	}
+
+	public void update(RelationshipLabel label) {
+		scheduleDraw();
+	}
+
+	public void setLinkLine(int x1, int y1, int x2, int y2) {
+		this.linkLine[0] = x1;
+		this.linkLine[1] = y1;
+		this.linkLine[2] = x2;
+		this.linkLine[3] = y2;
+		scheduleDraw();
+	}
+
+	public void clear() {
+		this.labels.clear();
+		scheduleDraw();
+	}
+
+	public void setSize(int width, int height) {
+		this.canvas.setPixelSize(width, height);
+		this.canvas.setCoordinateSpaceWidth(width);
+		this.canvas.setCoordinateSpaceHeight(height);
+		scheduleDraw();
+	}
+
+	public void flush() {
+		if(this.scheduled == null)
+			return;
+		this.scheduled.cancel();
+		this.scheduled = null;
+		draw();
+	}
+
+	/**
+	 * Schedules drawing all relationships in the next frame, once however
+	 * many change before it.
+	 */
+	private void scheduleDraw() {
+		if(this.scheduled != null)
+			return;
+		this.scheduled = AnimationScheduler.get().requestAnimationFrame(this.redraw, this.canvas.getElement());
+	}
+
+	/**
+	 * Draws all relationships: their lines in one path and their arrows in another.
+	 */
+	private void draw() {
+		Context2d context = this.canvas.getContext2d();
+		context.clearRect(0, 0, this.canvas.getCoordinateSpaceWidth(), this.canvas.getCoordinateSpaceHeight());
+
+		// Offset half a pixel so 1 pixel lines are sharp, as SVG draws them
+		context.setLineWidth(1);
+		context.setStrokeStyle(EDGE_COLOR);
+		context.beginPath();
+		for(RelationshipLabel label : this.labels) {
+			int[] e = label.getEdge();
+			context.moveTo(e[0] + 0.5, e[1] + 0.5);
+			context.lineTo(e[2] + 0.5, e[3] + 0.5);
+			context.lineTo(e[4] + 0.5, e[5] + 0.5);
+		}
+		context.stroke();
+
+		context.setFillStyle(EDGE_COLOR);
+		context.beginPath();
+		for(RelationshipLabel label : this.labels) {
+			int[] e = label.getEdge();
+			context.moveTo(e[4], e[5]);
+			context.lineTo(e[6], e[7]);
+			context.lineTo(e[8], e[9]);
+			context.closePath();
+		}
+		context.fill();
+
+		if(this.linkLine[0] != this.linkLine[2] || this.linkLine[1] != this.linkLine[3]) {
+			context.setLineWidth(2);
+			context.setStrokeStyle(LINK_COLOR);
+			context.beginPath();
+			context.moveTo(this.linkLine[0], this.linkLine[1]);
+			context.lineTo(this.linkLine[2], this.linkLine[3]);
+			context.stroke();
+		}
+	}
+}
@@ -25,9 +25,14 @@ package cl.uai.client;
 import java.util.logging.Logger;
 
 import cl.uai.client.loaders.HtmlInput;
+import cl.uai.client.loaders.OfflineReviewLoader;
+import cl.uai.client.loaders.RegionReviewLoader;
+import cl.uai.client.loaders.ReviewHttpRequest;
 import cl.uai.client.loaders.ReviewLoader;
+import cl.uai.client.resources.Resources;
 
 import com.google.gwt.core.client.EntryPoint;
+import com.google.gwt.dom.client.Element;
 import com.google.gwt.user.client.Window;
 import com.google.gwt.user.client.ui.RootPanel;
 
@@ -51,6 +56,9 @@ public class CmapWeb implements EntryPoint {
 	public void onModuleLoad() {
 		logger.fine("Loading testing interface");
 
+		// Label borders and cursors, from the resources bundle
+		Resources.INSTANCE.css().ensureInjected();
+
 		// Get id for CmapWeb's DIV tag
 		String cmapwebDivId = "conceptmap";
 		if(RootPanel.get(cmapwebDivId)==null) {
@@ -70,9 +78,12 @@ public class CmapWeb implements EntryPoint {
 			return;			
 		}
 
+		// The URL of a servlet to load and save the CM data, if any
+		String servlet = RootPanel.get(cmapwebDivId).getElement().getAttribute("servlet");
+
 		// The name of the HTML input in which the CM data will be stored
 		String input = RootPanel.get(cmapwebDivId).getElement().getAttribute("input");
-		if(RootPanel.get(input) == null) {
+		if((servlet == null || servlet.length() == 0) && RootPanel.get(input) == null) {
 			Window.alert("Error in HTML for CmapWeb can not initalize. Invalid input id for saving data.");
 			return;			
 		}
@@ -84,9 +95,51 @@ public class CmapWeb implements EntryPoint {
 			readOnly = RootPanel.get(cmapwebDivId).getElement().getAttribute("readonly").equals("true");
 		logger.fine("Read only mode: " + readOnly);
 
+		// Read div attribute for labels drawn by CSS instead of tables
+		String labels = RootPanel.get(cmapwebDivId).getElement().getAttribute("labels");
+		ConceptLabel.setLightweight(labels != null && labels.equals("css"));
+
 		// Set the client's width and height
 		cmapview = new ConceptMapView(width, height, readOnly);
-		cmapview.setLoader(getLoader(input));
+		cmapview.setLoader(getLoader(cmapwebDivId, servlet, input));
+
+		// Read div attribute for drawing relationship lines on a canvas, or as one SVG path each
+		String edges = RootPanel.get(cmapwebDivId).getElement().getAttribute("edges");
+		if(edges != null && edges.equals("canvas")) {
+			CanvasEdgeRenderer renderer = CanvasEdgeRenderer.create(width, height);
+			if(renderer != null)
+				cmapview.setEdgeRenderer(renderer);
+			else
+				logger.warning("No canvas support, drawing relationships with SVG");
+		} else if(edges != null && edges.equals("path")) {
+			cmapview.setEdgeRenderer(new PathEdgeRenderer(width, height));
+		}
+
+		// Read div attribute for the save mode: full, delta (default) or journal
+		String saveMode = RootPanel.get(cmapwebDivId).getElement().getAttribute("savemode");
+		if(saveMode != null && saveMode.equals("full"))
+			cmapview.setSaveMode(ConceptMapView.SaveMode.FULL);
+		else if(saveMode != null && saveMode.equals("journal"))
+			cmapview.setSaveMode(ConceptMapView.SaveMode.JOURNAL);
+		logger.fine("Save mode: " + saveMode);
+
+		// Read div attribute for loading large CMs by regions, which are saved as deltas
+		String paged = RootPanel.get(cmapwebDivId).getElement().getAttribute("paged");
+		if(paged != null && paged.equals("true")) {
+			if(cmapview.getLoader() instanceof RegionReviewLoader) {
+				cmapview.setRegionPaging(true);
+				cmapview.setSaveMode(ConceptMapView.SaveMode.DELTA);
+			} else {
+				logger.warning("The loader can not load regions, loading the whole CM");
+			}
+		}
+
+		// Pending changes must be in the input before its form is sent,
+		// the servlet transport keeps saves in order so they can overlap
+		if(servlet == null || servlet.length() == 0)
+			cmapview.getSaveScheduler().flushOnSubmit(RootPanel.get(input).getElement());
+		else
+			cmapview.getSaveScheduler().setPipelined(true);
 
 		// Add the view to the div in the page
 		RootPanel.get(cmapwebDivId).add(cmapview);
@@ -96,12 +149,32 @@ public class CmapWeb implements EntryPoint {
 			cmapview.showHelp();
 	}
 
-	private ReviewLoader getLoader(String input) {
+	private ReviewLoader getLoader(String cmapwebDivId, String servlet, String input) {
 		ReviewLoader loader = null;
 
-		HtmlInput request = new HtmlInput();
-		request.setInputName(input);
-		loader = request;
+		if(servlet != null && servlet.length() > 0) {
+			Element div = RootPanel.get(cmapwebDivId).getElement();
+			ReviewHttpRequest request = new ReviewHttpRequest();
+			request.setUrlTmlServlet(servlet);
+			request.setDocumentId(div.getAttribute("document"));
+			request.setReviewAuthor(div.getAttribute("author"));
+			request.setReviewName(div.getAttribute("review"));
+			loader = request;
+
+			// Read div attribute for offline editing, saving to the browser first
+			if(div.getAttribute("offline") != null && div.getAttribute("offline").equals("true")) {
+				OfflineReviewLoader offline = OfflineReviewLoader.create(request,
+						servlet + "|" + request.getDocumentId() + "|" + request.getReviewAuthor() + "|" + request.getReviewName());
+				if(offline != null)
+					loader = offline;
+				else
+					logger.warning("No local storage, offline editing disabled");
+			}
+		} else {
+			HtmlInput request = new HtmlInput();
+			request.setInputName(input);
+			loader = request;
+		}
 		return loader;
 	}
 }
@@ -0,0 +1,229 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cl.uai.client.cmap.XmlWriter;
+import cl.uai.client.commands.AbstractConceptMapCommand;
+
+import com.google.gwt.http.client.URL;
+
+/**
+ * The entries of a CM journal waiting to be appended by a
+ * {@link cl.uai.client.loaders.JournalReviewLoader}. Loading replays the
+ * entries after the latest checkpoint on an empty history, so an undo or
+ * redo can only be journaled if the command it targets was itself journaled
+ * after that checkpoint. Otherwise, and every {@link #CHECKPOINT_INTERVAL}
+ * entries, a new checkpoint is appended with the next entries.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class CommandJournal {
+
+	/** Entries after which a checkpoint is appended */
+	public static final int CHECKPOINT_INTERVAL = 50;
+
+	/** Encoded entries not yet appended */
+	private List<String> pending = new ArrayList<String>();
+	/** Encoded entries being appended, by save in flight (oldest first) */
+	private List<List<String>> appending = new ArrayList<List<String>>();
+	/** Entries of failed saves put back in pending since the last take */
+	private int restored = 0;
+	/** Index in the history of the first command replayed after the latest checkpoint */
+	private int start = 0;
+	/** Number of commands in the history replayed after the latest checkpoint */
+	private int replayed = 0;
+	/** Entries appended since the latest checkpoint */
+	private int entries = 0;
+	/** If the next lines must end with a checkpoint */
+	private boolean checkpointRequired = true;
+	/** Buffer reused to write entries */
+	private XmlWriter xmlWriter = new XmlWriter();
+
+	/**
+	 * Journals a command executed in the viewer.
+	 * 
+	 * @param command the command
+	 * @param index the index of the command in the history
+	 */
+	public void executed(AbstractConceptMapCommand command, int index) {
+		this.xmlWriter.reset();
+		command.exportXML(this.xmlWriter, index);
+		add(this.xmlWriter.toString());
+		// Commands after it in the history were discarded
+		this.replayed = index - this.start + 1;
+	}
+
+	/**
+	 * @return if there are lines to append
+	 */
+	public boolean isEmpty() {
+		return this.pending.isEmpty() && !this.checkpointRequired;
+	}
+
+	/**
+	 * @return if the next lines must end with a checkpoint
+	 */
+	public boolean isCheckpointRequired() {
+		return checkpointRequired;
+	}
+
+	/**
+	 * Journals a redo in the viewer.
+	 * 
+	 * @param index the index in the history of the command redone
+	 */
+	public void redone(int index) {
+		if(index < this.start || index >= this.start + this.replayed)
+			this.checkpointRequired = true;
+		add("<redo/>"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Requires a checkpoint with the next lines, for example because a new
+	 * CM was set in the viewer or the last lines could not be appended.
+	 */
+	public void requireCheckpoint() {
+		this.checkpointRequired = true;
+	}
+
+	/**
+	 * Journals an undo in the viewer.
+	 * 
+	 * @param index the index in the history of the command undone
+	 */
+	public void undone(int index) {
+		if(index < this.start)
+			this.checkpointRequired = true;
+		add("<undo/>"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Takes the lines to append to the journal. They stay in the journal
+	 * until {@link #appended(boolean)} is called.
+	 * 
+	 * @param checkpoint the full CM, URL encoded, if a checkpoint is required
+	 * @param lastCommand the number of commands in the history that are executed
+	 * @return the lines, separated by new lines
+	 */
+	public String takeLines(String checkpoint, int lastCommand) {
+		StringBuilder lines = new StringBuilder();
+		for(String entry : this.pending) {
+			if(lines.length() > 0)
+				lines.append('\n');
+			lines.append(entry);
+		}
+		this.appending.add(this.pending);
+		this.pending = new ArrayList<String>();
+		this.restored = 0;
+		if(this.checkpointRequired) {
+			if(lines.length() > 0)
+				lines.append('\n');
+			lines.append(checkpoint);
+			this.checkpointRequired = false;
+			this.start = lastCommand;
+			this.replayed = 0;
+			this.entries = 0;
+		}
+		return lines.toString();
+	}
+
+	/**
+	 * Finishes appending the oldest lines taken, loaders finish saves in order.
+	 * 
+	 * @param success if the loader appended them, otherwise they are kept
+	 *        to be appended again, followed by a checkpoint
+	 */
+	public void appended(boolean success) {
+		if(this.appending.isEmpty())
+			return;
+		List<String> lines = this.appending.remove(0);
+		if(!success) {
+			this.pending.addAll(this.restored, lines);
+			this.restored += lines.size();
+			this.checkpointRequired = true;
+		}
+	}
+
+	/**
+	 * Replaces the history replayed after the latest checkpoint, after a
+	 * journal was loaded.
+	 * 
+	 * @param commands the number of commands replayed
+	 */
+	public void loaded(int commands) {
+		this.pending.clear();
+		this.appending.clear();
+		this.start = 0;
+		this.replayed = commands;
+		this.entries = 0;
+		this.checkpointRequired = false;
+	}
+
+	/**
+	 * Adds an entry, requiring a checkpoint if there were too many since the last one.
+	 * 
+	 * @param entry the entry XML
+	 */
+	private void add(String entry) {
+		this.pending.add(URL.encode(entry));
+		this.entries++;
+		if(this.entries >= CHECKPOINT_INTERVAL)
+			this.checkpointRequired = true;
+	}
+
+	/**
+	 * If a journal line is an entry, otherwise it is a checkpoint.
+	 * 
+	 * @param line the URL encoded line
+	 * @return true if it is a command, undo, redo or delta
+	 */
+	public static boolean isEntry(String line) {
+		return line.startsWith("%3Ccommand") //$NON-NLS-1$
+				|| line.startsWith("%3Cundo") //$NON-NLS-1$
+				|| line.startsWith("%3Credo") //$NON-NLS-1$
+				|| isDelta(line);
+	}
+
+	/**
+	 * If a journal line is a delta, as stored by loaders that append the
+	 * deltas they receive instead of applying them.
+	 * 
+	 * @param line the URL encoded line
+	 * @return true if it is a {@link cl.uai.client.cmap.ConceptMapDelta}
+	 */
+	public static boolean isDelta(String line) {
+		int start = 0;
+		// Skips the XML declaration
+		if(line.startsWith("%3C?xml")) { //$NON-NLS-1$
+			start = line.indexOf("?%3E"); //$NON-NLS-1$
+			if(start < 0)
+				return false;
+			start += 4;
+		}
+		return line.startsWith("%3Cconceptmapdelta", start); //$NON-NLS-1$
+	}
+}
@@ -22,6 +22,8 @@
 */
 package cl.uai.client;
 
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Text;
 import com.google.gwt.event.dom.client.MouseOverEvent;
 import com.google.gwt.event.dom.client.MouseOverHandler;
 import com.google.gwt.user.client.ui.AbsolutePanel;
@@ -29,7 +31,9 @@ import com.google.gwt.user.client.ui.HTML;
 
 /**
  * Represents a Label in the CM viewer. It is a piece of HTML
- * to have a better interface (round corners) for labels.
+ * to have a better interface (round corners) for labels. In lightweight
+ * mode the label is a single element with its text, and its round corners
+ * are drawn by CSS (cmLabel) instead of a table of nine cells.
  * 
  * @author Jorge Villalon
  *
@@ -40,9 +44,16 @@ public class ConceptLabel extends HTML {
 	private static String htmlPrefix = "<table class=cmapLabelTable><tr><td class=cmCornerTopLeft></td><td class=cmTopCenter></td><td class=cmCornerTopRight></td></tr><tr><td class=cmLeft></td><td class=cmCenter>";
 	private static String htmlSuffix = "</td><td class=cmRight></td></tr><tr><td class=cmCornerBottomLeft></td><td class=cmBottomCenter></td><td class=cmCornerBottomRight></td></tr></table>";
 	private static boolean readonly = false;
+	private static boolean lightweight = false;
 	private static AbsolutePanel absolutePanel = null;
 	private static ConceptLabel selectedLabel = null;
 	private String label = null;
+	/** The text of the label in lightweight mode */
+	private Text textNode = null;
+	/** Id of the concept or relationship bound to this label, -1 if none */
+	private int modelId = -1;
+	/** Position {x, y} of the label while it is dragged, null otherwise */
+	private int[] dragPosition = null;
 
 	public static ConceptLabel getSelectedLabel() {
 		return selectedLabel;
@@ -56,13 +67,25 @@ public class ConceptLabel extends HTML {
 		absolutePanel = panel;
 	}
 
+	/**
+	 * @param light if labels created from now on are a single element styled by CSS
+	 */
+	public static void setLightweight(boolean light) {
+		lightweight = light;
+	}
+
 	/**
 	 * Creates a Concept label and adds its handler
 	 * @param label
 	 */
 	public ConceptLabel(String label) {
-		super(htmlPrefix + label + htmlSuffix);
+		super(lightweight ? "" : htmlPrefix + label + htmlSuffix);
 
+		if(lightweight) {
+			this.addStyleName("cmLabel");
+			this.textNode = Document.get().createTextNode("");
+			this.getElement().appendChild(this.textNode);
+		}
 		this.setLabel(label);
 		// Mouse over to show the edit label on top of the concept
 		this.addMouseOverHandler(new MouseOverHandler() {
@@ -85,7 +108,10 @@ public class ConceptLabel extends HTML {
 
 	@Override
 	public void setText(String text) {
-		super.setHTML(htmlPrefix + text + htmlSuffix);
+		if(this.textNode != null)
+			this.textNode.setData(text);
+		else
+			super.setHTML(htmlPrefix + text + htmlSuffix);
 	}
 	
 	public int getCenterX() {
@@ -104,6 +130,20 @@ public class ConceptLabel extends HTML {
 		return this.getAbsoluteTop() - absolutePanel.getAbsoluteTop();
 	}
 
+	/**
+	 * @return the position {x, y} of the label while it is dragged, null otherwise
+	 */
+	public int[] getDragPosition() {
+		return dragPosition;
+	}
+
+	/**
+	 * @param dragPosition the position {x, y} of the label while it is dragged, null otherwise
+	 */
+	public void setDragPosition(int[] dragPosition) {
+		this.dragPosition = dragPosition;
+	}
+
 	/**
 	 * @return the label
 	 */
@@ -111,6 +151,20 @@ public class ConceptLabel extends HTML {
 		return label;
 	}
 
+	/**
+	 * @return the id of the concept or relationship bound to this label, -1 if none
+	 */
+	public int getModelId() {
+		return modelId;
+	}
+
+	/**
+	 * @param modelId the id of the concept or relationship bound to this label
+	 */
+	public void setModelId(int modelId) {
+		this.modelId = modelId;
+	}
+
 	/**
 	 * @param label the label to set
 	 */
@@ -126,8 +126,11 @@ public class ConceptMapDragHandler implements DragHandler {
 		if(concept == null)
 			return;
 		
+		int x = conceptLabel.getAbsoluteLeft() - cmapview.getBoundaryPanel().getAbsoluteLeft();
+		int y = conceptLabel.getAbsoluteTop() - cmapview.getBoundaryPanel().getAbsoluteTop();
+
 		// Concept on top of which we are dropping the source (target concept)
-		final Concept concept2 = cmapview.overlappingConcept(concept);
+		final Concept concept2 = cmapview.overlappingConcept(concept, x, y);
 		
 		if(concept2 != null) {
 			AddRelationshipDialogBox dbox = new AddRelationshipDialogBox();
@@ -36,6 +36,7 @@ import com.google.gwt.user.client.ui.DialogBox;
 import com.google.gwt.user.client.ui.HasAlignment;
 import com.google.gwt.user.client.ui.HorizontalPanel;
 import com.google.gwt.user.client.ui.Image;
+import com.google.gwt.user.client.ui.Label;
 import com.google.gwt.user.client.ui.PushButton;
 
 /**
@@ -59,6 +60,8 @@ public class ConceptMapHeader extends Composite {
 	private PushButton btnHelp;
 	private PushButton btnAddConcept;
 	private PushButton btnAddRelationship;
+	/** Shows if the CM is saved, being saved or has unsaved changes */
+	private Label lblSaveState;
 	
 	/**
 	 * @return the undoEnabled
@@ -90,6 +93,25 @@ public class ConceptMapHeader extends Composite {
 		this.btnRedo.setEnabled(redoEnabled);
 	}
 
+	/**
+	 * Shows the save state of the CM.
+	 * 
+	 * @param state the state
+	 */
+	public void setSaveState(SaveScheduler.State state) {
+		switch(state) {
+		case SAVED:
+			this.lblSaveState.setText(messages.getString("Saved")); //$NON-NLS-1$
+			break;
+		case SAVING:
+			this.lblSaveState.setText(messages.getString("Saving")); //$NON-NLS-1$
+			break;
+		case DIRTY:
+			this.lblSaveState.setText(messages.getString("UnsavedChanges")); //$NON-NLS-1$
+			break;
+		}
+	}
+
 	public ConceptMapHeader(ConceptMapView cview, boolean isReadOnly) {
 		this.cmapView = cview;
 		this.readOnly = isReadOnly;
@@ -174,6 +196,11 @@ public class ConceptMapHeader extends Composite {
 		hTitlePanel.setStylePrimaryName("titlePanel"); //$NON-NLS-1$
 		hTitlePanel.add(lblConceptMapTitle);
 
+		lblSaveState = new Label();
+		lblSaveState.setStylePrimaryName("saveState"); //$NON-NLS-1$
+		lblSaveState.setVisible(!readOnly);
+		setSaveState(SaveScheduler.State.SAVED);
+
 		hButtonsPanel = new HorizontalPanel();
 		hButtonsPanel.add(btnNewConceptMap);
 		hButtonsPanel.add(btnAddConcept);
@@ -183,6 +210,8 @@ public class ConceptMapHeader extends Composite {
 		//hButtonsPanel.add(btnExportXml);
 		hButtonsPanel.add(btnHelp);
 
+		hTitlePanel.add(lblSaveState);
+		hTitlePanel.setCellHorizontalAlignment(lblSaveState, HasAlignment.ALIGN_RIGHT);
 		hTitlePanel.add(hButtonsPanel);
 		hTitlePanel.setCellHorizontalAlignment(hButtonsPanel, HasAlignment.ALIGN_RIGHT);
 		// If it is not int readonly mode, add the buttons.
@@ -208,6 +237,7 @@ public class ConceptMapHeader extends Composite {
 	public void setReadOnly(boolean readOnly) {
 		this.readOnly = readOnly;
 		hButtonsPanel.setVisible(!readOnly);		
+		lblSaveState.setVisible(!readOnly);
 		lblConceptMapTitle.setReadOnly(readOnly);
 	}
 
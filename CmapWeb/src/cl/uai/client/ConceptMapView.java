@@ -28,16 +28,17 @@ import java.util.Map;
 import java.util.TreeMap;
 import java.util.logging.Logger;
 
-import org.vaadin.gwtgraphics.client.DrawingArea;
-import org.vaadin.gwtgraphics.client.Line;
 
 import cl.uai.client.cmap.Concept;
 import cl.uai.client.cmap.ConceptMap;
+import cl.uai.client.cmap.ConceptMapDelta;
 import cl.uai.client.cmap.Relationship;
 import cl.uai.client.cmap.Relationship.Drawing;
+import cl.uai.client.cmap.XmlWriter;
 import cl.uai.client.commands.AddConceptCommand;
 import cl.uai.client.commands.AbstractConceptMapCommand;
 import cl.uai.client.commands.AddRelationshipCommand;
+import cl.uai.client.commands.CommandFactory;
 import cl.uai.client.commands.DeleteConceptCommand;
 import cl.uai.client.commands.DeleteRelationshipCommand;
 import cl.uai.client.commands.RenameConceptCommand;
@@ -46,9 +47,13 @@ import cl.uai.client.dialogs.AddConceptDialogBox;
 import cl.uai.client.dialogs.AddRelationshipDialogBox;
 import cl.uai.client.dialogs.HelpDialogBox;
 import cl.uai.client.dialogs.RenameConceptRelationshipDialogBox;
+import cl.uai.client.loaders.DeltaReviewLoader;
 import cl.uai.client.loaders.HtmlInput;
+import cl.uai.client.loaders.JournalReviewLoader;
+import cl.uai.client.loaders.RegionReviewLoader;
 import cl.uai.client.loaders.ReviewLoader;
 import cl.uai.client.resources.Messages;
+import cl.uai.client.util.IntMap;
 
 import com.allen_sauer.gwt.dnd.client.PickupDragController;
 import com.google.gwt.core.client.GWT;
@@ -61,6 +66,8 @@ import com.google.gwt.event.dom.client.KeyPressEvent;
 import com.google.gwt.event.dom.client.KeyPressHandler;
 import com.google.gwt.event.dom.client.MouseMoveEvent;
 import com.google.gwt.event.dom.client.MouseMoveHandler;
+import com.google.gwt.event.dom.client.ScrollEvent;
+import com.google.gwt.event.dom.client.ScrollHandler;
 import com.google.gwt.event.logical.shared.CloseEvent;
 import com.google.gwt.event.logical.shared.CloseHandler;
 import com.google.gwt.http.client.RequestException;
@@ -83,12 +90,23 @@ import com.google.gwt.user.client.ui.VerticalPanel;
  */
 public class ConceptMapView extends Composite {
 
+	/** How the CM is saved */
+	public enum SaveMode {
+		/** The full CM on every save */
+		FULL,
+		/** The changes since the last save, see {@link cl.uai.client.cmap.ConceptMapDelta} */
+		DELTA,
+		/** The commands executed since the last save, see {@link CommandJournal} */
+		JOURNAL
+	}
+
+
 	/** For logging purposes */
 	private static Logger logger = Logger.getLogger(ConceptMapView.class.getName());
 	protected static Messages messages = GWT.create(Messages.class);
 
-	/** The canvas that draws lines */
-	private DrawingArea canvas;
+	/** Draws the lines of relationships */
+	private EdgeRenderer edges;
 	/** Drag and drop controller */
 	private PickupDragController dragController;
 	/** Boundary panel for the CM */
@@ -110,9 +128,17 @@ public class ConceptMapView extends Composite {
 	/** The CM */
 	private ConceptMap cmap = null;
 	/** All labels for concepts */
-	private Map<Integer, ConceptLabel> conceptLabels;
+	private IntMap<ConceptLabel> conceptLabels;
 	/** All labels for relationships */
-	private Map<Integer, RelationshipLabel> relationshipLabels;
+	private IntMap<RelationshipLabel> relationshipLabels;
+	/** Bounding boxes of concept labels, by concept id */
+	private SpatialIndex conceptIndex = new SpatialIndex();
+	/** If labels are being added in bulk, their sizes are read once all are added */
+	private boolean batching = false;
+	/** Concepts whose labels were added in bulk and are not indexed yet */
+	private List<Concept> unindexed = new ArrayList<Concept>();
+	/** Labels of relationships added or moved in bulk whose lines are not drawn yet */
+	private IntMap<RelationshipLabel> undrawn = new IntMap<RelationshipLabel>();
 	private static ConceptEditButtons conceptEditButtons = null;
 	static {
 		conceptEditButtons = new ConceptEditButtons();
@@ -121,14 +147,34 @@ public class ConceptMapView extends Composite {
 	private String name = "conceptmap";
 	private boolean inAddConceptMode = false;
 	private boolean inAddRelationshipMode = false;
-	/** Relationship line */
-	private static Line addRelationshipLine = null;
-	static {
-		addRelationshipLine = new Line(0,0,0,0);
-		addRelationshipLine.setStrokeColor("#CCCCCC");
-		addRelationshipLine.setStrokeWidth(2);
-	}
+	/** Start of the line drawn while adding a relationship */
+	private int addRelationshipX = 0;
+	private int addRelationshipY = 0;
 	private Concept addRelationshipSourceConcept = null;
+	/** Buffer reused for every export of the CM */
+	private XmlWriter xmlWriter = new XmlWriter();
+	/** How the CM is saved, when the loader supports it */
+	private SaveMode saveMode = SaveMode.DELTA;
+	/** Journal entries to append, when saving in journal mode */
+	private CommandJournal journal = new CommandJournal();
+	/** If a journal is being replayed, so commands are not saved again */
+	private boolean replaying = false;
+	/** If the next save must send the full CM, as the loader may not have the last changes */
+	private boolean fullSaveRequired = true;
+	/** If the last save failed */
+	private boolean saveFailed = false;
+	/** Decides when changes are saved */
+	private SaveScheduler saveScheduler;
+	/** Redraws lines moved by the mouse once per frame */
+	private RedrawScheduler redrawScheduler;
+	/** Scrolls the CM */
+	private ScrollPanel scrollPanel;
+	/** Width and height of the viewer */
+	private int width, height;
+	/** If the CM is loaded by regions, when the loader supports it */
+	private boolean regionPaging = false;
+	/** Loads the CM by regions, null if it is loaded at once */
+	private RegionPager regionPager;
 
 	public static ConceptEditButtons getConceptEditButtons() {
 		return conceptEditButtons;
@@ -145,6 +191,8 @@ public class ConceptMapView extends Composite {
 		ConceptLabel.setReadonly(isReadOnly);
 		
 		readOnly = isReadOnly;
+		this.width = width;
+		this.height = height;
 		
 		// Initializing Concept Map object
 		this.cmap = new ConceptMap();
@@ -153,7 +201,8 @@ public class ConceptMapView extends Composite {
 		this.commands = new ArrayList<AbstractConceptMapCommand>();
 
 		// Initializing drag and drop canvas
-		canvas = new DrawingArea(width, height);
+		edges = new SvgEdgeRenderer(width, height);
+		redrawScheduler = new RedrawScheduler(this);
 		focusPanel = new FocusPanel();
 		focusPanel.setStylePrimaryName("cmapFocusPanel");
 		boundaryPanel = new AbsolutePanel();
@@ -161,7 +210,24 @@ public class ConceptMapView extends Composite {
 		boundaryPanel.setHeight(height + "px");
 
 		if(!isReadOnly) {
-		dragController = new PickupDragController(boundaryPanel, true);
+		dragController = new PickupDragController(boundaryPanel, true) {
+			// Lines follow the dragged labels, redrawn once per frame
+			@Override
+			public void dragStart() {
+				super.dragStart();
+				redrawScheduler.dragStarted(context.selectedWidgets);
+			}
+			@Override
+			public void dragMove() {
+				super.dragMove();
+				redrawScheduler.dragMoved();
+			}
+			@Override
+			public void dragEnd() {
+				redrawScheduler.dragEnded();
+				super.dragEnd();
+			}
+		};
 		dragController.setBehaviorDragStartSensitivity(1);
 		dragController.setBehaviorScrollIntoView(false);
 		dragController.addDragHandler(new ConceptMapDragHandler(this));
@@ -213,8 +279,9 @@ public class ConceptMapView extends Composite {
 				conceptClicked = true;
 				ConceptLabel lbl = ConceptLabel.getSelectedLabel();
 				setInAddRelationshipMode(true);
-				addRelationshipLine.setX1(lbl.getCenterX());
-				addRelationshipLine.setY1(lbl.getCenterY());
+				addRelationshipX = lbl.getCenterX();
+				addRelationshipY = lbl.getCenterY();
+				redrawScheduler.setLinkLine(addRelationshipX, addRelationshipY, addRelationshipX, addRelationshipY);
 				addRelationshipSourceConcept = getConceptFromLabel(lbl);
 			}
 		});
@@ -258,8 +325,9 @@ public class ConceptMapView extends Composite {
 				@Override
 				public void onMouseMove(MouseMoveEvent event) {
 					if(isInAddRelationshipMode()) {
-						addRelationshipLine.setX2(event.getRelativeX(focusPanel.getElement()));
-						addRelationshipLine.setY2(event.getRelativeY(focusPanel.getElement()));
+						redrawScheduler.setLinkLine(addRelationshipX, addRelationshipY,
+								event.getRelativeX(focusPanel.getElement()),
+								event.getRelativeY(focusPanel.getElement()));
 					}
 				}
 			});
@@ -281,16 +349,26 @@ public class ConceptMapView extends Composite {
 		}
 
 		cmapHeader = new ConceptMapHeader(this, isReadOnly);
+		saveScheduler = new SaveScheduler(this);
 
 		// Layout parts initialization
 		vMainPanel = new VerticalPanel();
 		vMainPanel.setStylePrimaryName("cmapedPanel"); //$NON-NLS-1$
 
-		ScrollPanel spanel = new ScrollPanel(focusPanel);
-		spanel.setSize(width + "px", height + "px");
-		spanel.addStyleName("cmapPanel");
+		scrollPanel = new ScrollPanel(focusPanel);
+		scrollPanel.setSize(width + "px", height + "px");
+		scrollPanel.addStyleName("cmapPanel");
+		scrollPanel.addScrollHandler(new ScrollHandler() {
+			@Override
+			public void onScroll(ScrollEvent event) {
+				if(regionPager != null)
+					regionPager.viewportChanged(scrollPanel.getHorizontalScrollPosition(), 
+							scrollPanel.getVerticalScrollPosition(), 
+							ConceptMapView.this.width, ConceptMapView.this.height);
+			}
+		});
 		vMainPanel.add(cmapHeader);
-		vMainPanel.add(spanel);
+		vMainPanel.add(scrollPanel);
 
 		initWidget(vMainPanel);
 	}
@@ -339,6 +417,7 @@ public class ConceptMapView extends Composite {
 	 */
 	private void addConceptLabel(final Concept concept) {
 		final ConceptLabel lblConcept = new ConceptLabel(concept.getLabel());
+		lblConcept.setModelId(concept.getId());
 		lblConcept.setStylePrimaryName("concept");
 		if(!readOnly) {
 			lblConcept.addClickHandler(new ClickHandler() {
@@ -382,6 +461,10 @@ public class ConceptMapView extends Composite {
 			dragController.makeDraggable(lblConcept);
 		boundaryPanel.add(lblConcept, concept.getPosx(), concept.getPosy());
 		conceptLabels.put(concept.getId(), lblConcept);
+		if(batching)
+			unindexed.add(concept);
+		else
+			indexConceptLabel(concept);
 	}
 
 	/**
@@ -426,6 +509,7 @@ public class ConceptMapView extends Composite {
 	 */
 	private void addRelationshipLabel(final Relationship relationship) {
 		final RelationshipLabel lblRelationship = new RelationshipLabel(this, relationship);
+		lblRelationship.setModelId(relationship.getId());
 		lblRelationship.setStylePrimaryName("relationship");
 		if(!readOnly) {
 			lblRelationship.addClickHandler(new ClickHandler() {
@@ -447,9 +531,9 @@ public class ConceptMapView extends Composite {
 			dragController.makeDraggable(lblRelationship);
 		boundaryPanel.add(lblRelationship, relationship.getPosx(), relationship.getPosy());
 		relationshipLabels.put(relationship.getId(), lblRelationship);
-		canvas.add(lblRelationship.getSrcLine());
-		canvas.add(lblRelationship.getTgtLine());
-		canvas.add(lblRelationship.getTgtArrow());
+		edges.add(lblRelationship);
+		if(batching)
+			undrawn.put(relationship.getId(), lblRelationship);
 
 		// Adjust sister relationships
 		adjustSisterRelationships(relationship);		
@@ -465,7 +549,10 @@ public class ConceptMapView extends Composite {
 			}
 			cmap.moveRelationship(r.getId(), rel.getPosx(), rel.getPosy());
 			boundaryPanel.setWidgetPosition(lblRel, rel.getPosx(), rel.getPosy());
-			lblRel.drawAllLines();
+			if(batching)
+				undrawn.put(r.getId(), lblRel);
+			else
+				lblRel.drawAllLines();
 		}		
 	}
 
@@ -482,8 +569,10 @@ public class ConceptMapView extends Composite {
 		for(Relationship rel : cmap.outgoingRelationships(concept)) {
 			deleteRelationshipAndLabel(rel.getId());
 		}
-		boundaryPanel.remove(conceptLabels.get(concept.getId()));
-		conceptLabels.remove(concept.getId());
+		ConceptLabel lbl = conceptLabels.remove(concept.getId());
+		boundaryPanel.remove(lbl);
+		lbl.setModelId(-1);
+		conceptIndex.remove(concept.getId());
 		cmap.deleteConcept(concept.getId());
 		removeConceptEditButtons();
 	}
@@ -494,12 +583,11 @@ public class ConceptMapView extends Composite {
 	 * @param id the id of the relationship to delete
 	 */
 	public void deleteRelationshipAndLabel(int id) {
-		RelationshipLabel lbl = relationshipLabels.get(id);
-		boundaryPanel.remove(relationshipLabels.get(id));
-		relationshipLabels.remove(id);
+		RelationshipLabel lbl = relationshipLabels.remove(id);
+		boundaryPanel.remove(lbl);
+		edges.remove(lbl);
+		lbl.setModelId(-1);
 		cmap.deleteRelationship(id);
-		canvas.remove(lbl.getSrcLine());
-		canvas.remove(lbl.getTgtLine());
 		removeConceptEditButtons();
 	}
 
@@ -533,21 +621,26 @@ public class ConceptMapView extends Composite {
 		this.setInAddConceptMode(false);
 		this.setInAddRelationshipMode(false);
 
-		this.loader.save(this.exportXml(), new AsyncCallback<String>() {
-			@Override
-			public void onFailure(Throwable caught) {
-				Window.alert("Error saving data!" + caught);
-			}
-			@Override
-			public void onSuccess(String result) {
-			}
-		});
+		if(this.replaying)
+			return;
+		if(this.saveMode == SaveMode.JOURNAL)
+			this.journal.executed(command, this.lastCommand - 1);
+		this.saveScheduler.changed();
 	}
 	public String exportXml() {
-		String xml = "<?xml version=\"1.0\" ?>"; 
-		xml += cmap.exportXML();
-		xml = URL.encode(xml);
-		return xml;
+		xmlWriter.reset().raw("<?xml version=\"1.0\" ?>");
+		cmap.exportXML(xmlWriter);
+		return URL.encode(xmlWriter.toString());
+	}
+	/**
+	 * Exports the changes made to the CM since it was last saved.
+	 * 
+	 * @return the URL encoded delta
+	 */
+	public String exportDeltaXml() {
+		xmlWriter.reset().raw("<?xml version=\"1.0\" ?>");
+		cmap.exportDeltaXML(xmlWriter);
+		return URL.encode(xmlWriter.toString());
 	}
 	/**
 	 * @return the boundaryPanel
@@ -565,6 +658,13 @@ public class ConceptMapView extends Composite {
 		return cmap;
 	}
 
+	/**
+	 * @return the scheduler that saves the CM
+	 */
+	public SaveScheduler getSaveScheduler() {
+		return saveScheduler;
+	}
+
 	/**
 	 * @return the cmapHeader
 	 */
@@ -573,31 +673,35 @@ public class ConceptMapView extends Composite {
 	}
 
 	/**
-	 * For a paticular label, finds its corresponding concept.
+	 * For a paticular label, finds its corresponding concept. Labels are bound
+	 * to their concept's id, the binding is valid only if the label is still
+	 * registered for that id in the current CM.
 	 * 
 	 * @param lbl the label
 	 * @return the corresponding concept
 	 */
 	public Concept getConceptFromLabel(ConceptLabel lbl) {
-		if(!this.conceptLabels.containsValue(lbl))
+		if(lbl == null || lbl instanceof RelationshipLabel)
 			return null;
-
-		for(int key : this.conceptLabels.keySet()) {
-			ConceptLabel l = this.conceptLabels.get(key);
-			if(l.equals(lbl)) {
-				return this.cmap.getConcept(key);
-			}
-		}
-		return null;
+		if(this.conceptLabels.get(lbl.getModelId()) != lbl)
+			return null;
+		return this.cmap.getConcept(lbl.getModelId());
 	}
 
 	/**
 	 * @return the conceptLabels
 	 */
-	public Map<Integer, ConceptLabel> getConceptLabels() {
+	public IntMap<ConceptLabel> getConceptLabels() {
 		return conceptLabels;
 	}
 
+	/**
+	 * @return the renderer that draws the lines of relationships
+	 */
+	public EdgeRenderer getEdgeRenderer() {
+		return edges;
+	}
+
 	/**
 	 * @return the loader
 	 */
@@ -618,22 +722,17 @@ public class ConceptMapView extends Composite {
 	 * @return the corresponding relationship
 	 */
 	public Relationship getRelationshipFromLabel(ConceptLabel lbl) {
-		if(!this.relationshipLabels.containsValue(lbl))
+		if(!(lbl instanceof RelationshipLabel))
 			return null;
-
-		for(int key : this.relationshipLabels.keySet()) {
-			ConceptLabel l = this.relationshipLabels.get(key);
-			if(l.equals(lbl)) {
-				return this.cmap.getRelationship(key);
-			}
-		}
-		return null;
+		if(this.relationshipLabels.get(lbl.getModelId()) != lbl)
+			return null;
+		return this.cmap.getRelationship(lbl.getModelId());
 	}
 
 	/**
 	 * @return the relationshipLabels
 	 */
-	public Map<Integer, RelationshipLabel> getRelationshipLabels() {
+	public IntMap<RelationshipLabel> getRelationshipLabels() {
 		return relationshipLabels;
 	}
 
@@ -641,13 +740,13 @@ public class ConceptMapView extends Composite {
 	 * Initializes interface
 	 */
 	private void initView() {
-		conceptLabels = new TreeMap<Integer, ConceptLabel>();
-		relationshipLabels = new TreeMap<Integer, RelationshipLabel>();
+		conceptLabels = new IntMap<ConceptLabel>();
+		relationshipLabels = new IntMap<RelationshipLabel>();
+		conceptIndex.clear();
 
 		boundaryPanel.clear();
-		canvas.clear();
-		boundaryPanel.add(canvas,0,0);
-		canvas.add(addRelationshipLine);
+		edges.clear();
+		boundaryPanel.add(edges.getWidget(),0,0);
 	
 	}
 
@@ -666,6 +765,58 @@ public class ConceptMapView extends Composite {
 		return c;
 	}
 
+	/**
+	 * Starts adding labels in bulk: their sizes are not read, and the lines
+	 * of relationships not drawn, until {@link #endBatch()}. Reading a size
+	 * right after adding a label lays out the page each time.
+	 */
+	void startBatch() {
+		batching = true;
+	}
+
+	/**
+	 * Indexes the labels added in bulk and draws their lines, reading all
+	 * sizes before drawing, so the page is laid out once.
+	 */
+	void endBatch() {
+		batching = false;
+		for(Concept concept : unindexed) {
+			if(conceptLabels.get(concept.getId()) != null)
+				indexConceptLabel(concept);
+		}
+		unindexed.clear();
+		List<RelationshipLabel> labels = new ArrayList<RelationshipLabel>(undrawn.size());
+		for(RelationshipLabel label : undrawn) {
+			if(label.isAttached()) {
+				label.layout();
+				labels.add(label);
+			}
+		}
+		undrawn.clear();
+		for(RelationshipLabel label : labels)
+			edges.update(label);
+	}
+
+	/**
+	 * @return if labels are being added in bulk, see {@link #startBatch()}
+	 */
+	boolean isBatching() {
+		return batching;
+	}
+
+	/**
+	 * Stores the bounding box of a concept's label in the spatial index.
+	 * It is the only place where label sizes are read, when the label
+	 * is added, or all labels added in bulk are, or its text changes.
+	 * 
+	 * @param concept the concept
+	 */
+	private void indexConceptLabel(Concept concept) {
+		ConceptLabel lbl = conceptLabels.get(concept.getId());
+		conceptIndex.put(concept.getId(), concept.getPosx(), concept.getPosy(), 
+				lbl.getOffsetWidth(), lbl.getOffsetHeight());
+	}
+
 	/**
 	 * Inserts and existing (or previously existing) relationship and its label in the viewer.
 	 * 
@@ -703,6 +854,14 @@ public class ConceptMapView extends Composite {
 	}
 
 	private void load() throws RequestException {
+		// Large CMs are loaded by regions, starting with the viewport
+		if(this.regionPaging && this.loader instanceof RegionReviewLoader) {
+			this.regionPager = new RegionPager(this, (RegionReviewLoader) this.loader);
+			this.regionPager.start(this.scrollPanel.getHorizontalScrollPosition(), 
+					this.scrollPanel.getVerticalScrollPosition(), this.width, this.height);
+			return;
+		}
+
 		// Invokes the loader
 		loader.load(new AsyncCallback<String>() {
 			public void onFailure(Throwable caught) {
@@ -716,13 +875,75 @@ public class ConceptMapView extends Composite {
 					msg += input.getInputName();
 				}
 				logger.fine(msg + " " + result);
-				ConceptMap cmap = new ConceptMap();
-				cmap.readXML(result);
-				setCmap(cmap);
+				loadJournal(result);
 			}
 		});
 	}
 
+	/**
+	 * Loads a CM from a journal, reading its latest checkpoint and replaying
+	 * the entries after it, see {@link CommandJournal}. A CM stored as a single
+	 * document is a journal with only a checkpoint, and a CM stored as a
+	 * document followed by deltas is applied delta by delta.
+	 * 
+	 * @param journal the journal
+	 */
+	private void loadJournal(String journal) {
+		// Finds the latest checkpoint, from the end
+		List<String> entries = new ArrayList<String>();
+		String checkpoint = null;
+		int end = journal == null ? 0 : journal.length();
+		while(end > 0) {
+			int newline = journal.lastIndexOf('\n', end - 1);
+			String line = journal.substring(newline + 1, end).trim();
+			end = Math.max(newline, 0);
+			if(line.length() == 0)
+				continue;
+			if(!CommandJournal.isEntry(line)) {
+				checkpoint = line;
+				break;
+			}
+			entries.add(line);
+		}
+
+		ConceptMap cmap = new ConceptMap();
+		cmap.readXML(checkpoint);
+		// Deltas right after the checkpoint are applied before showing the CM
+		while(!entries.isEmpty() && CommandJournal.isDelta(entries.get(entries.size()-1))) {
+			cmap.readXML(entries.remove(entries.size()-1));
+		}
+		setCmap(cmap);
+		if(entries.isEmpty())
+			return;
+
+		logger.fine("Replaying " + entries.size() + " journal entries");
+		this.replaying = true;
+		try {
+			for(int i=entries.size()-1; i>=0; i--) {
+				if(CommandJournal.isDelta(entries.get(i))) {
+					// Deltas after commands start a new history
+					this.cmap.readXML(entries.get(i));
+					setCmap(this.cmap);
+					continue;
+				}
+				String entry = URL.decode(entries.get(i));
+				if(entry.startsWith("<undo")) //$NON-NLS-1$
+					undo();
+				else if(entry.startsWith("<redo")) //$NON-NLS-1$
+					redo();
+				else {
+					AbstractConceptMapCommand command = CommandFactory.readXML(entry);
+					if(command != null)
+						executeCommand(command);
+				}
+			}
+		} finally {
+			this.replaying = false;
+		}
+		this.journal.loaded(this.commands.size());
+		this.cmap.getChanges().clear();
+	}
+
 	/**
 	 * Loads the CM in the viewer.
 	 */
@@ -730,6 +951,7 @@ public class ConceptMapView extends Composite {
 		if(this.cmap == null)
 			return;
 
+		startBatch();
 		for(Concept concept : this.cmap.getConcepts().values()) {
 			this.addConceptLabel(concept);
 		}
@@ -737,6 +959,7 @@ public class ConceptMapView extends Composite {
 		for(Relationship relationship : this.cmap.getRelationships().values()) {
 			this.addRelationshipLabel(relationship);
 		}
+		endBatch();
 
 		this.commands = new ArrayList<AbstractConceptMapCommand>();
 		this.lastCommand = this.commands.size();
@@ -753,6 +976,7 @@ public class ConceptMapView extends Composite {
 		ConceptLabel lbl = this.conceptLabels.get(id);
 		cmap.moveConcept(id, posx, posy);
 		boundaryPanel.setWidgetPosition(lbl, posx, posy);
+		conceptIndex.move(id, posx, posy);
 		for(Relationship rel : cmap.outgoingRelationships(cmap.getConcept(id)))
 		{
 			this.getRelationshipLabels().get(rel.getId()).drawAllLines();
@@ -799,28 +1023,13 @@ public class ConceptMapView extends Composite {
 	 * for drag and drop interface to create relationships.
 	 * 
 	 * @param concept the concept the check
+	 * @param posx X coordinate in the CM where the concept is being dropped
+	 * @param posy Y coordinate in the CM where the concept is being dropped
 	 * @return an overlapping concept or null
 	 */
-	public Concept overlappingConcept(Concept concept) {
-		ConceptLabel lblConcept = this.conceptLabels.get(concept.getId());
-		if(lblConcept == null)
-			return null;
-		for(Concept c : this.cmap.getConcepts().values()) {
-			if(concept.equals(c))
-				continue;
-			ConceptLabel lblTarget = this.conceptLabels.get(c.getId());
-			if(lblTarget == null)
-				continue;
-
-			if(lblConcept.getAbsoluteLeft() < lblTarget.getAbsoluteLeft() + lblTarget.getOffsetWidth()
-					&& lblConcept.getAbsoluteLeft() + lblConcept.getOffsetWidth() >= lblTarget.getAbsoluteLeft()
-					&& lblConcept.getAbsoluteTop() + lblConcept.getOffsetHeight() >= lblTarget.getAbsoluteTop()
-					&& lblConcept.getAbsoluteTop() < lblTarget.getAbsoluteTop() + lblTarget.getOffsetHeight()
-					) {
-				return c;
-			}
-		}
-		return null;
+	public Concept overlappingConcept(Concept concept, int posx, int posy) {
+		int id = this.conceptIndex.findOverlapping(concept.getId(), posx, posy);
+		return id < 0 ? null : this.cmap.getConcept(id);
 	}
 
 	/**
@@ -832,9 +1041,88 @@ public class ConceptMapView extends Composite {
 		AbstractConceptMapCommand lastCmCommand = this.commands.get(this.lastCommand);
 		lastCmCommand.execute(this);
 		logger.fine("Redoing " + lastCmCommand);
+		if(!this.replaying && this.saveMode == SaveMode.JOURNAL)
+			this.journal.redone(this.lastCommand);
 		this.lastCommand++;
 		this.cmapHeader.setRedoEnabled(this.lastCommand < this.commands.size());
 		this.cmapHeader.setUndoEnabled(true);
+		if(!this.replaying)
+			this.saveScheduler.changed();
+	}
+
+	/**
+	 * Saves the CM with the loader. If the loader supports it only the changes since
+	 * the last save are sent, unless a previous save failed, in which case the full
+	 * CM is sent. In journal mode the commands executed are appended instead.
+	 * Saves are usually requested by the {@link SaveScheduler}.
+	 * 
+	 * @param done called when the loader finishes saving
+	 */
+	public void save(final AsyncCallback<String> done) {
+		AsyncCallback<String> callback = new AsyncCallback<String>() {
+			@Override
+			public void onFailure(Throwable caught) {
+				// The loader may have missed these changes
+				journal.appended(false);
+				// Saves in flight fail together, the user is told once
+				if(!saveFailed)
+					Window.alert("Error saving data!" + caught);
+				fullSaveRequired = true;
+				saveFailed = true;
+				done.onFailure(caught);
+			}
+			@Override
+			public void onSuccess(String result) {
+				journal.appended(true);
+				saveFailed = false;
+				done.onSuccess(result);
+			}
+		};
+		if(this.regionPager != null) {
+			// Only part of the CM is loaded, so only deltas can be saved,
+			// and the changes of a failed delta are sent again with the next.
+			// Until the first region is loaded there is no CM to change
+			if(!this.regionPager.isStarted() || this.cmap.getChanges().isEmpty()) {
+				done.onSuccess(null);
+				return;
+			}
+			String delta = this.exportDeltaXml();
+			final ConceptMapDelta sent = this.cmap.takeChanges();
+			final AsyncCallback<String> saved = callback;
+			((DeltaReviewLoader) this.loader).saveDelta(delta, new AsyncCallback<String>() {
+				@Override
+				public void onFailure(Throwable caught) {
+					cmap.getChanges().restore(sent);
+					saved.onFailure(caught);
+				}
+				@Override
+				public void onSuccess(String result) {
+					saved.onSuccess(result);
+				}
+			});
+		} else if(this.saveMode == SaveMode.JOURNAL && this.loader instanceof JournalReviewLoader) {
+			if(this.journal.isEmpty()) {
+				done.onSuccess(null);
+				return;
+			}
+			String checkpoint = this.journal.isCheckpointRequired() ? this.exportXml() : null;
+			String lines = this.journal.takeLines(checkpoint, this.lastCommand);
+			this.cmap.getChanges().clear();
+			((JournalReviewLoader) this.loader).appendJournal(lines, callback);
+		} else if(this.saveMode == SaveMode.DELTA && !this.fullSaveRequired && this.loader instanceof DeltaReviewLoader) {
+			if(this.cmap.getChanges().isEmpty()) {
+				done.onSuccess(null);
+				return;
+			}
+			String delta = this.exportDeltaXml();
+			this.cmap.getChanges().clear();
+			((DeltaReviewLoader) this.loader).saveDelta(delta, callback);
+		} else {
+			String xml = this.exportXml();
+			this.cmap.getChanges().clear();
+			this.fullSaveRequired = false;
+			this.loader.save(xml, callback);
+		}
 	}
 
 	/**
@@ -844,8 +1132,9 @@ public class ConceptMapView extends Composite {
 	 * @param label new label
 	 */
 	public void renameConcept(int id, String label) {
-		cmap.getConcept(id).setLabel(label);
+		cmap.renameConcept(id, label);
 		conceptLabels.get(id).setText(label);
+		indexConceptLabel(cmap.getConcept(id));
 	}
 
 	/**
@@ -855,8 +1144,8 @@ public class ConceptMapView extends Composite {
 	 * @param linkingWord new linking word
 	 */
 	public void renameRelationship(int id, String linkingWord) {
+		cmap.renameRelationship(id, linkingWord);
 		Relationship rel = cmap.getRelationship(id);
-		rel.setLinkingWord(linkingWord);
 		relationshipLabels.get(id).setText(linkingWord);
 		adjustSisterRelationships(rel);
 	}
@@ -868,6 +1157,8 @@ public class ConceptMapView extends Composite {
 	 */
 	public void setCmap(ConceptMap cmap) {
 		this.cmap = cmap;
+		this.fullSaveRequired = true;
+		this.journal.requireCheckpoint();
 		initView();
 		loadMap();
 		cmapHeader.setConceptMap(cmap);
@@ -891,13 +1182,52 @@ public class ConceptMapView extends Composite {
 			// DOM.setStyleAttribute(focusPanel.getElement(), "cursor", "url(addrelationship.cur),auto");
 		} else {
 			focusPanel.removeStyleName("addRelationshipCursor");
-			addRelationshipLine.setX1(0);
-			addRelationshipLine.setY1(0);
-			addRelationshipLine.setX2(0);
-			addRelationshipLine.setY2(0);
+			redrawScheduler.setLinkLine(0, 0, 0, 0);
 		}
 	}
 
+	/**
+	 * Resizes the area where the CM is drawn, to fit a CM loaded by regions.
+	 * The area is never smaller than the viewer.
+	 * 
+	 * @param width the width of the whole CM
+	 * @param height the height of the whole CM
+	 */
+	public void setExtent(int width, int height) {
+		int w = Math.max(width, this.width);
+		int h = Math.max(height, this.height);
+		boundaryPanel.setPixelSize(w, h);
+		edges.setSize(w, h);
+	}
+
+	/**
+	 * Loads the CM by regions as it is scrolled, instead of all at once,
+	 * if the loader is a {@link RegionReviewLoader}. The CM is then always
+	 * saved as deltas. It must be set before the viewer is shown.
+	 * 
+	 * @param regionPaging if the CM is loaded by regions
+	 */
+	public void setRegionPaging(boolean regionPaging) {
+		this.regionPaging = regionPaging;
+	}
+
+	/**
+	 * @param saveMode how the CM is saved, when the loader supports it
+	 */
+	public void setSaveMode(SaveMode saveMode) {
+		this.saveMode = saveMode;
+	}
+
+	/**
+	 * Changes how the lines of relationships are drawn, SVG by default.
+	 * Must be called before the CM is loaded.
+	 * 
+	 * @param edges the renderer
+	 */
+	public void setEdgeRenderer(EdgeRenderer edges) {
+		this.edges = edges;
+	}
+
 	/**
 	 * @param loader the loader to set
 	 */
@@ -974,8 +1304,12 @@ public class ConceptMapView extends Composite {
 			return;
 		AbstractConceptMapCommand lastCmCommand = this.commands.get(this.lastCommand-1);
 		lastCmCommand.undo();
+		if(!this.replaying && this.saveMode == SaveMode.JOURNAL)
+			this.journal.undone(this.lastCommand - 1);
 		this.lastCommand--;
 		this.cmapHeader.setRedoEnabled(true);
 		this.cmapHeader.setUndoEnabled(this.lastCommand > 0);
+		if(!this.replaying)
+			this.saveScheduler.changed();
 	}
 }
@@ -0,0 +1,94 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.client;
+
+import com.google.gwt.user.client.ui.Widget;
+
+/**
+ * Draws the lines of the relationships in the CM view, in a widget behind
+ * the labels. Each {@link RelationshipLabel} calculates the points of its
+ * lines and arrow, see {@link RelationshipLabel#getEdge()}, and the
+ * renderer draws them.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public interface EdgeRenderer {
+
+	/**
+	 * @return the widget where lines are drawn, placed at 0,0 behind the labels
+	 */
+	public Widget getWidget();
+
+	/**
+	 * Starts drawing the lines of a relationship.
+	 * 
+	 * @param label the relationship label
+	 */
+	public void add(RelationshipLabel label);
+
+	/**
+	 * Stops drawing the lines of a relationship.
+	 * 
+	 * @param label the relationship label
+	 */
+	public void remove(RelationshipLabel label);
+
+	/**
+	 * Redraws the lines of a relationship, after its label calculated them.
+	 * 
+	 * @param label the relationship label
+	 */
+	public void update(RelationshipLabel label);
+
+	/**
+	 * Draws the line from the source concept to the mouse while a
+	 * relationship is being added.
+	 * 
+	 * @param x1 X coordinate of the source
+	 * @param y1 Y coordinate of the source
+	 * @param x2 X coordinate of the mouse
+	 * @param y2 Y coordinate of the mouse
+	 */
+	public void setLinkLine(int x1, int y1, int x2, int y2);
+
+	/**
+	 * Removes all lines.
+	 */
+	public void clear();
+
+	/**
+	 * Resizes the area where lines are drawn.
+	 * 
+	 * @param width the new width
+	 * @param height the new height
+	 */
+	public void setSize(int width, int height);
+
+	/**
+	 * Draws the changes made since the last call at once, if the renderer
+	 * defers them. Called at the end of each animation frame that redraws
+	 * relationships.
+	 */
+	public void flush();
+}
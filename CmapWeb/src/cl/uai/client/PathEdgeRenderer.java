@@ -0,0 +1,151 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.client;
+
+import org.vaadin.gwtgraphics.client.DrawingArea;
+import org.vaadin.gwtgraphics.client.Line;
+import org.vaadin.gwtgraphics.client.shape.Path;
+
+import cl.uai.client.util.IntMap;
+
+import com.google.gwt.user.client.ui.Widget;
+
+/**
+ * Draws each relationship as a single SVG (or VML) path: the line from the
+ * source concept to the label, the line to the target concept and the
+ * arrow head. Redrawing a relationship writes the path data once, instead
+ * of the coordinates of two lines and an arrow as {@link SvgEdgeRenderer}.
+ * 
+ * The lines go to the target concept and back, so they enclose no area and
+ * only the arrow head is filled.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class PathEdgeRenderer implements EdgeRenderer {
+
+	/** The drawing area */
+	private DrawingArea area;
+	/** If the drawing area uses VML, whose paths have another syntax */
+	private boolean vml;
+	/** Line drawn while adding a relationship */
+	private Line linkLine;
+	/** Paths by relationship id */
+	private IntMap<Path> paths = new IntMap<Path>();
+	/** Buffer reused for every path */
+	private StringBuilder data = new StringBuilder();
+
+	/**
+	 * @param width width of the drawing area
+	 * @param height height of the drawing area
+	 */
+	public PathEdgeRenderer(int width, int height) {
+		this.area = new DrawingArea(width, height);
+		this.vml = this.area.getRendererString().equals("VML"); //$NON-NLS-1$
+		this.linkLine = new Line(0, 0, 0, 0);
+		this.linkLine.setStrokeColor("#CCCCCC"); //$NON-NLS-1$
+		this.linkLine.setStrokeWidth(2);
+		this.area.add(this.linkLine);
+	}
+
+	public Widget getWidget() {
+		return this.area;
+	}
+
+	public void add(RelationshipLabel label) {
+		Path path = new Path(0, 0);
+		path.setStyleName("tgtRelationship"); //$NON-NLS-1$
+		this.paths.put(label.getRelationship().getId(), path);
+		this.area.add(path);
+		update(label);
+	}
+
+	public void remove(RelationshipLabel label) {
+		Path path = this.paths.remove(label.getRelationship().getId());
+		if(path != null)
+			this.area.remove(path);
+	}
+
+	public void update(RelationshipLabel label) {
+		Path path = this.paths.get(label.getRelationship().getId());
+		if(path == null)
+			return;
+		int[] e = label.getEdge();
+
+		// Commands are absolute move, line and close, in SVG or VML syntax
+		String move = this.vml ? " m" : " M"; //$NON-NLS-1$ //$NON-NLS-2$
+		String line = this.vml ? " l" : " L"; //$NON-NLS-1$ //$NON-NLS-2$
+		String close = this.vml ? " x" : " Z"; //$NON-NLS-1$ //$NON-NLS-2$
+
+		// Source to label to target and back, then the arrow head
+		this.data.setLength(0);
+		point(move, e[0], e[1]);
+		point(line, e[2], e[3]);
+		point(line, e[4], e[5]);
+		point(line, e[2], e[3]);
+		this.data.append(close);
+		point(move, e[4], e[5]);
+		point(line, e[6], e[7]);
+		point(line, e[8], e[9]);
+		this.data.append(close);
+		if(this.vml) {
+			this.data.append(" e"); //$NON-NLS-1$
+			path.getElement().setAttribute("path", this.data.toString()); //$NON-NLS-1$
+		} else {
+			path.getElement().setAttribute("d", this.data.toString()); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Appends a command and its point to the path data.
+	 * 
+	 * @param command the command
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 */
+	private void point(String command, int x, int y) {
+		this.data.append(command).append(x).append(' ').append(y);
+	}
+
+	public void setLinkLine(int x1, int y1, int x2, int y2) {
+		this.linkLine.setX1(x1);
+		this.linkLine.setY1(y1);
+		this.linkLine.setX2(x2);
+		this.linkLine.setY2(y2);
+	}
+
+	public void clear() {
+		this.paths.clear();
+		this.area.clear();
+		this.area.add(this.linkLine);
+	}
+
+	public void setSize(int width, int height) {
+		this.area.setWidth(width);
+		this.area.setHeight(height);
+	}
+
+	public void flush() {
+		// Shapes are updated as relationships are redrawn
+	}
+}
@@ -0,0 +1,195 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cl.uai.client.cmap.Concept;
+import cl.uai.client.cmap.Relationship;
+import cl.uai.client.util.IntMap;
+
+import com.google.gwt.animation.client.AnimationScheduler;
+import com.google.gwt.animation.client.AnimationScheduler.AnimationCallback;
+import com.google.gwt.user.client.ui.Widget;
+
+/**
+ * Schedules the redraws caused by the mouse in a CM viewer: the lines of
+ * relationships whose labels are being dragged, and the line drawn while
+ * adding a relationship. Mouse events only record what changed, and
+ * everything is redrawn once in the next animation frame, however many
+ * events arrive before it. Each frame first reads the positions and sizes
+ * of labels and then draws all lines, so the browser lays out the page
+ * once per frame.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class RedrawScheduler {
+
+	/** The viewer whose lines are redrawn */
+	private ConceptMapView cmapView;
+	/** Labels being dragged */
+	private List<ConceptLabel> dragged = new ArrayList<ConceptLabel>();
+	/** Labels of the relationships whose lines move with the dragged labels */
+	private List<RelationshipLabel> draggedEdges = new ArrayList<RelationshipLabel>();
+	/** Labels of the relationships redrawn in the next frame, by relationship id */
+	private IntMap<RelationshipLabel> dirty = new IntMap<RelationshipLabel>();
+	/** Line drawn while adding a relationship {x1, y1, x2, y2} */
+	private int[] linkLine = new int[4];
+	/** If the line drawn while adding a relationship moved */
+	private boolean linkLineMoved = false;
+	/** If a redraw is scheduled for the next frame */
+	private boolean scheduled = false;
+	/** Redraws everything in the next frame */
+	private AnimationCallback redraw = new AnimationCallback() {
+		public void execute(double timestamp) {
+			scheduled = false;
+			redraw();
+		}
+	};
+
+	/**
+	 * @param cmapView the viewer whose lines are redrawn
+	 */
+	public RedrawScheduler(ConceptMapView cmapView) {
+		this.cmapView = cmapView;
+	}
+
+	/**
+	 * Records that labels started being dragged, so the lines of their
+	 * relationships follow them.
+	 * 
+	 * @param widgets the dragged widgets
+	 */
+	public void dragStarted(List<Widget> widgets) {
+		this.dragged.clear();
+		this.draggedEdges.clear();
+		for(Widget widget : widgets) {
+			if(!(widget instanceof ConceptLabel))
+				continue;
+			ConceptLabel label = (ConceptLabel) widget;
+			this.dragged.add(label);
+			if(label instanceof RelationshipLabel) {
+				this.draggedEdges.add((RelationshipLabel) label);
+				continue;
+			}
+			Concept concept = this.cmapView.getConceptFromLabel(label);
+			if(concept == null)
+				continue;
+			addEdges(this.cmapView.getCmap().incomingRelationships(concept));
+			addEdges(this.cmapView.getCmap().outgoingRelationships(concept));
+		}
+	}
+
+	/**
+	 * Records that the dragged labels moved.
+	 */
+	public void dragMoved() {
+		for(RelationshipLabel label : this.draggedEdges)
+			this.dirty.put(label.getRelationship().getId(), label);
+		schedule();
+	}
+
+	/**
+	 * Records that the dragged labels were dropped, so the lines of their
+	 * relationships go back to where their concepts and relationships are.
+	 */
+	public void dragEnded() {
+		for(ConceptLabel label : this.dragged)
+			label.setDragPosition(null);
+		dragMoved();
+		this.dragged.clear();
+		this.draggedEdges.clear();
+	}
+
+	/**
+	 * Records a new position of the line drawn while adding a relationship,
+	 * all zeros hide it.
+	 * 
+	 * @param x1 X coordinate of the source
+	 * @param y1 Y coordinate of the source
+	 * @param x2 X coordinate of the mouse
+	 * @param y2 Y coordinate of the mouse
+	 */
+	public void setLinkLine(int x1, int y1, int x2, int y2) {
+		this.linkLine[0] = x1;
+		this.linkLine[1] = y1;
+		this.linkLine[2] = x2;
+		this.linkLine[3] = y2;
+		this.linkLineMoved = true;
+		schedule();
+	}
+
+	/**
+	 * Adds the labels of relationships to the lines that follow the dragged labels.
+	 * 
+	 * @param relationships the relationships
+	 */
+	private void addEdges(List<Relationship> relationships) {
+		for(Relationship relationship : relationships) {
+			RelationshipLabel label = this.cmapView.getRelationshipLabels().get(relationship.getId());
+			if(label != null)
+				this.draggedEdges.add(label);
+		}
+	}
+
+	/**
+	 * Redraws what changed since the last frame.
+	 */
+	private void redraw() {
+		EdgeRenderer edges = this.cmapView.getEdgeRenderer();
+
+		// Read where the dragged labels are
+		for(ConceptLabel label : this.dragged)
+			label.setDragPosition(new int[] { label.getX(), label.getY() });
+
+		// Calculate all lines before drawing any, labels removed meanwhile are skipped
+		List<RelationshipLabel> labels = new ArrayList<RelationshipLabel>(this.dirty.size());
+		for(RelationshipLabel label : this.dirty) {
+			if(!label.isAttached())
+				continue;
+			label.layout();
+			labels.add(label);
+		}
+		this.dirty.clear();
+
+		for(RelationshipLabel label : labels)
+			edges.update(label);
+		if(this.linkLineMoved) {
+			edges.setLinkLine(this.linkLine[0], this.linkLine[1], this.linkLine[2], this.linkLine[3]);
+			this.linkLineMoved = false;
+		}
+		edges.flush();
+	}
+
+	/**
+	 * Schedules a redraw in the next frame, once however many changes arrive before it.
+	 */
+	private void schedule() {
+		if(this.scheduled)
+			return;
+		this.scheduled = true;
+		AnimationScheduler.get().requestAnimationFrame(this.redraw);
+	}
+}
@@ -0,0 +1,264 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import cl.uai.client.cmap.Concept;
+import cl.uai.client.cmap.ConceptMap;
+import cl.uai.client.cmap.Relationship;
+import cl.uai.client.loaders.RegionReviewLoader;
+import cl.uai.client.util.IntMap;
+
+import com.google.gwt.user.client.Timer;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * Loads a large CM by regions, so the viewer only creates labels for what is
+ * shown. The CM is divided in square tiles, and the tiles in the viewport,
+ * plus a margin around it, are loaded first. Missing tiles are loaded as the
+ * viewport is scrolled, in a single region that covers them.
+ * <p>
+ * Elements already in the viewer are never replaced by the ones in a region,
+ * as the user may have changed them since, and neither are elements that
+ * were loaded and then removed. Loaded elements are not recorded as changes
+ * of the CM.
+ * <p>
+ * If the first region cannot be loaded it is requested again with an
+ * increasing delay, as the viewer has no CM until then.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class RegionPager {
+
+	/** For logging purposes */
+	private static Logger logger = Logger.getLogger(RegionPager.class.getName());
+
+	/** Size in pixels of each (square) tile */
+	public static final int TILE_SIZE = 512;
+	/** Milliseconds after the last scroll before loading */
+	public static final int SCROLL_DELAY = 100;
+	/** Milliseconds before loading the first region again, doubled each time */
+	public static final int INITIAL_RETRY = 1000;
+	/** Maximum milliseconds before loading the first region again */
+	public static final int MAX_RETRY = 30000;
+
+	/** The viewer the CM is loaded in */
+	private ConceptMapView cmapView;
+	/** The loader regions are requested to */
+	private RegionReviewLoader loader;
+	/** Tiles loaded or being loaded, by tile key */
+	private Map<Integer, Boolean> tiles;
+	/** Concepts loaded, including those removed since */
+	private IntMap<Boolean> concepts;
+	/** Relationships loaded, including those removed since */
+	private IntMap<Boolean> relationships;
+	/** If the first region was loaded */
+	private boolean started;
+	/** Milliseconds before loading the first region again */
+	private int retry = INITIAL_RETRY;
+	/** The viewport {x, y, width, height} */
+	private int[] viewport;
+	/** Fires when the viewport stopped scrolling */
+	private Timer timer = new Timer() {
+		@Override
+		public void run() {
+			loadMissingTiles();
+		}
+	};
+
+	/**
+	 * @param cmapView the viewer the CM is loaded in
+	 * @param loader the loader regions are requested to
+	 */
+	public RegionPager(ConceptMapView cmapView, RegionReviewLoader loader) {
+		this.cmapView = cmapView;
+		this.loader = loader;
+		this.tiles = new HashMap<Integer, Boolean>();
+		this.concepts = new IntMap<Boolean>();
+		this.relationships = new IntMap<Boolean>();
+		this.started = false;
+	}
+
+	/**
+	 * Loads the first region, around the viewport.
+	 * 
+	 * @param x X coordinate of the viewport in the CM
+	 * @param y Y coordinate of the viewport in the CM
+	 * @param width width of the viewport
+	 * @param height height of the viewport
+	 */
+	public void start(int x, int y, int width, int height) {
+		this.viewport = new int[] { x, y, width, height };
+		loadMissingTiles();
+	}
+
+	/**
+	 * @return if the first region was loaded, and is the viewer's CM
+	 */
+	public boolean isStarted() {
+		return started;
+	}
+
+	/**
+	 * Loads the tiles that come into view after the viewport stops moving.
+	 * 
+	 * @param x X coordinate of the viewport in the CM
+	 * @param y Y coordinate of the viewport in the CM
+	 * @param width width of the viewport
+	 * @param height height of the viewport
+	 */
+	public void viewportChanged(int x, int y, int width, int height) {
+		this.viewport = new int[] { x, y, width, height };
+		if(this.started)
+			this.timer.schedule(SCROLL_DELAY);
+	}
+
+	/**
+	 * Requests the region covering the tiles in and around the viewport
+	 * that are not loaded yet.
+	 */
+	private void loadMissingTiles() {
+		// Half a viewport of margin on each side
+		int left = Math.max(this.viewport[0] - this.viewport[2] / 2, 0) / TILE_SIZE;
+		int top = Math.max(this.viewport[1] - this.viewport[3] / 2, 0) / TILE_SIZE;
+		int right = (this.viewport[0] + this.viewport[2] * 3 / 2) / TILE_SIZE;
+		int bottom = (this.viewport[1] + this.viewport[3] * 3 / 2) / TILE_SIZE;
+
+		int minx = Integer.MAX_VALUE, miny = Integer.MAX_VALUE;
+		int maxx = -1, maxy = -1;
+		for(int tx = left; tx <= right; tx++) {
+			for(int ty = top; ty <= bottom; ty++) {
+				if(this.tiles.containsKey(tileKey(tx, ty)))
+					continue;
+				minx = Math.min(minx, tx);
+				miny = Math.min(miny, ty);
+				maxx = Math.max(maxx, tx);
+				maxy = Math.max(maxy, ty);
+			}
+		}
+		if(maxx < 0)
+			return;
+
+		final int[] region = { minx, miny, maxx, maxy };
+		markTiles(region, true);
+		logger.fine("Loading tiles " + minx + "," + miny + " to " + maxx + "," + maxy);
+		this.loader.loadRegion(minx * TILE_SIZE, miny * TILE_SIZE,
+				(maxx - minx + 1) * TILE_SIZE, (maxy - miny + 1) * TILE_SIZE,
+				new AsyncCallback<String>() {
+			public void onFailure(Throwable caught) {
+				markTiles(region, false);
+				if(started) {
+					// Loaded again when the viewport moves
+					logger.severe("Error loading region " + caught.getMessage());
+					return;
+				}
+				logger.severe("Error loading review data. Server returned an error " + caught.getMessage());
+				timer.schedule(retry);
+				retry = Math.min(retry * 2, MAX_RETRY);
+			}
+			public void onSuccess(String result) {
+				merge(result);
+			}
+		});
+	}
+
+	/**
+	 * Adds the elements of a region to the viewer, the first region
+	 * becomes the viewer's CM.
+	 * 
+	 * @param xml the URL encoded XML of the region
+	 */
+	private void merge(String xml) {
+		ConceptMap region = new ConceptMap();
+		region.readXML(xml);
+		if(!this.started) {
+			for(Concept concept : region.getConcepts())
+				this.concepts.put(concept.getId(), Boolean.TRUE);
+			for(Relationship relationship : region.getRelationships())
+				this.relationships.put(relationship.getId(), Boolean.TRUE);
+			this.started = true;
+			this.cmapView.setCmap(region);
+			this.cmapView.setExtent(region.getWidth(), region.getHeight());
+			// The viewport may have moved while loading
+			this.timer.schedule(SCROLL_DELAY);
+			return;
+		}
+
+		ConceptMap cmap = this.cmapView.getCmap();
+		cmap.reserveIds(region.getConceptIdSequence(), region.getRelationshipIdSequence());
+		cmap.setSize(region.getWidth(), region.getHeight());
+		this.cmapView.setExtent(region.getWidth(), region.getHeight());
+		this.cmapView.startBatch();
+		for(Concept concept : region.getConcepts()) {
+			if(this.concepts.containsKey(concept.getId()))
+				continue;
+			this.concepts.put(concept.getId(), Boolean.TRUE);
+			if(cmap.getConcept(concept.getId()) != null)
+				continue;
+			this.cmapView.insertConceptAndLabel(concept.getId(), concept.getLabel(), concept.getPosx(), concept.getPosy());
+			cmap.getChanges().conceptLoaded(concept.getId());
+		}
+		for(Relationship relationship : region.getRelationships()) {
+			if(this.relationships.containsKey(relationship.getId()))
+				continue;
+			this.relationships.put(relationship.getId(), Boolean.TRUE);
+			Concept source = cmap.getConcept(relationship.getSource().getId());
+			Concept target = cmap.getConcept(relationship.getTarget().getId());
+			if(source == null || target == null || cmap.getRelationship(relationship.getId()) != null)
+				continue;
+			this.cmapView.insertRelationshipAndLabel(relationship.getId(), source, target, 
+					relationship.getLinkingWord(), relationship.getDrawingType(), 
+					relationship.getPosx(), relationship.getPosy());
+			cmap.getChanges().relationshipLoaded(relationship.getId());
+		}
+		this.cmapView.endBatch();
+	}
+
+	/**
+	 * Marks tiles as loaded, or not loaded.
+	 * 
+	 * @param region the tiles {left, top, right, bottom}
+	 * @param loaded if they are loaded
+	 */
+	private void markTiles(int[] region, boolean loaded) {
+		for(int tx = region[0]; tx <= region[2]; tx++) {
+			for(int ty = region[1]; ty <= region[3]; ty++) {
+				if(loaded)
+					this.tiles.put(tileKey(tx, ty), Boolean.TRUE);
+				else
+					this.tiles.remove(tileKey(tx, ty));
+			}
+		}
+	}
+
+	/**
+	 * @return the key of a tile
+	 */
+	private static int tileKey(int tx, int ty) {
+		return (tx << 16) ^ ty;
+	}
+}
@@ -22,10 +22,6 @@
 */
 package cl.uai.client;
 
-import org.vaadin.gwtgraphics.client.Line;
-import org.vaadin.gwtgraphics.client.shape.Path;
-import org.vaadin.gwtgraphics.client.shape.path.LineTo;
-
 import cl.uai.client.cmap.Relationship;
 
 /**
@@ -38,12 +34,9 @@ public class RelationshipLabel extends ConceptLabel {
 	
 	// The relationship to which this label belongs
 	private Relationship relationship;
-	// The relationship source line
-	private Line srcLine = null;
-	// The relationship target line
-	private Line tgtLine = null;
-	// The arrow for the target Line
-	private Path tgtArrow = null;
+	// The points of the lines and arrow, drawn by the view's edge renderer:
+	// source center, label center, arrow tip and the two arrow corners
+	private int[] edge = new int[10];
 	// The concept map view to which the label belongs
 	private ConceptMapView cmapview = null;
 
@@ -54,58 +47,62 @@ public class RelationshipLabel extends ConceptLabel {
 		super(rel.getLinkingWord());
 		this.relationship = rel;
 		this.cmapview = cview;
-		
-		srcLine = new Line(0,0,0,0);
-		srcLine.setStyleName("srcRelationship");
-		tgtLine = new Line(0,0,0,0);
-		tgtLine.setStyleName("tgtRelationship");
-		tgtArrow = new Path(0, 0);
-		tgtArrow.lineRelativelyTo(4, 16);
-		tgtArrow.lineRelativelyTo(-8, 0);
-		tgtArrow.close();
-		tgtArrow.setStyleName("tgtRelationship");
 	}
+
 	/**
-	 * @return the srcLine
+	 * @return the points {x, y} of the source concept center, the label
+	 * center, the arrow tip and the two other arrow corners
 	 */
-	public Line getSrcLine() {
-		return srcLine;
+	public int[] getEdge() {
+		return edge;
 	}
-	
+
 	/**
-	 * @return the tgtLine
+	 * @return the relationship
 	 */
-	public Line getTgtLine() {
-		return tgtLine;
+	public Relationship getRelationship() {
+		return relationship;
 	}
-	
-	public Path getTgtArrow() {
-		return tgtArrow;
-	}
-
 
 	/**
 	 * Re-calculates the coordinates for the lines from the source concept
-	 * to the linking word and then to the target concept
+	 * to the linking word and then to the target concept, and draws them
 	 */
 	public void drawAllLines() {
+		layout();
+		this.cmapview.getEdgeRenderer().update(this);
+	}
+
+	/**
+	 * Re-calculates the coordinates for the lines from the source concept
+	 * to the linking word and then to the target concept, without drawing
+	 * them. Labels being dragged are where they were dragged, the others
+	 * where their concept or relationship is.
+	 */
+	public void layout() {
+		ConceptLabel source = this.cmapview.getConceptLabels().get(this.relationship.getSource().getId());
+		ConceptLabel target = this.cmapview.getConceptLabels().get(this.relationship.getTarget().getId());
+
 		// Coordinates for label 1 corner and size (w,h)
-		int x1 = this.relationship.getSource().getPosx();
-		int y1 = this.relationship.getSource().getPosy();
-		int w1 = this.cmapview.getConceptLabels().get(this.relationship.getSource().getId()).getOffsetWidth();
-		int h1 = this.cmapview.getConceptLabels().get(this.relationship.getSource().getId()).getOffsetHeight();
+		int[] p1 = source.getDragPosition();
+		int x1 = p1 == null ? this.relationship.getSource().getPosx() : p1[0];
+		int y1 = p1 == null ? this.relationship.getSource().getPosy() : p1[1];
+		int w1 = source.getOffsetWidth();
+		int h1 = source.getOffsetHeight();
 
 		// Coordinates for label 2 corner and size (w,h)
-		int x2 = this.relationship.getPosx();
-		int y2 = this.relationship.getPosy();
+		int[] p2 = getDragPosition();
+		int x2 = p2 == null ? this.relationship.getPosx() : p2[0];
+		int y2 = p2 == null ? this.relationship.getPosy() : p2[1];
 		int w2 = super.getOffsetWidth();
 		int h2 = super.getOffsetHeight();
 
 		// Coordinates for label 2 corner and size (w,h)
-		int x3 = this.relationship.getTarget().getPosx();
-		int y3 = this.relationship.getTarget().getPosy();
-		int w3 = this.cmapview.getConceptLabels().get(this.relationship.getTarget().getId()).getOffsetWidth();
-		int h3 = this.cmapview.getConceptLabels().get(this.relationship.getTarget().getId()).getOffsetHeight();
+		int[] p3 = target.getDragPosition();
+		int x3 = p3 == null ? this.relationship.getTarget().getPosx() : p3[0];
+		int y3 = p3 == null ? this.relationship.getTarget().getPosy() : p3[1];
+		int w3 = target.getOffsetWidth();
+		int h3 = target.getOffsetHeight();
 
 		// Calculating centers for all labels
 		int cx1 = x1 + w1 / 2;
@@ -148,30 +145,24 @@ public class RelationshipLabel extends ConceptLabel {
 		int botx = (int) (arrowx + Math.cos(angle2) * h);
 		int boty = (int) (arrowy + Math.sin(angle2) * h);
 
-		
-
-		// Draw line from source concept to relationship
-		srcLine.setX1(cx1);
-		srcLine.setY1(cy1);
-		srcLine.setX2(cx2);
-		srcLine.setY2(cy2);
-		
-		// Draw line from relationship to target concept
-		tgtLine.setX1(cx2);
-		tgtLine.setY1(cy2);
-		tgtLine.setX2(arrowx);
-		tgtLine.setY2(arrowy);
-		
-		// Draw arrow head on target relationship
-		tgtArrow.setX(arrowx);
-		tgtArrow.setY(arrowy);
-		tgtArrow.setStep(1,new LineTo(false, topx, topy));
-		tgtArrow.setStep(2,new LineTo(false, botx, boty));
+
+		edge[0] = cx1;
+		edge[1] = cy1;
+		edge[2] = cx2;
+		edge[3] = cy2;
+		edge[4] = arrowx;
+		edge[5] = arrowy;
+		edge[6] = topx;
+		edge[7] = topy;
+		edge[8] = botx;
+		edge[9] = boty;
 	}
 	
 	@Override
 	protected void onLoad() {
 		super.onLoad();
-		drawAllLines();
+		// Labels added in bulk are drawn by the view once all are added
+		if(!this.cmapview.isBatching())
+			drawAllLines();
 	}
 }
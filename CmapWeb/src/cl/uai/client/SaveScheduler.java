@@ -0,0 +1,227 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.client;
+
+import cl.uai.client.resources.Messages;
+
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.user.client.Timer;
+import com.google.gwt.user.client.Window;
+import com.google.gwt.user.client.Window.ClosingEvent;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * Schedules the saves of a CM viewer. Changes are saved after the CM has not
+ * changed for a while, so a burst of edits produces a single save, and only
+ * one save is in flight at any time, unless the loader is pipelined (it keeps
+ * saves in order itself). As each save exports the CM when it starts, the
+ * last state always wins. Pending changes can be saved at once
+ * with {@link #flush()}, which also happens when the page is closed or
+ * the form holding the CM input is submitted. Changes of a failed save are
+ * saved again after a delay that doubles with each failure.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class SaveScheduler {
+
+	/** The state of the CM regarding the loader */
+	public enum State {
+		/** All changes were saved */
+		SAVED,
+		/** There are changes that were not saved */
+		DIRTY,
+		/** A save is in flight */
+		SAVING
+	}
+
+	/** Milliseconds without changes before saving, by default */
+	public static final int DEFAULT_DELAY = 750;
+	/** Milliseconds before saving again after a failed save, doubled with each failure */
+	public static final int INITIAL_RETRY = 5000;
+	/** Maximum milliseconds before saving again after a failed save */
+	public static final int MAX_RETRY = 120000;
+
+	/** The viewer whose CM is saved */
+	private ConceptMapView cmapView;
+	/** Milliseconds without changes before saving */
+	private int delay = DEFAULT_DELAY;
+	/** If there are changes not sent to the loader */
+	private boolean dirty = false;
+	/** Number of saves in flight */
+	private int saving = 0;
+	/** If saves can start while others are in flight */
+	private boolean pipelined = false;
+	/** If a flush was requested while a save was in flight */
+	private boolean flushRequested = false;
+	/** Milliseconds before saving again after a failed save */
+	private int retryDelay = INITIAL_RETRY;
+	/** Fires when the CM has not changed for a while */
+	private Timer timer = new Timer() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+	/** Localized messages */
+	private Messages messages = GWT.create(Messages.class);
+
+	/**
+	 * Creates a scheduler for a viewer. Pending changes are flushed when
+	 * the page is closed.
+	 * 
+	 * @param cview the viewer
+	 */
+	public SaveScheduler(ConceptMapView cview) {
+		this.cmapView = cview;
+		Window.addWindowClosingHandler(new Window.ClosingHandler() {
+			public void onWindowClosing(ClosingEvent event) {
+				flush();
+				// Only synchronous loaders are done by now
+				if(getState() != State.SAVED)
+					event.setMessage(messages.getString("UnsavedChanges")); //$NON-NLS-1$
+			}
+		});
+	}
+
+	/**
+	 * Records that the CM changed, it will be saved after the delay.
+	 */
+	public void changed() {
+		this.dirty = true;
+		if(this.saving == 0 || this.pipelined)
+			this.timer.schedule(this.delay);
+		stateChanged();
+	}
+
+	/**
+	 * Saves the pending changes now. If a save is in flight the changes are
+	 * saved as soon as it finishes.
+	 */
+	public void flush() {
+		this.timer.cancel();
+		if(!this.dirty)
+			return;
+		if(this.saving > 0 && !this.pipelined) {
+			this.flushRequested = true;
+			return;
+		}
+		this.dirty = false;
+		this.saving++;
+		this.flushRequested = false;
+		stateChanged();
+		this.cmapView.save(new AsyncCallback<String>() {
+			public void onFailure(Throwable caught) {
+				// Changes are kept, and saved again later or with the next change or flush
+				saving--;
+				dirty = true;
+				flushRequested = false;
+				if(saving == 0 || pipelined) {
+					timer.schedule(retryDelay);
+					retryDelay = Math.min(retryDelay * 2, MAX_RETRY);
+				}
+				stateChanged();
+			}
+			public void onSuccess(String result) {
+				saving--;
+				retryDelay = INITIAL_RETRY;
+				if(dirty && saving == 0) {
+					if(flushRequested)
+						flush();
+					else
+						timer.schedule(delay);
+				}
+				stateChanged();
+			}
+		});
+	}
+
+	/**
+	 * Flushes the pending changes when the form that contains an input is
+	 * submitted, so the input holds the last CM when it is sent.
+	 * 
+	 * @param input the input element
+	 */
+	public native void flushOnSubmit(Element input) /*-{
+		var form = input.form;
+		if(!form)
+			return;
+		var scheduler = this;
+		var handler = $entry(function() {
+			scheduler.@cl.uai.client.SaveScheduler::flush()();
+		});
+		if(form.addEventListener)
+			form.addEventListener('submit', handler, false);
+		else
+			form.attachEvent('onsubmit', handler);
+	}-*/;
+
+	/**
+	 * @return the delay in milliseconds without changes before saving
+	 */
+	public int getDelay() {
+		return delay;
+	}
+
+	/**
+	 * @return the current state
+	 */
+	public State getState() {
+		if(this.saving > 0)
+			return State.SAVING;
+		if(this.dirty)
+			return State.DIRTY;
+		return State.SAVED;
+	}
+
+	/**
+	 * @return if saves can start while others are in flight
+	 */
+	public boolean isPipelined() {
+		return pipelined;
+	}
+
+	/**
+	 * @param pipelined if saves can start while others are in flight, only
+	 *        for loaders that keep saves in order
+	 */
+	public void setPipelined(boolean pipelined) {
+		this.pipelined = pipelined;
+	}
+
+	/**
+	 * @param delay the delay in milliseconds without changes before saving
+	 */
+	public void setDelay(int delay) {
+		this.delay = delay;
+	}
+
+	/**
+	 * Shows the state in the viewer's header.
+	 */
+	private void stateChanged() {
+		if(this.cmapView.getCmapHeader() != null)
+			this.cmapView.getCmapHeader().setSaveState(getState());
+	}
+}
@@ -0,0 +1,179 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cl.uai.client.util.IntMap;
+
+/**
+ * A uniform grid of label bounding boxes in the CM. It allows to find
+ * overlapping labels looking only at the cells near the query instead of
+ * every label, and without reading sizes from the DOM.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class SpatialIndex {
+
+	/** Size in pixels of each (square) cell of the grid */
+	private static final int CELL_SIZE = 128;
+
+	/** Ids of the boxes that touch each cell, by cell key */
+	private Map<Integer, List<Integer>> cells;
+	/** Bounding boxes {x, y, width, height} by id */
+	private IntMap<int[]> bounds;
+
+	/**
+	 * Creates an empty index.
+	 */
+	public SpatialIndex() {
+		this.cells = new HashMap<Integer, List<Integer>>();
+		this.bounds = new IntMap<int[]>();
+	}
+
+	/**
+	 * Removes all boxes from the index.
+	 */
+	public void clear() {
+		this.cells.clear();
+		this.bounds.clear();
+	}
+
+	/**
+	 * Finds a box overlapping the box of an element placed at a new position.
+	 *
+	 * @param id the id of the element, it is never returned
+	 * @param x the X coordinate of the element in the CM
+	 * @param y the Y coordinate of the element in the CM
+	 * @return the lowest id of an overlapping box, or -1 if there is none
+	 */
+	public int findOverlapping(int id, int x, int y) {
+		int[] box = this.bounds.get(id);
+		if(box == null)
+			return -1;
+		int w = box[2];
+		int h = box[3];
+		int found = -1;
+		for(int cx = cell(x); cx <= cell(x + w); cx++) {
+			for(int cy = cell(y); cy <= cell(y + h); cy++) {
+				List<Integer> ids = this.cells.get(cellKey(cx, cy));
+				if(ids == null)
+					continue;
+				for(int other : ids) {
+					if(other == id || (found >= 0 && other >= found))
+						continue;
+					int[] b = this.bounds.get(other);
+					if(x < b[0] + b[2]
+							&& x + w >= b[0]
+							&& y + h >= b[1]
+							&& y < b[1] + b[3])
+						found = other;
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Moves a box, keeping its size.
+	 *
+	 * @param id the id of the box
+	 * @param x the new X coordinate in the CM
+	 * @param y the new Y coordinate in the CM
+	 */
+	public void move(int id, int x, int y) {
+		int[] box = this.bounds.get(id);
+		if(box == null)
+			return;
+		put(id, x, y, box[2], box[3]);
+	}
+
+	/**
+	 * Adds or replaces the box of an element.
+	 *
+	 * @param id the id of the element
+	 * @param x the X coordinate in the CM
+	 * @param y the Y coordinate in the CM
+	 * @param width the width of the box
+	 * @param height the height of the box
+	 */
+	public void put(int id, int x, int y, int width, int height) {
+		remove(id);
+		this.bounds.put(id, new int[] {x, y, width, height});
+		for(int cx = cell(x); cx <= cell(x + width); cx++) {
+			for(int cy = cell(y); cy <= cell(y + height); cy++) {
+				int key = cellKey(cx, cy);
+				List<Integer> ids = this.cells.get(key);
+				if(ids == null) {
+					ids = new ArrayList<Integer>();
+					this.cells.put(key, ids);
+				}
+				ids.add(id);
+			}
+		}
+	}
+
+	/**
+	 * Removes the box of an element.
+	 *
+	 * @param id the id of the element
+	 */
+	public void remove(int id) {
+		int[] box = this.bounds.remove(id);
+		if(box == null)
+			return;
+		for(int cx = cell(box[0]); cx <= cell(box[0] + box[2]); cx++) {
+			for(int cy = cell(box[1]); cy <= cell(box[1] + box[3]); cy++) {
+				int key = cellKey(cx, cy);
+				List<Integer> ids = this.cells.get(key);
+				if(ids == null)
+					continue;
+				ids.remove(Integer.valueOf(id));
+				if(ids.isEmpty())
+					this.cells.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * @param coordinate a coordinate in the CM
+	 * @return the cell (row or column) that contains the coordinate
+	 */
+	private static int cell(int coordinate) {
+		// Rounds towards negative infinity, labels may be dragged outside the map
+		return coordinate >= 0 ? coordinate / CELL_SIZE : (coordinate + 1) / CELL_SIZE - 1;
+	}
+
+	/**
+	 * @param cx the cell column
+	 * @param cy the cell row
+	 * @return a key identifying the cell
+	 */
+	private static int cellKey(int cx, int cy) {
+		return (cx << 16) ^ (cy & 0xFFFF);
+	}
+}
@@ -0,0 +1,150 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.client;
+
+import org.vaadin.gwtgraphics.client.DrawingArea;
+import org.vaadin.gwtgraphics.client.Line;
+import org.vaadin.gwtgraphics.client.shape.Path;
+import org.vaadin.gwtgraphics.client.shape.path.LineTo;
+
+import cl.uai.client.util.IntMap;
+
+import com.google.gwt.user.client.ui.Widget;
+
+/**
+ * Draws relationships as SVG (or VML) shapes with gwt-graphics: a line
+ * from the source concept to the label, a line from the label to the
+ * target concept and an arrow head, each updated when the relationship
+ * is redrawn.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class SvgEdgeRenderer implements EdgeRenderer {
+
+	/**
+	 * The shapes of a relationship.
+	 */
+	private static class Edge {
+		private Line srcLine;
+		private Line tgtLine;
+		private Path tgtArrow;
+	}
+
+	/** The drawing area */
+	private DrawingArea area;
+	/** Line drawn while adding a relationship */
+	private Line linkLine;
+	/** Shapes by relationship id */
+	private IntMap<Edge> edges = new IntMap<Edge>();
+
+	/**
+	 * @param width width of the drawing area
+	 * @param height height of the drawing area
+	 */
+	public SvgEdgeRenderer(int width, int height) {
+		this.area = new DrawingArea(width, height);
+		this.linkLine = new Line(0, 0, 0, 0);
+		this.linkLine.setStrokeColor("#CCCCCC");
+		this.linkLine.setStrokeWidth(2);
+		this.area.add(this.linkLine);
+	}
+
+	public Widget getWidget() {
+		return this.area;
+	}
+
+	public void add(RelationshipLabel label) {
+		Edge edge = new Edge();
+		edge.srcLine = new Line(0, 0, 0, 0);
+		edge.srcLine.setStyleName("srcRelationship");
+		edge.tgtLine = new Line(0, 0, 0, 0);
+		edge.tgtLine.setStyleName("tgtRelationship");
+		edge.tgtArrow = new Path(0, 0);
+		edge.tgtArrow.lineRelativelyTo(4, 16);
+		edge.tgtArrow.lineRelativelyTo(-8, 0);
+		edge.tgtArrow.close();
+		edge.tgtArrow.setStyleName("tgtRelationship");
+		this.edges.put(label.getRelationship().getId(), edge);
+		this.area.add(edge.srcLine);
+		this.area.add(edge.tgtLine);
+		this.area.add(edge.tgtArrow);
+		update(label);
+	}
+
+	public void remove(RelationshipLabel label) {
+		Edge edge = this.edges.remove(label.getRelationship().getId());
+		if(edge == null)
+			return;
+		this.area.remove(edge.srcLine);
+		this.area.remove(edge.tgtLine);
+		this.area.remove(edge.tgtArrow);
+	}
+
+	public void update(RelationshipLabel label) {
+		Edge edge = this.edges.get(label.getRelationship().getId());
+		if(edge == null)
+			return;
+		int[] e = label.getEdge();
+
+		// Draw line from source concept to relationship
+		edge.srcLine.setX1(e[0]);
+		edge.srcLine.setY1(e[1]);
+		edge.srcLine.setX2(e[2]);
+		edge.srcLine.setY2(e[3]);
+
+		// Draw line from relationship to target concept
+		edge.tgtLine.setX1(e[2]);
+		edge.tgtLine.setY1(e[3]);
+		edge.tgtLine.setX2(e[4]);
+		edge.tgtLine.setY2(e[5]);
+
+		// Draw arrow head on target relationship
+		edge.tgtArrow.setX(e[4]);
+		edge.tgtArrow.setY(e[5]);
+		edge.tgtArrow.setStep(1, new LineTo(false, e[6], e[7]));
+		edge.tgtArrow.setStep(2, new LineTo(false, e[8], e[9]));
+	}
+
+	public void setLinkLine(int x1, int y1, int x2, int y2) {
+		this.linkLine.setX1(x1);
+		this.linkLine.setY1(y1);
+		this.linkLine.setX2(x2);
+		this.linkLine.setY2(y2);
+	}
+
+	public void clear() {
+		this.edges.clear();
+		this.area.clear();
+		this.area.add(this.linkLine);
+	}
+
+	public void setSize(int width, int height) {
+		this.area.setWidth(width);
+		this.area.setHeight(height);
+	}
+
+	public void flush() {
+		// Shapes are updated as relationships are redrawn
+	}
+}
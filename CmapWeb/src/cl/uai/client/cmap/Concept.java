@@ -98,22 +98,20 @@ public class Concept {
 	}
 
 	/**
-	 * Evaluates if two concepts are equal
+	 * Evaluates if two concepts are equal. Concepts are identified
+	 * by their id, label and position are just attributes.
 	 */
 	@Override
 	public boolean equals(Object obj) {
 		if(!(obj instanceof Concept))
 			return false;
 		Concept c = (Concept) obj;
-		if(c.getId() == this.getId()){
-			if(c.getPosx() != this.getPosx()
-					|| c.getPosy() != this.getPosy()
-					|| !c.getLabel().equals(this.getLabel()))
-				return false;
-			else
-				return true;
-		}
-		return false;
+		return c.getId() == this.getId();
+	}
+
+	@Override
+	public int hashCode() {
+		return this.id;
 	}
 	
 	@Override
@@ -127,12 +125,22 @@ public class Concept {
 	 * @return an XML string
 	 */
 	public String exportXML() {
-		String output = 
-			"<concept id=\"" + this.id + 
-			"\" label=\"" + this.label + 
-			"\" posx=\"" + this.posx + 
-			"\" posy=\"" + this.posy + 
-			"\"/>";
-		return output;
+		XmlWriter out = new XmlWriter();
+		exportXML(out);
+		return out.toString();
+	}
+
+	/**
+	 * Exports a concept as XML into a writer.
+	 * 
+	 * @param out the writer
+	 */
+	public void exportXML(XmlWriter out) {
+		out.startElement("concept") //$NON-NLS-1$
+			.attribute("id", this.id) //$NON-NLS-1$
+			.attribute("label", this.label) //$NON-NLS-1$
+			.attribute("posx", this.posx) //$NON-NLS-1$
+			.attribute("posy", this.posy) //$NON-NLS-1$
+			.endEmptyElement();
 	}
 }
@@ -23,22 +23,15 @@
 package cl.uai.client.cmap;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.logging.Logger;
 
-import cl.uai.client.cmap.Relationship.Drawing;
 import cl.uai.client.resources.Messages;
+import cl.uai.client.util.IntMap;
 
 import com.google.gwt.core.client.GWT;
-import com.google.gwt.http.client.URL;
-import com.google.gwt.user.client.Random;
-import com.google.gwt.xml.client.Document;
-import com.google.gwt.xml.client.Element;
-import com.google.gwt.xml.client.Node;
-import com.google.gwt.xml.client.NodeList;
-import com.google.gwt.xml.client.XMLParser;
 
 /**
  * ConceptMap
@@ -55,15 +48,27 @@ public class ConceptMap {
 	private static Logger logger = Logger.getLogger(ConceptMap.class.getName());
 
 	/** Map of concepts by their id */
-	private Map<Integer, Concept> concepts;
+	private IntMap<Concept> concepts;
 	/** Map of relationships by their id */
-	private Map<Integer, Relationship> relationships;
+	private IntMap<Relationship> relationships;
+	/** Relationships that end in each concept, by concept id */
+	private IntMap<List<Relationship>> incoming;
+	/** Relationships that start in each concept, by concept id */
+	private IntMap<List<Relationship>> outgoing;
+	/** Groups of relationships sharing source and linking word, by {@link #sisterKey(int, String)} */
+	private Map<String, List<Relationship>> sisters;
 	/** A sequence for concept ids */
 	private int conceptIdSequence = 1;
 	/** A sequence for relationships ids */
 	private int relationshipIdSequence = 1;
 	/** The CM title */
 	private String title;
+	/** Changes since the CM was last saved */
+	private ConceptMapDelta changes;
+	/** Width of the whole CM, when only a region of it was loaded */
+	private int width = 0;
+	/** Height of the whole CM, when only a region of it was loaded */
+	private int height = 0;
 	/** Localized messages */
 	private static Messages messages = GWT.create(Messages.class);
 
@@ -82,8 +87,12 @@ public class ConceptMap {
 	 */
 	public ConceptMap(String cmapTitle) {
 		this.title = cmapTitle;
-		this.concepts = new TreeMap<Integer, Concept>();
-		this.relationships = new TreeMap<Integer, Relationship>();
+		this.concepts = new IntMap<Concept>();
+		this.relationships = new IntMap<Relationship>();
+		this.incoming = new IntMap<List<Relationship>>();
+		this.outgoing = new IntMap<List<Relationship>>();
+		this.sisters = new HashMap<String, List<Relationship>>();
+		this.changes = new ConceptMapDelta();
 		this.conceptIdSequence = 1;
 		this.relationshipIdSequence = 1;
 	}
@@ -140,6 +149,9 @@ public class ConceptMap {
 			deleteRelationship(rel.getId());
 		}
 		this.concepts.remove(concept.getId());
+		this.changes.conceptChanged(concept.getId(), true, ConceptMapDelta.REMOVED);
+		this.incoming.remove(concept.getId());
+		this.outgoing.remove(concept.getId());
 	}
 
 	/**
@@ -148,8 +160,12 @@ public class ConceptMap {
 	 * @param id the id of the relationship.
 	 */
 	public void deleteRelationship(int id) {
-		if(this.relationships.containsKey(id)) {
-			this.relationships.remove(id);
+		Relationship rel = this.relationships.remove(id);
+		if(rel != null) {
+			this.changes.relationshipChanged(id, true, ConceptMapDelta.REMOVED);
+			removeAdjacency(this.incoming, rel.getTarget().getId(), rel);
+			removeAdjacency(this.outgoing, rel.getSource().getId(), rel);
+			removeSister(rel);
 		}
 	}
 
@@ -159,18 +175,46 @@ public class ConceptMap {
 	 * @return the XML string.
 	 */
 	public String exportXML() {
-		String output = ""; //$NON-NLS-1$
-		output += "<conceptmap title=\"" + this.title + "\">"; //$NON-NLS-1$ //$NON-NLS-2$
+		XmlWriter out = new XmlWriter();
+		exportXML(out);
+		return out.toString();
+	}
+
+	/**
+	 * Exports a CM in XML format into a writer.
+	 * 
+	 * @param out the writer
+	 */
+	public void exportXML(XmlWriter out) {
+		out.startElement("conceptmap").attribute("title", this.title).closeStartElement(); //$NON-NLS-1$ //$NON-NLS-2$
 		// First, all concepts
 		for(Concept c : this.concepts.values()) {
-			output += c.exportXML();
+			c.exportXML(out);
 		}
 		// Second, all relationships
 		for(Relationship r : this.relationships.values()) {
-			output += r.exportXML();
+			r.exportXML(out);
 		}
-		output += "</conceptmap>"; //$NON-NLS-1$
-		return output;
+		out.endElement("conceptmap"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Exports the changes made since the CM was last saved, see {@link ConceptMapDelta}.
+	 * 
+	 * @param out the writer
+	 */
+	public void exportDeltaXML(XmlWriter out) {
+		this.changes.exportXML(this, out);
+	}
+
+	/**
+	 * The changes made to the CM since it was last saved. They must be cleared
+	 * by whoever saves the CM.
+	 * 
+	 * @return the changes
+	 */
+	public ConceptMapDelta getChanges() {
+		return changes;
 	}
 
 	/**
@@ -197,7 +241,7 @@ public class ConceptMap {
 	 * 
 	 * @return a map of concepts by id.
 	 */
-	public Map<Integer, Concept> getConcepts() {
+	public IntMap<Concept> getConcepts() {
 		return concepts;
 	}
 
@@ -225,10 +269,19 @@ public class ConceptMap {
 	 * 
 	 * @return a map of the relationshps by id
 	 */
-	public Map<Integer, Relationship> getRelationships() {
+	public IntMap<Relationship> getRelationships() {
 		return relationships;
 	}
 
+	/**
+	 * The height of the whole CM, known when the CM was loaded by regions.
+	 * 
+	 * @return the height, or 0 if it is unknown
+	 */
+	public int getHeight() {
+		return height;
+	}
+
 	/**
 	 * The CM title.
 	 * 
@@ -238,6 +291,15 @@ public class ConceptMap {
 		return title;
 	}
 
+	/**
+	 * The width of the whole CM, known when the CM was loaded by regions.
+	 * 
+	 * @return the width, or 0 if it is unknown
+	 */
+	public int getWidth() {
+		return width;
+	}
+
 	/**
 	 * All the relationships that 'end' in a particular concept, for which
 	 * the concept is the target.
@@ -246,12 +308,7 @@ public class ConceptMap {
 	 * @return a list of relationships.
 	 */
 	public List<Relationship> incomingRelationships(Concept concept) {
-		List<Relationship> output = new ArrayList<Relationship>();
-		for(Relationship rel : this.relationships.values()) {
-			if(rel.getTarget().equals(concept))
-				output.add(rel);
-		}
-		return output;
+		return adjacentRelationships(this.incoming, concept);
 	}
 
 	/**
@@ -268,6 +325,7 @@ public class ConceptMap {
 		c.setLabel(label);
 		c.setPosx(posx);
 		c.setPosy(posy);
+		this.changes.conceptChanged(id, this.concepts.containsKey(id), ConceptMapDelta.ADDED);
 		this.concepts.put(c.getId(),c);
 		if(this.conceptIdSequence <= id)
 			this.conceptIdSequence = id + 1;
@@ -298,7 +356,13 @@ public class ConceptMap {
 
 		// Checking consistency, that both concepts are in the CM.
 		if(this.containsConcept(source) && this.containsConcept(target)) {
+			this.changes.relationshipChanged(id, this.relationships.containsKey(id), ConceptMapDelta.ADDED);
+			// Replacing a relationship must also replace its adjacency entries
+			deleteRelationship(r.getId());
 			relationships.put(r.getId(),r);
+			addAdjacency(this.incoming, target.getId(), r);
+			addAdjacency(this.outgoing, source.getId(), r);
+			addSister(r);
 			if(this.relationshipIdSequence <= id)
 				this.relationshipIdSequence = id + 1;
 			return r;
@@ -309,6 +373,144 @@ public class ConceptMap {
 		return null;
 	}
 
+	/**
+	 * Registers a relationship in the adjacency list of a concept.
+	 * 
+	 * @param adjacency the incoming or outgoing adjacency map
+	 * @param conceptId the concept id
+	 * @param rel the relationship
+	 */
+	private void addAdjacency(IntMap<List<Relationship>> adjacency, int conceptId, Relationship rel) {
+		List<Relationship> list = adjacency.get(conceptId);
+		if(list == null) {
+			list = new ArrayList<Relationship>();
+			adjacency.put(conceptId, list);
+		}
+		list.add(rel);
+	}
+
+	/**
+	 * Registers a relationship in the group of its sister relationships.
+	 * 
+	 * @param rel the relationship
+	 */
+	private void addSister(Relationship rel) {
+		String key = sisterKey(rel.getSource().getId(), rel.getLinkingWord());
+		List<Relationship> group = this.sisters.get(key);
+		if(group == null) {
+			group = new ArrayList<Relationship>();
+			this.sisters.put(key, group);
+		}
+		group.add(rel);
+	}
+
+	/**
+	 * Copies the adjacency list of a concept, so callers can delete
+	 * relationships while iterating it.
+	 * 
+	 * @param adjacency the incoming or outgoing adjacency map
+	 * @param concept the concept
+	 * @return a list of relationships
+	 */
+	private List<Relationship> adjacentRelationships(IntMap<List<Relationship>> adjacency, Concept concept) {
+		List<Relationship> list = concept == null ? null : adjacency.get(concept.getId());
+		if(list == null)
+			return new ArrayList<Relationship>();
+		return new ArrayList<Relationship>(list);
+	}
+
+	/**
+	 * Removes a relationship from the adjacency list of a concept.
+	 * 
+	 * @param adjacency the incoming or outgoing adjacency map
+	 * @param conceptId the concept id
+	 * @param rel the relationship
+	 */
+	private void removeAdjacency(IntMap<List<Relationship>> adjacency, int conceptId, Relationship rel) {
+		List<Relationship> list = adjacency.get(conceptId);
+		if(list == null)
+			return;
+		for(int i=0; i<list.size(); i++) {
+			if(list.get(i).getId() == rel.getId()) {
+				list.remove(i);
+				break;
+			}
+		}
+		if(list.isEmpty())
+			adjacency.remove(conceptId);
+	}
+
+	/**
+	 * Removes a relationship from the group of its sister relationships.
+	 * 
+	 * @param rel the relationship
+	 */
+	private void removeSister(Relationship rel) {
+		String key = sisterKey(rel.getSource().getId(), rel.getLinkingWord());
+		List<Relationship> group = this.sisters.get(key);
+		if(group == null)
+			return;
+		for(int i=0; i<group.size(); i++) {
+			if(group.get(i).getId() == rel.getId()) {
+				group.remove(i);
+				break;
+			}
+		}
+		if(group.isEmpty())
+			this.sisters.remove(key);
+	}
+
+	/**
+	 * Changes the label of a concept.
+	 * 
+	 * @param id the concept id
+	 * @param label the new label
+	 */
+	public void renameConcept(int id, String label) {
+		this.concepts.get(id).setLabel(label);
+		this.changes.conceptChanged(id, true, ConceptMapDelta.RENAMED);
+	}
+
+	/**
+	 * Changes the linking word of a relationship, keeping the sister
+	 * relationships index up to date.
+	 * 
+	 * @param id the relationship id
+	 * @param linkingWord the new linking word
+	 */
+	public void renameRelationship(int id, String linkingWord) {
+		Relationship r = this.relationships.get(id);
+		removeSister(r);
+		r.setLinkingWord(linkingWord);
+		addSister(r);
+		this.changes.relationshipChanged(id, true, ConceptMapDelta.RENAMED);
+	}
+
+	/**
+	 * Makes sure new concepts and relationships get ids from a minimum
+	 * onwards, as ids of elements not loaded yet must not be reused.
+	 * 
+	 * @param conceptIdSequence the minimum id for new concepts
+	 * @param relationshipIdSequence the minimum id for new relationships
+	 */
+	public void reserveIds(int conceptIdSequence, int relationshipIdSequence) {
+		if(this.conceptIdSequence < conceptIdSequence)
+			this.conceptIdSequence = conceptIdSequence;
+		if(this.relationshipIdSequence < relationshipIdSequence)
+			this.relationshipIdSequence = relationshipIdSequence;
+	}
+
+	/**
+	 * Key for the sister relationships index.
+	 * 
+	 * @param sourceId the source concept id
+	 * @param linkingWord the linking word
+	 * @return the key
+	 */
+	private static String sisterKey(int sourceId, String linkingWord) {
+		return sourceId + ":" + linkingWord; //$NON-NLS-1$
+	}
+
 	/**
 	 * @return if the Concept Map is empty (has no concepts nor relationships)
 	 */
@@ -329,6 +531,7 @@ public class ConceptMap {
 		Concept c = this.concepts.get(id);
 		c.setPosx(posx);
 		c.setPosy(posy);
+		this.changes.conceptChanged(id, true, ConceptMapDelta.MOVED);
 	}
 
 	/**
@@ -342,6 +545,7 @@ public class ConceptMap {
 		Relationship r = this.relationships.get(id);
 		r.setPosx(posx);
 		r.setPosy(posy);
+		this.changes.relationshipChanged(id, true, ConceptMapDelta.MOVED);
 	}
 
 	/**
@@ -352,12 +556,7 @@ public class ConceptMap {
 	 * @return a list of relationships
 	 */
 	public List<Relationship> outgoingRelationships(Concept concept) {
-		List<Relationship> output = new ArrayList<Relationship>();
-		for(Relationship rel : this.relationships.values()) {
-			if(rel.getSource().equals(concept))
-				output.add(rel);
-		}
-		return output;
+		return adjacentRelationships(this.outgoing, concept);
 	}
 
 	/**
@@ -371,6 +570,10 @@ public class ConceptMap {
 	 * </conceptmap>
 	 * }
 	 * 
+	 * It also applies the changes in a {@link ConceptMapDelta}. Once read, the CM
+	 * has no pending changes. If the URL encoding of the XML is malformed the CM
+	 * is left as it was.
+	 * 
 	 * @param cmapXML the XML string.
 	 */
 	public void readXML(String cmapXML) {
@@ -379,69 +582,14 @@ public class ConceptMap {
 			return;
 		
 		try {
-			// Decodes string for URL and parses the XML document into a DOM
+			// Decodes and parses the XML in a single pass, inserting elements once it is read
 			logger.fine("Loading Concept Map");
-			Document messageDom = XMLParser.parse(URL.decode(cmapXML));
-
-			// Finds the CM title and sets it.
-			NodeList conceptmapList = messageDom.getElementsByTagName("conceptmap"); //$NON-NLS-1$
-			for(int i=0; i<conceptmapList.getLength(); i++) {
-				Node conceptNode = conceptmapList.item(i);
-				String title = ((Element) conceptNode).getAttribute("title");
-				logger.fine("Found concept map with title:" + title);
-				this.setTitle(title);
-			}
-			
-			// Finds all the concepts in the DOM and inserts them in the CM.
-			NodeList conceptsList = messageDom.getElementsByTagName("concept"); //$NON-NLS-1$
-			for(int i=0; i<conceptsList.getLength(); i++) {
-				Node conceptNode = conceptsList.item(i);
-				int id = Integer.parseInt(((Element) conceptNode).getAttribute("id")); //$NON-NLS-1$
-				String label = ((Element) conceptNode).getAttribute("label"); //$NON-NLS-1$
-				logger.fine("Found concept:" + label);
-				int posx = -1;
-				int posy = -1;
-				try {
-					posx = (int) Float.parseFloat(((Element) conceptNode).getAttribute("posx").replace(",", ".")); //$NON-NLS-1$
-					posy = (int) Float.parseFloat(((Element) conceptNode).getAttribute("posy").replace(",", ".")); //$NON-NLS-1$
-				} catch (Exception e) {
-					logger.severe("No position info in concept maps");
-					posx = Random.nextInt(500);
-					posy = Random.nextInt(500);
-				}
-				this.insertConcept(id, label, posx, posy);
-			}
-
-			// Finds all the relationships in the DOM and inserts them in the CM.
-			NodeList relationshipsList = messageDom.getElementsByTagName("relationship"); //$NON-NLS-1$
-			for(int i=0; i<relationshipsList.getLength(); i++) {
-				Node relationshipNode = relationshipsList.item(i);
-				int id = Integer.parseInt(((Element) relationshipNode).getAttribute("id")); //$NON-NLS-1$
-				int srcId = Integer.parseInt(((Element) relationshipNode).getAttribute("source")); //$NON-NLS-1$
-				int tgtId = Integer.parseInt(((Element) relationshipNode).getAttribute("target")); //$NON-NLS-1$
-				String linkingWord = ((Element) relationshipNode).getAttribute("linkingWord"); //$NON-NLS-1$
-				logger.fine("Found relationship:" + linkingWord);
-				int posx = -1;
-				int posy = -1;
-				try {
-					posx = (int) Float.parseFloat(((Element) relationshipNode).getAttribute("posx").replace(",", ".")); //$NON-NLS-1$
-					posy = (int) Float.parseFloat(((Element) relationshipNode).getAttribute("posy").replace(",", ".")); //$NON-NLS-1$
-				} catch (Exception e) {
-					// XML comes with no position
-					Concept source = this.getConcept(srcId);
-					Concept target = this.getConcept(tgtId);
-					posx = source.getPosx() + (int) (((double)target.getPosx() - (double)source.getPosx())/2);
-					posy = source.getPosy() + (int) (((double)target.getPosy() - (double)source.getPosy())/2);
-				}
-
-				Concept source = this.concepts.get(srcId);
-				Concept target = this.concepts.get(tgtId);
-				this.insertRelationship(id, source, target, linkingWord, Drawing.LINE, posx, posy);			    	
-			}
+			new ConceptMapReader(this).read(cmapXML);
 		} catch (Exception e) {
 			e.printStackTrace();
 			logger.severe(e.getMessage());
 		}
+		this.changes.clear();
 	}
 
 	/**
@@ -451,11 +599,38 @@ public class ConceptMap {
 	 */
 	public void setTitle(String title) {
 		this.title = title;
+		this.changes.titleChanged();
+	}
+
+	/**
+	 * Sets the size of the whole CM, when only a region of it is loaded.
+	 * 
+	 * @param width the width
+	 * @param height the height
+	 */
+	public void setSize(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Starts recording changes from scratch, usually when they are being
+	 * saved. If saving fails they can be restored with
+	 * {@link ConceptMapDelta#restore(ConceptMapDelta)}.
+	 * 
+	 * @return the changes recorded until now
+	 */
+	public ConceptMapDelta takeChanges() {
+		ConceptMapDelta taken = this.changes;
+		this.changes = new ConceptMapDelta();
+		return taken;
 	}
 
 	/**
 	 * Finds all relationships that have a common source concept and also a common linking word.
 	 * It is used for drawing purposes so only one linking word is shown instead of several.
+	 * The relationships are kept grouped by source and linking word, so linking words must
+	 * be changed through {@link #renameRelationship(int, String)}.
 	 *  
 	 * @param relationship the relationship to check for sisters
 	 * @return a list of relationships
@@ -463,10 +638,13 @@ public class ConceptMap {
 	public List<Relationship> sisterRelationships(Relationship relationship) {
 		logger.fine("Analyzing " + relationship);
 		List<Relationship> output = new ArrayList<Relationship>();
-		for(Relationship rel : outgoingRelationships(relationship.getSource())) {
-			// Exclude the relationship in the parameter and check for identical linking word
-			if(!rel.getTarget().equals(relationship.getTarget()) 
-					&& rel.getLinkingWord().equals(relationship.getLinkingWord())) {
+		List<Relationship> group = this.sisters.get(
+				sisterKey(relationship.getSource().getId(), relationship.getLinkingWord()));
+		if(group == null)
+			return output;
+		for(Relationship rel : group) {
+			// Exclude the relationship in the parameter
+			if(!rel.getTarget().equals(relationship.getTarget())) {
 				logger.fine("Found " + rel);
 				output.add(rel);
 			}
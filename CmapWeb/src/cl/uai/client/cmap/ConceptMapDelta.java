@@ -0,0 +1,266 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.client.cmap;
+
+import cl.uai.client.util.IntMap;
+
+/**
+ * The changes made to a CM since it was last saved. The CM records which
+ * concepts and relationships were added, removed, moved or renamed, and the
+ * delta is exported as a patch with the current values of those elements only:
+ *
+ * {@code
+ * <conceptmapdelta title="New title">
+ * <concept op="add" id="3" label="C" posx="90" posy="50"/>
+ * <concept op="move" id="1" posx="15" posy="10"/>
+ * <relationship op="rename" id="1" linkingWord="precedes"/>
+ * <relationship op="remove" id="2"/>
+ * </conceptmapdelta>
+ * }
+ *
+ * The title attribute is only present if the title changed. A patch can be
+ * applied to a CM with {@link ConceptMap#readXML(String)}.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class ConceptMapDelta {
+
+	/** The element was added (or replaced) */
+	public static final int ADDED = 1;
+	/** The element was removed */
+	public static final int REMOVED = 2;
+	/** The element position changed */
+	public static final int MOVED = 4;
+	/** The element label or linking word changed */
+	public static final int RENAMED = 8;
+	/** The element was in the CM when it was last saved */
+	private static final int EXISTED = 16;
+
+	/** Changes {id, flags} of concepts, by concept id */
+	private IntMap<int[]> concepts;
+	/** Changes {id, flags} of relationships, by relationship id */
+	private IntMap<int[]> relationships;
+	/** If the title changed */
+	private boolean titleChanged;
+
+	/**
+	 * Creates an empty delta.
+	 */
+	public ConceptMapDelta() {
+		this.concepts = new IntMap<int[]>();
+		this.relationships = new IntMap<int[]>();
+		this.titleChanged = false;
+	}
+
+	/**
+	 * Forgets all changes, usually after the CM was saved.
+	 */
+	public void clear() {
+		this.concepts.clear();
+		this.relationships.clear();
+		this.titleChanged = false;
+	}
+
+	/**
+	 * Records a change in a concept.
+	 *
+	 * @param id the concept id
+	 * @param existed if the concept was in the CM before the change
+	 * @param change ADDED, REMOVED, MOVED or RENAMED
+	 */
+	public void conceptChanged(int id, boolean existed, int change) {
+		record(this.concepts, id, existed, change);
+	}
+
+	/**
+	 * Forgets the changes of a concept that was loaded, rather than added,
+	 * as when the CM is loaded by regions.
+	 *
+	 * @param id the concept id
+	 */
+	public void conceptLoaded(int id) {
+		this.concepts.remove(id);
+	}
+
+	/**
+	 * @return if there are no changes
+	 */
+	public boolean isEmpty() {
+		return !this.titleChanged && this.concepts.isEmpty() && this.relationships.isEmpty();
+	}
+
+	/**
+	 * Records a change in a relationship.
+	 *
+	 * @param id the relationship id
+	 * @param existed if the relationship was in the CM before the change
+	 * @param change ADDED, REMOVED, MOVED or RENAMED
+	 */
+	public void relationshipChanged(int id, boolean existed, int change) {
+		record(this.relationships, id, existed, change);
+	}
+
+	/**
+	 * Forgets the changes of a relationship that was loaded, rather than
+	 * added, as when the CM is loaded by regions.
+	 *
+	 * @param id the relationship id
+	 */
+	public void relationshipLoaded(int id) {
+		this.relationships.remove(id);
+	}
+
+	/**
+	 * Adds changes that were made before these, usually because saving
+	 * them failed, so they are saved again with the next delta.
+	 *
+	 * @param earlier the earlier changes
+	 */
+	public void restore(ConceptMapDelta earlier) {
+		restore(this.concepts, earlier.concepts);
+		restore(this.relationships, earlier.relationships);
+		this.titleChanged |= earlier.titleChanged;
+	}
+
+	/**
+	 * Records that the title changed.
+	 */
+	public void titleChanged() {
+		this.titleChanged = true;
+	}
+
+	/**
+	 * Exports the changes as a patch, with the current values of the changed
+	 * elements in a CM. Elements that were added and removed since the last
+	 * save are not included.
+	 *
+	 * @param cmap the CM where the changes were made
+	 * @param out the writer
+	 */
+	public void exportXML(ConceptMap cmap, XmlWriter out) {
+		out.startElement("conceptmapdelta"); //$NON-NLS-1$
+		if(this.titleChanged)
+			out.attribute("title", cmap.getTitle()); //$NON-NLS-1$
+		out.closeStartElement();
+		for(int[] change : this.concepts) {
+			Concept c = cmap.getConcept(change[0]);
+			int flags = change[1];
+			if(c == null) {
+				if((flags & EXISTED) != 0)
+					startElement(out, "concept", "remove", change[0]).endEmptyElement(); //$NON-NLS-1$ //$NON-NLS-2$
+			} else if((flags & EXISTED) == 0 || (flags & ADDED) != 0) {
+				startElement(out, "concept", "add", c.getId()) //$NON-NLS-1$ //$NON-NLS-2$
+				.attribute("label", c.getLabel()) //$NON-NLS-1$
+				.attribute("posx", c.getPosx()) //$NON-NLS-1$
+				.attribute("posy", c.getPosy()) //$NON-NLS-1$
+				.endEmptyElement();
+			} else {
+				if((flags & MOVED) != 0)
+					startElement(out, "concept", "move", c.getId()) //$NON-NLS-1$ //$NON-NLS-2$
+					.attribute("posx", c.getPosx()) //$NON-NLS-1$
+					.attribute("posy", c.getPosy()) //$NON-NLS-1$
+					.endEmptyElement();
+				if((flags & RENAMED) != 0)
+					startElement(out, "concept", "rename", c.getId()) //$NON-NLS-1$ //$NON-NLS-2$
+					.attribute("label", c.getLabel()) //$NON-NLS-1$
+					.endEmptyElement();
+			}
+		}
+		for(int[] change : this.relationships) {
+			Relationship r = cmap.getRelationship(change[0]);
+			int flags = change[1];
+			if(r == null) {
+				if((flags & EXISTED) != 0)
+					startElement(out, "relationship", "remove", change[0]).endEmptyElement(); //$NON-NLS-1$ //$NON-NLS-2$
+			} else if((flags & EXISTED) == 0 || (flags & ADDED) != 0) {
+				startElement(out, "relationship", "add", r.getId()) //$NON-NLS-1$ //$NON-NLS-2$
+				.attribute("source", r.getSource().getId()) //$NON-NLS-1$
+				.attribute("target", r.getTarget().getId()) //$NON-NLS-1$
+				.attribute("linkingWord", r.getLinkingWord()) //$NON-NLS-1$
+				.attribute("posx", r.getPosx()) //$NON-NLS-1$
+				.attribute("posy", r.getPosy()) //$NON-NLS-1$
+				.endEmptyElement();
+			} else {
+				if((flags & MOVED) != 0)
+					startElement(out, "relationship", "move", r.getId()) //$NON-NLS-1$ //$NON-NLS-2$
+					.attribute("posx", r.getPosx()) //$NON-NLS-1$
+					.attribute("posy", r.getPosy()) //$NON-NLS-1$
+					.endEmptyElement();
+				if((flags & RENAMED) != 0)
+					startElement(out, "relationship", "rename", r.getId()) //$NON-NLS-1$ //$NON-NLS-2$
+					.attribute("linkingWord", r.getLinkingWord()) //$NON-NLS-1$
+					.endEmptyElement();
+			}
+		}
+		out.endElement("conceptmapdelta"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Starts the element of a changed concept or relationship.
+	 *
+	 * @param out the writer
+	 * @param element concept or relationship
+	 * @param op the operation
+	 * @param id the element id
+	 * @return the writer
+	 */
+	private static XmlWriter startElement(XmlWriter out, String element, String op, int id) {
+		return out.startElement(element).attribute("op", op).attribute("id", id); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Adds earlier changes to the changes of elements.
+	 *
+	 * @param changes the concept or relationship changes
+	 * @param earlier the earlier changes of the same kind
+	 */
+	private static void restore(IntMap<int[]> changes, IntMap<int[]> earlier) {
+		for(int[] change : earlier) {
+			int[] entry = changes.get(change[0]);
+			if(entry == null)
+				changes.put(change[0], new int[] { change[0], change[1] });
+			else
+				// The earlier change tells if the element was in the last saved CM
+				entry[1] = (entry[1] & ~EXISTED) | change[1];
+		}
+	}
+
+	/**
+	 * Adds a change to the changes of an element.
+	 *
+	 * @param changes the concept or relationship changes
+	 * @param id the element id
+	 * @param existed if the element was in the CM before the change
+	 * @param change the change
+	 */
+	private static void record(IntMap<int[]> changes, int id, boolean existed, int change) {
+		int[] entry = changes.get(id);
+		if(entry == null) {
+			// The first change tells if the element was in the last saved CM
+			entry = new int[] { id, existed ? EXISTED : 0 };
+			changes.put(id, entry);
+		}
+		entry[1] |= change;
+	}
+}
@@ -0,0 +1,688 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.client.cmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import cl.uai.client.cmap.Relationship.Drawing;
+
+import com.google.gwt.user.client.Random;
+
+/**
+ * Reads a CM from its URL encoded XML format in a single pass. The input is
+ * URL decoded while it is read and no DOM is built. The attributes of each
+ * concept and relationship are kept as they are read, and inserted in the CM
+ * once the whole input was read, so a malformed input changes nothing. Numbers are parsed
+ * directly from the input, accepting both '.' and ',' as decimal separator.
+ * Relationships that refer to concepts not read yet are inserted at the end.
+ * The reader also applies the patches written by {@link ConceptMapDelta},
+ * whose elements have an op attribute.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class ConceptMapReader {
+
+	/** For logging purposes */
+	private static Logger logger = Logger.getLogger(ConceptMapReader.class.getName());
+
+	/** Value of a numeric attribute that is missing or invalid */
+	private static final int NO_VALUE = Integer.MIN_VALUE;
+
+	/** Elements that the reader understands */
+	private static final int OTHER = 0;
+	private static final int CONCEPTMAP = 1;
+	private static final int CONCEPT = 2;
+	private static final int RELATIONSHIP = 3;
+
+	/** Operations in a delta, elements with no op are added */
+	private static final int OP_ADD = 0;
+	private static final int OP_REMOVE = 1;
+	private static final int OP_MOVE = 2;
+	private static final int OP_RENAME = 3;
+
+	/** The CM where elements are inserted */
+	private ConceptMap cmap;
+	/** The URL encoded input */
+	private String input;
+	/** Position of the next character in the input */
+	private int pos;
+	/** A character read ahead and pushed back, -1 if none */
+	private int pushedBack;
+	/** Second half of a surrogate pair decoded from the input, -1 if none */
+	private int pendingLow;
+	/** Buffer for element and attribute names */
+	private StringBuilder name = new StringBuilder();
+	/** Buffer for text attribute values */
+	private StringBuilder text = new StringBuilder();
+	/** Relationships whose concepts were not read when the relationship was */
+	private List<int[]> pending = new ArrayList<int[]>();
+	/** Linking words of the pending relationships */
+	private List<String> pendingWords = new ArrayList<String>();
+	/** Kind and numeric attributes of the elements read, inserted at the end */
+	private List<int[]> elements = new ArrayList<int[]>();
+	/** Title, label and linking word of the elements read */
+	private List<String[]> elementTexts = new ArrayList<String[]>();
+
+	// Attributes of the element being read
+	private int id;
+	private int source;
+	private int target;
+	private int posx;
+	private int posy;
+	private int op;
+	private int width;
+	private int height;
+	private int conceptIdSequence;
+	private int relationshipIdSequence;
+	private String title;
+	private String label;
+	private String linkingWord;
+
+	/**
+	 * Creates a reader that inserts elements in a CM.
+	 *
+	 * @param conceptMap the CM
+	 */
+	public ConceptMapReader(ConceptMap conceptMap) {
+		this.cmap = conceptMap;
+	}
+
+	/**
+	 * Reads a URL encoded XML CM, inserting its elements in the CM. The
+	 * elements are kept until the whole input is read, so a malformed input
+	 * leaves the CM unchanged.
+	 *
+	 * @param cmapXML the URL encoded XML
+	 * @throws IllegalArgumentException if the URL encoding is malformed
+	 */
+	public void read(String cmapXML) {
+		this.input = cmapXML;
+		this.pos = 0;
+		this.pushedBack = -1;
+		this.pendingLow = -1;
+		this.pending.clear();
+		this.pendingWords.clear();
+		this.elements.clear();
+		this.elementTexts.clear();
+
+		int c;
+		while((c = next()) >= 0) {
+			// Text content is ignored
+			if(c != '<')
+				continue;
+			c = next();
+			if(c == '?') {
+				skipPast('?', '>');
+			} else if(c == '!') {
+				if(next() == '-' && next() == '-')
+					skipPast('-', '-');
+				skipPast('>', -1);
+			} else if(c == '/') {
+				skipPast('>', -1);
+			} else if(c >= 0) {
+				readElement(c);
+			}
+		}
+
+		for(int i=0; i<this.elements.size(); i++) {
+			int[] element = this.elements.get(i);
+			String[] texts = this.elementTexts.get(i);
+			this.id = element[1];
+			this.source = element[2];
+			this.target = element[3];
+			this.posx = element[4];
+			this.posy = element[5];
+			this.op = element[6];
+			this.width = element[7];
+			this.height = element[8];
+			this.conceptIdSequence = element[9];
+			this.relationshipIdSequence = element[10];
+			this.title = texts[0];
+			this.label = texts[1];
+			this.linkingWord = texts[2];
+			insertElement(element[0]);
+		}
+		this.elements.clear();
+		this.elementTexts.clear();
+
+		insertPendingRelationships();
+	}
+
+	/**
+	 * Parses the number in an attribute value up to its closing quote.
+	 * Decimals are truncated, as a cast from float would do.
+	 *
+	 * @param quote the quote that ends the value
+	 * @return the number or NO_VALUE if it is empty, invalid or does not fit an int
+	 */
+	private int readNumber(int quote) {
+		int c = next();
+		boolean negative = false;
+		if(c == '-' || c == '+') {
+			negative = c == '-';
+			c = next();
+		}
+		boolean valid = false;
+		boolean decimals = false;
+		int value = 0;
+		while(c >= 0 && c != quote) {
+			if(c >= '0' && c <= '9') {
+				if(!decimals) {
+					if(value > (Integer.MAX_VALUE - (c - '0')) / 10) {
+						valid = false;
+						skipPast(quote, -1);
+						break;
+					}
+					value = value * 10 + (c - '0');
+				}
+				valid = true;
+			} else if((c == '.' || c == ',') && !decimals) {
+				decimals = true;
+			} else {
+				valid = false;
+				skipPast(quote, -1);
+				break;
+			}
+			c = next();
+		}
+		if(!valid)
+			return NO_VALUE;
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Reads a text attribute value up to its closing quote, decoding entities.
+	 *
+	 * @param quote the quote that ends the value
+	 * @return the value
+	 */
+	private String readText(int quote) {
+		this.text.setLength(0);
+		int c;
+		while((c = next()) >= 0 && c != quote) {
+			if(c != '&') {
+				this.text.append((char) c);
+				continue;
+			}
+			// Entity reference, kept as is if it is not known
+			int start = this.text.length();
+			this.text.append('&');
+			while((c = next()) >= 0 && c != ';' && c != quote && this.text.length() - start < 10) {
+				this.text.append((char) c);
+			}
+			if(c != ';') {
+				if(c == quote)
+					break;
+				if(c >= 0)
+					this.text.append((char) c);
+				continue;
+			}
+			int decoded = decodeEntity(start + 1);
+			if(decoded >= 0) {
+				this.text.setLength(start);
+				this.text.append((char) decoded);
+			} else {
+				this.text.append(';');
+			}
+		}
+		return this.text.toString();
+	}
+
+	/**
+	 * Decodes the entity name written in the text buffer from a position.
+	 *
+	 * @param start position of the entity name in the text buffer
+	 * @return the character or -1 if the entity is unknown
+	 */
+	private int decodeEntity(int start) {
+		int length = this.text.length() - start;
+		if(length > 1 && this.text.charAt(start) == '#') {
+			int radix = 10;
+			int i = start + 1;
+			if(this.text.charAt(i) == 'x' || this.text.charAt(i) == 'X') {
+				radix = 16;
+				i++;
+			}
+			int value = 0;
+			for(; i < this.text.length(); i++) {
+				int digit = Character.digit(this.text.charAt(i), radix);
+				if(digit < 0)
+					return -1;
+				value = value * radix + digit;
+			}
+			return value <= 0xFFFF ? value : -1;
+		}
+		if(entityIs(start, "amp")) return '&';
+		if(entityIs(start, "lt")) return '<';
+		if(entityIs(start, "gt")) return '>';
+		if(entityIs(start, "quot")) return '"';
+		if(entityIs(start, "apos")) return '\'';
+		return -1;
+	}
+
+	/**
+	 * @param start position of the entity name in the text buffer
+	 * @param entity an entity name
+	 * @return if the entity in the buffer has that name
+	 */
+	private boolean entityIs(int start, String entity) {
+		if(this.text.length() - start != entity.length())
+			return false;
+		for(int i=0; i<entity.length(); i++) {
+			if(this.text.charAt(start + i) != entity.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads an element start tag and its attributes, and keeps the
+	 * concept or relationship it describes to insert it at the end.
+	 *
+	 * @param first the first character of the element name
+	 */
+	private void readElement(int first) {
+		int element = OTHER;
+		readName(first);
+		if(nameIs("conceptmap") || nameIs("conceptmapdelta")) //$NON-NLS-1$ //$NON-NLS-2$
+			element = CONCEPTMAP;
+		else if(nameIs("concept")) //$NON-NLS-1$
+			element = CONCEPT;
+		else if(nameIs("relationship")) //$NON-NLS-1$
+			element = RELATIONSHIP;
+
+		this.id = NO_VALUE;
+		this.source = NO_VALUE;
+		this.target = NO_VALUE;
+		this.posx = NO_VALUE;
+		this.posy = NO_VALUE;
+		this.op = OP_ADD;
+		this.width = NO_VALUE;
+		this.height = NO_VALUE;
+		this.conceptIdSequence = NO_VALUE;
+		this.relationshipIdSequence = NO_VALUE;
+		this.title = null;
+		this.label = null;
+		this.linkingWord = null;
+
+		int c;
+		while(true) {
+			c = skipWhitespace();
+			if(c < 0 || c == '>' || c == '/')
+				break;
+			readName(c);
+			c = skipWhitespace();
+			if(c != '=') {
+				this.pushedBack = c;
+				continue;
+			}
+			int quote = skipWhitespace();
+			if(quote != '"' && quote != '\'') {
+				skipPast('>', -1);
+				return;
+			}
+			if(element == OTHER)
+				skipPast(quote, -1);
+			else if(nameIs("id")) //$NON-NLS-1$
+				this.id = readNumber(quote);
+			else if(nameIs("source")) //$NON-NLS-1$
+				this.source = readNumber(quote);
+			else if(nameIs("target")) //$NON-NLS-1$
+				this.target = readNumber(quote);
+			else if(nameIs("posx")) //$NON-NLS-1$
+				this.posx = readNumber(quote);
+			else if(nameIs("posy")) //$NON-NLS-1$
+				this.posy = readNumber(quote);
+			else if(nameIs("title")) //$NON-NLS-1$
+				this.title = readText(quote);
+			else if(nameIs("width")) //$NON-NLS-1$
+				this.width = readNumber(quote);
+			else if(nameIs("height")) //$NON-NLS-1$
+				this.height = readNumber(quote);
+			else if(nameIs("conceptIdSequence")) //$NON-NLS-1$
+				this.conceptIdSequence = readNumber(quote);
+			else if(nameIs("relationshipIdSequence")) //$NON-NLS-1$
+				this.relationshipIdSequence = readNumber(quote);
+			else if(nameIs("label")) //$NON-NLS-1$
+				this.label = readText(quote);
+			else if(nameIs("linkingWord")) //$NON-NLS-1$
+				this.linkingWord = readText(quote);
+			else if(nameIs("op")) //$NON-NLS-1$
+				this.op = readOp(quote);
+			else
+				skipPast(quote, -1);
+		}
+		if(c == '/')
+			skipPast('>', -1);
+
+		if(element == OTHER)
+			return;
+		this.elements.add(new int[] { element, this.id, this.source, this.target, this.posx, this.posy, this.op,
+				this.width, this.height, this.conceptIdSequence, this.relationshipIdSequence });
+		this.elementTexts.add(new String[] { this.title, this.label, this.linkingWord });
+	}
+
+	/**
+	 * Inserts the element whose attributes were just restored, or changes
+	 * the CM as it tells.
+	 *
+	 * @param element the kind of element
+	 */
+	private void insertElement(int element) {
+		switch(element) {
+		case CONCEPTMAP:
+			if(this.title != null) {
+				logger.fine("Found concept map with title:" + this.title);
+				this.cmap.setTitle(this.title);
+			}
+			// A region of a CM tells the size and ids of the whole CM
+			if(this.width != NO_VALUE && this.height != NO_VALUE)
+				this.cmap.setSize(this.width, this.height);
+			if(this.conceptIdSequence != NO_VALUE && this.relationshipIdSequence != NO_VALUE)
+				this.cmap.reserveIds(this.conceptIdSequence, this.relationshipIdSequence);
+			break;
+		case CONCEPT:
+			if(this.op == OP_ADD)
+				insertConcept();
+			else
+				changeConcept();
+			break;
+		case RELATIONSHIP:
+			if(this.op == OP_ADD)
+				insertRelationship();
+			else
+				changeRelationship();
+			break;
+		}
+	}
+
+	/**
+	 * Reads the operation of a delta element.
+	 *
+	 * @param quote the quote that ends the value
+	 * @return the operation, OP_ADD if it is unknown
+	 */
+	private int readOp(int quote) {
+		String value = readText(quote);
+		if(value.equals("remove")) //$NON-NLS-1$
+			return OP_REMOVE;
+		if(value.equals("move")) //$NON-NLS-1$
+			return OP_MOVE;
+		if(value.equals("rename")) //$NON-NLS-1$
+			return OP_RENAME;
+		return OP_ADD;
+	}
+
+	/**
+	 * Removes, moves or renames the concept just read.
+	 */
+	private void changeConcept() {
+		if(this.id == NO_VALUE || this.cmap.getConcept(this.id) == null) {
+			logger.severe("Changing a concept that is not in the concept map " + this.id);
+			return;
+		}
+		if(this.op == OP_REMOVE)
+			this.cmap.deleteConcept(this.id);
+		else if(this.op == OP_MOVE && this.posx != NO_VALUE && this.posy != NO_VALUE)
+			this.cmap.moveConcept(this.id, this.posx, this.posy);
+		else if(this.op == OP_RENAME)
+			this.cmap.renameConcept(this.id, this.label);
+	}
+
+	/**
+	 * Removes, moves or renames the relationship just read.
+	 */
+	private void changeRelationship() {
+		if(this.id == NO_VALUE || this.cmap.getRelationship(this.id) == null) {
+			logger.severe("Changing a relationship that is not in the concept map " + this.id);
+			return;
+		}
+		if(this.op == OP_REMOVE)
+			this.cmap.deleteRelationship(this.id);
+		else if(this.op == OP_MOVE && this.posx != NO_VALUE && this.posy != NO_VALUE)
+			this.cmap.moveRelationship(this.id, this.posx, this.posy);
+		else if(this.op == OP_RENAME)
+			this.cmap.renameRelationship(this.id, this.linkingWord);
+	}
+
+	/**
+	 * Inserts the concept just read in the CM.
+	 */
+	private void insertConcept() {
+		if(this.id == NO_VALUE) {
+			logger.severe("Concept with no id in concept map");
+			return;
+		}
+		logger.fine("Found concept:" + this.label);
+		if(this.posx == NO_VALUE || this.posy == NO_VALUE) {
+			logger.severe("No position info in concept maps");
+			this.posx = Random.nextInt(500);
+			this.posy = Random.nextInt(500);
+		}
+		if(this.cmap.getConcept(this.id) != null) {
+			// Replaced in place, so its relationships keep pointing to it
+			this.cmap.moveConcept(this.id, this.posx, this.posy);
+			this.cmap.renameConcept(this.id, this.label);
+			return;
+		}
+		this.cmap.insertConcept(this.id, this.label, this.posx, this.posy);
+	}
+
+	/**
+	 * Inserts the relationship just read in the CM, or keeps it for the end
+	 * if its concepts have not been read yet.
+	 */
+	private void insertRelationship() {
+		if(this.id == NO_VALUE || this.source == NO_VALUE || this.target == NO_VALUE) {
+			logger.severe("Relationship with no id, source or target in concept map");
+			return;
+		}
+		logger.fine("Found relationship:" + this.linkingWord);
+		int[] rel = new int[] { this.id, this.source, this.target, this.posx, this.posy };
+		if(this.cmap.getConcept(this.source) == null || this.cmap.getConcept(this.target) == null) {
+			this.pending.add(rel);
+			this.pendingWords.add(this.linkingWord);
+			return;
+		}
+		insertRelationship(rel, this.linkingWord);
+	}
+
+	/**
+	 * Inserts a relationship in the CM.
+	 *
+	 * @param rel id, source, target, posx and posy of the relationship
+	 * @param word the linking word
+	 */
+	private void insertRelationship(int[] rel, String word) {
+		Concept source = this.cmap.getConcept(rel[1]);
+		Concept target = this.cmap.getConcept(rel[2]);
+		if(source == null || target == null) {
+			logger.severe("Relationship " + rel[0] + " refers to a concept not in the map");
+			return;
+		}
+		int x = rel[3];
+		int y = rel[4];
+		if(x == NO_VALUE || y == NO_VALUE) {
+			// XML comes with no position
+			x = source.getPosx() + (int) (((double)target.getPosx() - (double)source.getPosx())/2);
+			y = source.getPosy() + (int) (((double)target.getPosy() - (double)source.getPosy())/2);
+		}
+		this.cmap.insertRelationship(rel[0], source, target, word, Drawing.LINE, x, y);
+	}
+
+	/**
+	 * Inserts the relationships that were read before their concepts.
+	 */
+	private void insertPendingRelationships() {
+		for(int i=0; i<this.pending.size(); i++) {
+			insertRelationship(this.pending.get(i), this.pendingWords.get(i));
+		}
+		this.pending.clear();
+		this.pendingWords.clear();
+	}
+
+	/**
+	 * Reads an element or attribute name into the name buffer.
+	 *
+	 * @param first the first character of the name
+	 */
+	private void readName(int first) {
+		this.name.setLength(0);
+		int c = first;
+		while(c >= 0 && c != '=' && c != '>' && c != '/' && !isWhitespace(c)) {
+			this.name.append((char) c);
+			c = next();
+		}
+		this.pushedBack = c;
+	}
+
+	/**
+	 * @param value a name
+	 * @return if the name buffer holds that name
+	 */
+	private boolean nameIs(String value) {
+		if(this.name.length() != value.length())
+			return false;
+		for(int i=0; i<value.length(); i++) {
+			if(this.name.charAt(i) != value.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the next decoded character of the input.
+	 *
+	 * @return the character, or -1 at the end of the input
+	 */
+	private int next() {
+		if(this.pushedBack >= 0) {
+			int c = this.pushedBack;
+			this.pushedBack = -1;
+			return c;
+		}
+		if(this.pendingLow >= 0) {
+			int c = this.pendingLow;
+			this.pendingLow = -1;
+			return c;
+		}
+		if(this.pos >= this.input.length())
+			return -1;
+		char c = this.input.charAt(this.pos++);
+		if(c != '%')
+			return c;
+
+		// Percent encoded UTF-8 sequence
+		int b = readEscapedByte();
+		if(b < 0x80)
+			return b;
+		int extra;
+		int codePoint;
+		if((b & 0xE0) == 0xC0) {
+			extra = 1;
+			codePoint = b & 0x1F;
+		} else if((b & 0xF0) == 0xE0) {
+			extra = 2;
+			codePoint = b & 0x0F;
+		} else if((b & 0xF8) == 0xF0) {
+			extra = 3;
+			codePoint = b & 0x07;
+		} else {
+			throw new IllegalArgumentException("Malformed URL encoding at " + this.pos);
+		}
+		for(int i=0; i<extra; i++) {
+			if(this.pos >= this.input.length() || this.input.charAt(this.pos++) != '%')
+				throw new IllegalArgumentException("Malformed URL encoding at " + this.pos);
+			int cont = readEscapedByte();
+			if((cont & 0xC0) != 0x80)
+				throw new IllegalArgumentException("Malformed URL encoding at " + this.pos);
+			codePoint = (codePoint << 6) | (cont & 0x3F);
+		}
+		if(codePoint > 0xFFFF) {
+			codePoint -= 0x10000;
+			this.pendingLow = 0xDC00 + (codePoint & 0x3FF);
+			return 0xD800 + (codePoint >> 10);
+		}
+		return codePoint;
+	}
+
+	/**
+	 * Reads the two hexadecimal digits after a '%'.
+	 *
+	 * @return the byte value
+	 */
+	private int readEscapedByte() {
+		if(this.pos + 2 > this.input.length())
+			throw new IllegalArgumentException("Malformed URL encoding at " + this.pos);
+		int high = Character.digit(this.input.charAt(this.pos), 16);
+		int low = Character.digit(this.input.charAt(this.pos + 1), 16);
+		if(high < 0 || low < 0)
+			throw new IllegalArgumentException("Malformed URL encoding at " + this.pos);
+		this.pos += 2;
+		return (high << 4) | low;
+	}
+
+	/**
+	 * Skips characters until a sequence of one or two characters has been read.
+	 *
+	 * @param first the first character of the sequence
+	 * @param second the second character of the sequence, -1 for a single character
+	 */
+	private void skipPast(int first, int second) {
+		int c;
+		while((c = next()) >= 0) {
+			if(c != first)
+				continue;
+			if(second < 0)
+				return;
+			c = next();
+			if(c == second)
+				return;
+			this.pushedBack = c;
+		}
+	}
+
+	/**
+	 * Skips whitespace.
+	 *
+	 * @return the first character that is not whitespace, or -1 at the end
+	 */
+	private int skipWhitespace() {
+		int c;
+		do {
+			c = next();
+		} while(c >= 0 && isWhitespace(c));
+		return c;
+	}
+
+	/**
+	 * @param c a character
+	 * @return if the character is XML whitespace
+	 */
+	private static boolean isWhitespace(int c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+	}
+}
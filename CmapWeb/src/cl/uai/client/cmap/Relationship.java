@@ -149,14 +149,24 @@ public class Relationship {
 	 * @return the XML string
 	 */
 	public String exportXML() {
-		String output = 
-			"<relationship id=\"" + this.id + 
-			"\" source=\"" + this.getSource().getId() + 
-			"\" target=\"" + this.getTarget().getId() + 
-			"\" linkingWord=\"" + this.linkingWord + 
-			"\" posx=\"" + this.posx + 
-			"\" posy=\"" + this.posy + "\"/>";
-		return output;
+		XmlWriter out = new XmlWriter();
+		exportXML(out);
+		return out.toString();
+	}
+
+	/**
+	 * Exports the relationship in XML format into a writer
+	 * @param out the writer
+	 */
+	public void exportXML(XmlWriter out) {
+		out.startElement("relationship") //$NON-NLS-1$
+			.attribute("id", this.id) //$NON-NLS-1$
+			.attribute("source", this.getSource().getId()) //$NON-NLS-1$
+			.attribute("target", this.getTarget().getId()) //$NON-NLS-1$
+			.attribute("linkingWord", this.linkingWord) //$NON-NLS-1$
+			.attribute("posx", this.posx) //$NON-NLS-1$
+			.attribute("posy", this.posy) //$NON-NLS-1$
+			.endEmptyElement();
 	}
 	
 	@Override
@@ -0,0 +1,173 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.client.cmap;
+
+/**
+ * Writes XML elements into a single buffer. The buffer can be reset
+ * and reused, so exporting a CM after every edit costs one pass over
+ * the CM and no intermediate strings. Attribute values are escaped.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class XmlWriter {
+
+	/** The output */
+	private StringBuilder buffer;
+
+	/**
+	 * Creates a writer with an empty buffer.
+	 */
+	public XmlWriter() {
+		this.buffer = new StringBuilder();
+	}
+
+	/**
+	 * Writes an attribute of the element being started.
+	 *
+	 * @param name the attribute name
+	 * @param value the attribute value
+	 * @return this writer
+	 */
+	public XmlWriter attribute(String name, int value) {
+		this.buffer.append(' ').append(name).append("=\"").append(value).append('"');
+		return this;
+	}
+
+	/**
+	 * Writes an attribute of the element being started, escaping its value.
+	 *
+	 * @param name the attribute name
+	 * @param value the attribute value
+	 * @return this writer
+	 */
+	public XmlWriter attribute(String name, String value) {
+		this.buffer.append(' ').append(name).append("=\"");
+		escape(value);
+		this.buffer.append('"');
+		return this;
+	}
+
+	/**
+	 * Closes the start tag of an element that has content.
+	 *
+	 * @return this writer
+	 */
+	public XmlWriter closeStartElement() {
+		this.buffer.append('>');
+		return this;
+	}
+
+	/**
+	 * Ends an element without content, after its attributes.
+	 *
+	 * @return this writer
+	 */
+	public XmlWriter endEmptyElement() {
+		this.buffer.append("/>");
+		return this;
+	}
+
+	/**
+	 * Writes the end tag of an element.
+	 *
+	 * @param name the element name
+	 * @return this writer
+	 */
+	public XmlWriter endElement(String name) {
+		this.buffer.append("</").append(name).append('>');
+		return this;
+	}
+
+	/**
+	 * Appends a value escaping XML special characters. Runs of characters
+	 * that need no escaping are appended at once.
+	 *
+	 * @param value the value
+	 */
+	private void escape(String value) {
+		if(value == null)
+			return;
+		int start = 0;
+		for(int i=0; i<value.length(); i++) {
+			String entity = null;
+			switch(value.charAt(i)) {
+			case '&': entity = "&amp;"; break;
+			case '<': entity = "&lt;"; break;
+			case '>': entity = "&gt;"; break;
+			case '"': entity = "&quot;"; break;
+			default: continue;
+			}
+			this.buffer.append(value, start, i).append(entity);
+			start = i + 1;
+		}
+		this.buffer.append(value, start, value.length());
+	}
+
+	/**
+	 * @return the number of characters written
+	 */
+	public int length() {
+		return this.buffer.length();
+	}
+
+	/**
+	 * Writes text as is, for declarations and already serialized XML.
+	 *
+	 * @param text the text
+	 * @return this writer
+	 */
+	public XmlWriter raw(String text) {
+		this.buffer.append(text);
+		return this;
+	}
+
+	/**
+	 * Discards everything written, keeping the buffer for reuse.
+	 *
+	 * @return this writer
+	 */
+	public XmlWriter reset() {
+		this.buffer.setLength(0);
+		return this;
+	}
+
+	/**
+	 * Starts an element, its attributes must follow.
+	 *
+	 * @param name the element name
+	 * @return this writer
+	 */
+	public XmlWriter startElement(String name) {
+		this.buffer.append('<').append(name);
+		return this;
+	}
+
+	/**
+	 * @return everything written since the last reset
+	 */
+	@Override
+	public String toString() {
+		return this.buffer.toString();
+	}
+}
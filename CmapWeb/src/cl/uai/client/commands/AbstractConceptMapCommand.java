@@ -25,6 +25,7 @@ package cl.uai.client.commands;
 import java.util.Map;
 
 import cl.uai.client.ConceptMapView;
+import cl.uai.client.cmap.XmlWriter;
 
 /**
  * Abstract class that is base for all commands.
@@ -94,11 +95,25 @@ public abstract class AbstractConceptMapCommand {
 	public abstract void undo();
 	
 	public String exportXML(int index) {
-		String output = "<command index=\"" + index + "\" name=\"" + name + "\">";
+		XmlWriter out = new XmlWriter();
+		exportXML(out, index);
+		return out.toString();
+	}
+
+	/**
+	 * Exports the command and its parameters as XML into a writer.
+	 * 
+	 * @param out the writer
+	 * @param index position of the command in the history
+	 */
+	public void exportXML(XmlWriter out, int index) {
+		out.startElement("command").attribute("index", index).attribute("name", name).closeStartElement();
 		for(String key : this.parameters.keySet()) {
-			output += "<parameter key=\"" + key + "\" value=\"" + parameters.get(key) + "\"/>";
+			out.startElement("parameter")
+				.attribute("key", key)
+				.attribute("value", String.valueOf(parameters.get(key)))
+				.endEmptyElement();
 		}
-		output += "</command>";
-		return output;
+		out.endElement("command");
 	}
 }
@@ -49,6 +49,9 @@ public class AddConceptCommand extends AbstractConceptMapCommand {
 		this.posy = (Integer) parameters.get("posy");
 		this.posx = Math.max(0, this.posx);
 		this.posy = Math.max(0, this.posy);
+		// Replayed commands already know the id of the concept
+		if(parameters.get("id") != null)
+			this.id = (Integer) parameters.get("id");
 	}
 
 	/* (non-Javadoc)
@@ -61,6 +64,7 @@ public class AddConceptCommand extends AbstractConceptMapCommand {
 		if(this.id < 0) {
 			c = this.cmapview.addConceptAndLabel(label, posx, posy);
 			this.id = c.getId();
+			this.parameters.put("id", this.id);
 		}
 		else
 			c = this.cmapview.insertConceptAndLabel(id, label, posx, posy);
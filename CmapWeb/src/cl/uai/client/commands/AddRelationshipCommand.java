@@ -52,6 +52,12 @@ public class AddRelationshipCommand extends AbstractConceptMapCommand {
 		this.linkingWord = (String) parameters.get("linkingWord");
 		this.sourceId = (Integer) parameters.get("sourceId");
 		this.targetId = (Integer) parameters.get("targetId");
+		// Replayed commands already know the id and position of the relationship
+		if(parameters.get("id") != null) {
+			this.id = (Integer) parameters.get("id");
+			this.posx = (Integer) parameters.get("posx");
+			this.posy = (Integer) parameters.get("posy");
+		}
 	}
 
 	/* (non-Javadoc)
@@ -68,6 +74,9 @@ public class AddRelationshipCommand extends AbstractConceptMapCommand {
 			this.id = r.getId();
 			this.posx = r.getPosx();
 			this.posy = r.getPosy();
+			this.parameters.put("id", this.id);
+			this.parameters.put("posx", this.posx);
+			this.parameters.put("posy", this.posy);
 		}
 		else
 			r = this.cmapview.insertRelationshipAndLabel(id, c, c2, linkingWord, Drawing.LINE, posx, posy);
@@ -0,0 +1,113 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.client.commands;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import com.google.gwt.xml.client.Document;
+import com.google.gwt.xml.client.Element;
+import com.google.gwt.xml.client.NodeList;
+import com.google.gwt.xml.client.XMLParser;
+
+/**
+ * Creates commands from the XML written by
+ * {@link AbstractConceptMapCommand#exportXML(int)}, so a journal of
+ * commands can be replayed.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class CommandFactory {
+
+	/** For logging purposes */
+	private static Logger logger = Logger.getLogger(CommandFactory.class.getName());
+
+	/**
+	 * Creates a command from its name and parameters.
+	 * 
+	 * @param name the command name
+	 * @param parameters the parameters
+	 * @return the command, or null if the name is unknown
+	 */
+	public static AbstractConceptMapCommand create(String name, Map<String, Object> parameters) {
+		if(name.equals("Add concept"))
+			return new AddConceptCommand(parameters);
+		if(name.equals("Add relationship"))
+			return new AddRelationshipCommand(parameters);
+		if(name.equals("Delete concept"))
+			return new DeleteConceptCommand(parameters);
+		if(name.equals("Delete relationship"))
+			return new DeleteRelationshipCommand(parameters);
+		if(name.equals("Move concept"))
+			return new MoveConceptCommand(parameters);
+		if(name.equals("Move relationship"))
+			return new MoveRelationshipCommand(parameters);
+		if(name.equals("Rename concept"))
+			return new RenameConceptCommand(parameters);
+		if(name.equals("Rename relationship"))
+			return new RenameRelationshipCommand(parameters);
+		logger.severe("Unknown command " + name);
+		return null;
+	}
+
+	/**
+	 * Creates a command from its XML, for example:
+	 * 
+	 * {@code
+	 * <command index="3" name="Move concept">
+	 * <parameter key="id" value="2"/>
+	 * <parameter key="posx" value="120"/>
+	 * <parameter key="posy" value="45"/>
+	 * </command>
+	 * }
+	 * 
+	 * Labels and linking words are text, all other parameters are integers.
+	 * 
+	 * @param xml the command XML
+	 * @return the command, or null if it is invalid
+	 */
+	public static AbstractConceptMapCommand readXML(String xml) {
+		try {
+			Document dom = XMLParser.parse(xml);
+			Element command = dom.getDocumentElement();
+			Map<String, Object> parameters = new TreeMap<String, Object>();
+			NodeList parameterList = command.getElementsByTagName("parameter"); //$NON-NLS-1$
+			for(int i=0; i<parameterList.getLength(); i++) {
+				Element parameter = (Element) parameterList.item(i);
+				String key = parameter.getAttribute("key"); //$NON-NLS-1$
+				String value = parameter.getAttribute("value"); //$NON-NLS-1$
+				if(key.equals("label") || key.equals("linkingWord")) //$NON-NLS-1$ //$NON-NLS-2$
+					parameters.put(key, value);
+				else
+					parameters.put(key, Integer.parseInt(value));
+			}
+			return create(command.getAttribute("name"), parameters); //$NON-NLS-1$
+		} catch (Exception e) {
+			e.printStackTrace();
+			logger.severe("Invalid command " + xml);
+			return null;
+		}
+	}
+}
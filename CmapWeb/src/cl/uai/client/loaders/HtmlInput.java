@@ -22,20 +22,31 @@
 */
 package cl.uai.client.loaders;
 
+import cl.uai.client.cmap.ConceptMap;
+import cl.uai.client.cmap.XmlWriter;
+
 import com.google.gwt.dom.client.Element;
+import com.google.gwt.http.client.URL;
 import com.google.gwt.user.client.DOM;
 import com.google.gwt.user.client.rpc.AsyncCallback;
 
 /**
  * Class implementing loading and saving from an HTML input tag (usually hidden).
+ * With full and delta saves the input always holds a full CM, deltas are applied
+ * to a copy of the CM kept by the loader, which is then written to the input.
+ * With journal saves the input holds the journal, and lines are appended to it.
  * 
  * @author Jorge Villalon
  *
  */
-public class HtmlInput implements ReviewLoader {
+public class HtmlInput implements DeltaReviewLoader, JournalReviewLoader {
 
 	/** Name of the HTML input tag to load/save data from */
 	private String inputName;
+	/** The CM as stored in the input, to apply deltas on, null until the first delta */
+	private ConceptMap stored;
+	/** Buffer reused to write the stored CM */
+	private XmlWriter xmlWriter = new XmlWriter();
 	
 	/**
 	 * Default constructor
@@ -99,8 +110,61 @@ public class HtmlInput implements ReviewLoader {
 			return;			
 		}
 		
+		this.stored = null;
 		callback.onSuccess("Data saved");
 	}
+
+	/**
+	 * Appends lines to the journal stored in the input.
+	 */
+	public void appendJournal(final String lines, final AsyncCallback<String> callback) {
+		load(new AsyncCallback<String>() {
+			public void onFailure(Throwable caught) {
+				callback.onFailure(caught);
+			}
+			public void onSuccess(String journal) {
+				if(journal == null || journal.trim().length() == 0)
+					save(lines, callback);
+				else
+					save(journal + "\n" + lines, callback);
+			}
+		});
+	}
+
+	/**
+	 * Applies the changes to the concept map stored in the input.
+	 */
+	public void saveDelta(String delta, final AsyncCallback<String> callback) {
+		if(this.stored == null) {
+			// Loading from the input is synchronous, so the CM is read before continuing
+			final ConceptMap cmap = new ConceptMap();
+			load(new AsyncCallback<String>() {
+				public void onFailure(Throwable caught) {
+					callback.onFailure(caught);
+				}
+				public void onSuccess(String result) {
+					cmap.readXML(result);
+					stored = cmap;
+				}
+			});
+			if(this.stored == null)
+				return;
+		}
+		this.stored.readXML(delta);
+		this.xmlWriter.reset().raw("<?xml version=\"1.0\" ?>");
+		this.stored.exportXML(this.xmlWriter);
+		final ConceptMap cmap = this.stored;
+		save(URL.encode(this.xmlWriter.toString()), new AsyncCallback<String>() {
+			public void onFailure(Throwable caught) {
+				callback.onFailure(caught);
+			}
+			public void onSuccess(String result) {
+				// Saving a full CM forgets the stored one, but it is the same
+				stored = cmap;
+				callback.onSuccess(result);
+			}
+		});
+	}
 	
 	/**
 	 * @param inputName the inputName to set
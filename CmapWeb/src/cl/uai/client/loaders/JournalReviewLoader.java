@@ -0,0 +1,42 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.client.loaders;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * A loader that stores a CM as an append-only journal. Each line of the
+ * journal is URL encoded, and is either a checkpoint with the full CM or an
+ * entry: a command as exported by
+ * {@link cl.uai.client.commands.AbstractConceptMapCommand#exportXML(int)},
+ * an {@code <undo/>} or a {@code <redo/>}. Loading returns the journal, and
+ * the CM is rebuilt replaying the entries after the latest checkpoint.
+ * A CM saved as a single document is a journal with only a checkpoint.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public interface JournalReviewLoader extends ReviewLoader {
+
+	public void appendJournal(String lines, final AsyncCallback<String> callback);
+}
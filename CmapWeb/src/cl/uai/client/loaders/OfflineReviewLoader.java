@@ -0,0 +1,476 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.client.loaders;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import cl.uai.client.CommandJournal;
+import cl.uai.client.cmap.ConceptMap;
+import cl.uai.client.cmap.XmlWriter;
+
+import com.google.gwt.http.client.URL;
+import com.google.gwt.storage.client.Storage;
+import com.google.gwt.user.client.Timer;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * A loader that saves to the browser's local storage first, and then sends
+ * the changes to a remote loader in the background. Saves finish as soon as
+ * they are stored locally, so editing does not wait for the network, and
+ * changes survive a network failure or a crash of the page.
+ * <p>
+ * The local copy of the review uses the format the servlet stores: a full
+ * CM followed by the deltas or journal lines saved after it, one per line,
+ * which is loaded as a journal. Saves that were not confirmed by the remote
+ * loader are kept in an outbox, also when the page is loaded again. While
+ * there are unconfirmed saves the local copy is newer than the remote one,
+ * so it is loaded instead. Once the deltas of the local copy are bigger
+ * than its CM they are folded into it, so each save does not rewrite an
+ * ever growing copy.
+ * <p>
+ * Saves are sent a short time after they are stored, so deltas or journal
+ * entries made in the meantime are sent together. Saves are sent strictly in order,
+ * each once the previous one is confirmed. If sending fails it is retried
+ * with an exponential backoff, and right away when the browser goes back
+ * online, before anything newer is sent.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class OfflineReviewLoader implements DeltaReviewLoader, JournalReviewLoader {
+
+	/** For logging purposes */
+	private static Logger logger = Logger.getLogger(OfflineReviewLoader.class.getName());
+
+	/** Milliseconds after a save before sending it */
+	public static final int SYNC_DELAY = 2000;
+	/** Milliseconds before the first retry, doubled with each retry */
+	public static final int INITIAL_RETRY = 5000;
+	/** Maximum milliseconds between retries */
+	public static final int MAX_RETRY = 120000;
+
+	/** Prefix of the storage items of the loader */
+	private static final String PREFIX = "cmapweb.offline."; //$NON-NLS-1$
+	/** Outbox entry with a full CM */
+	private static final String VALUE = "value"; //$NON-NLS-1$
+	/** Outbox entry with a delta */
+	private static final String DELTA = "delta"; //$NON-NLS-1$
+	/** Outbox entry with journal lines */
+	private static final String JOURNAL = "journal"; //$NON-NLS-1$
+
+	/**
+	 * Creates a loader that stores a review locally before sending it to
+	 * a remote loader.
+	 * 
+	 * @param remote the remote loader
+	 * @param key identifies the review in local storage
+	 * @return the loader, or null if the browser has no local storage
+	 */
+	public static OfflineReviewLoader create(ReviewLoader remote, String key) {
+		Storage storage = Storage.getLocalStorageIfSupported();
+		if(storage == null)
+			return null;
+		return new OfflineReviewLoader(remote, storage, key);
+	}
+
+	/** The loader changes are sent to */
+	private ReviewLoader remote;
+	/** Where the review is stored */
+	private Storage storage;
+	/** Prefix of the storage items of this review */
+	private String prefix;
+	/** Ids of the unconfirmed saves, in order */
+	private List<Integer> outbox;
+	/** Id of the next save */
+	private int nextId;
+	/** If saves were sent and not answered yet */
+	private boolean sending;
+	/** If a save sent failed */
+	private boolean failed;
+	/** Milliseconds before the next retry */
+	private int retryDelay;
+	/** Sends the outbox */
+	private Timer timer;
+	/** If the timer is scheduled */
+	private boolean scheduled;
+	/** Writes folded local copies */
+	private XmlWriter xmlWriter = new XmlWriter();
+
+	/**
+	 * @param remote the loader changes are sent to
+	 * @param storage where the review is stored
+	 * @param key identifies the review in storage
+	 */
+	private OfflineReviewLoader(ReviewLoader remote, Storage storage, String key) {
+		this.remote = remote;
+		this.storage = storage;
+		this.prefix = PREFIX + URL.encodeQueryString(key) + "."; //$NON-NLS-1$
+		this.outbox = new ArrayList<Integer>();
+		this.nextId = 0;
+		this.sending = false;
+		this.failed = false;
+		this.retryDelay = INITIAL_RETRY;
+		this.scheduled = false;
+		this.timer = new Timer() {
+			@Override
+			public void run() {
+				scheduled = false;
+				sync();
+			}
+		};
+
+		String ids = this.storage.getItem(this.prefix + "outbox"); //$NON-NLS-1$
+		if(ids != null && ids.length() > 0) {
+			for(String id : ids.split(" ")) { //$NON-NLS-1$
+				this.outbox.add(Integer.parseInt(id));
+				this.nextId = Integer.parseInt(id) + 1;
+			}
+		}
+		listenOnline();
+	}
+
+	/**
+	 * @return the number of saves not confirmed by the remote loader
+	 */
+	public int getPending() {
+		return outbox.size();
+	}
+
+	/**
+	 * @return the loader changes are sent to
+	 */
+	public ReviewLoader getRemote() {
+		return remote;
+	}
+
+	/**
+	 * Loads the local copy if it has unconfirmed saves, otherwise the remote
+	 * review, which is stored as the local copy. If the remote loader fails
+	 * the local copy is loaded, if there is one.
+	 */
+	public void load(final AsyncCallback<String> callback) {
+		final String copy = this.storage.getItem(this.prefix + "copy"); //$NON-NLS-1$
+		if(copy != null && !this.outbox.isEmpty()) {
+			logger.fine("Loading local copy with " + this.outbox.size() + " unsent saves");
+			callback.onSuccess(copy);
+			schedule(0);
+			return;
+		}
+		this.remote.load(new AsyncCallback<String>() {
+			public void onFailure(Throwable caught) {
+				if(copy == null) {
+					callback.onFailure(caught);
+					return;
+				}
+				logger.warning("Loading local copy, remote failed " + caught.getMessage());
+				callback.onSuccess(copy);
+			}
+			public void onSuccess(String result) {
+				try {
+					storage.setItem(prefix + "copy", result == null ? "" : result); //$NON-NLS-1$ //$NON-NLS-2$
+				} catch (Exception e) {
+					logger.warning("Could not store the local copy " + e.getMessage());
+				}
+				callback.onSuccess(result);
+			}
+		});
+	}
+
+	/**
+	 * Stores a full CM, which replaces the unsent saves.
+	 */
+	public void save(String xml, AsyncCallback<String> callback) {
+		store(VALUE, xml, xml, callback);
+	}
+
+	/**
+	 * Stores a delta, appended to the local copy.
+	 */
+	public void saveDelta(String delta, AsyncCallback<String> callback) {
+		store(DELTA, delta, fold(append(delta)), callback);
+	}
+
+	/**
+	 * Stores journal lines, appended to the local copy.
+	 */
+	public void appendJournal(String lines, AsyncCallback<String> callback) {
+		store(JOURNAL, lines, append(lines), callback);
+	}
+
+	/**
+	 * @param lines lines to append to the local copy
+	 * @return the local copy with the lines, starting at the latest checkpoint
+	 */
+	private String append(String lines) {
+		// Lines before a checkpoint are not needed to load the CM
+		int start = lines.length();
+		while(start > 0) {
+			int newline = lines.lastIndexOf('\n', start - 1);
+			String line = lines.substring(newline + 1, start).trim();
+			if(line.length() > 0 && !CommandJournal.isEntry(line))
+				return lines.substring(newline + 1);
+			start = Math.max(newline, 0);
+		}
+		String copy = this.storage.getItem(this.prefix + "copy"); //$NON-NLS-1$
+		if(copy == null || copy.trim().length() == 0)
+			return lines;
+		return copy + "\n" + lines; //$NON-NLS-1$
+	}
+
+	/**
+	 * Applies the deltas of a local copy to its CM, once they are bigger
+	 * than the CM. Copies with journal commands are kept as they are, as
+	 * only the viewer can replay them.
+	 * 
+	 * @param copy the local copy
+	 * @return the copy as a single CM, or the copy if it is not folded
+	 */
+	private String fold(String copy) {
+		int newline = copy.indexOf('\n');
+		if(newline < 0 || copy.length() - newline < newline)
+			return copy;
+		ConceptMap cmap = new ConceptMap();
+		int start = 0;
+		while(start < copy.length()) {
+			int end = copy.indexOf('\n', start);
+			if(end < 0)
+				end = copy.length();
+			String line = copy.substring(start, end).trim();
+			start = end + 1;
+			if(line.length() == 0)
+				continue;
+			if(CommandJournal.isEntry(line) && !CommandJournal.isDelta(line))
+				return copy;
+			cmap.readXML(line);
+		}
+		this.xmlWriter.reset().raw("<?xml version=\"1.0\" ?>");
+		cmap.exportXML(this.xmlWriter);
+		return URL.encode(this.xmlWriter.toString());
+	}
+
+	/**
+	 * Stores a save in the outbox and the new local copy, and schedules
+	 * sending it. The save finishes when it is stored.
+	 * 
+	 * @param field the kind of save
+	 * @param value the data saved
+	 * @param copy the local copy after the save
+	 * @param callback called when the save is stored
+	 */
+	private void store(String field, String value, String copy, AsyncCallback<String> callback) {
+		List<Integer> replaced = new ArrayList<Integer>();
+		if(field.equals(VALUE)) {
+			// A full CM contains all previous saves
+			replaced.addAll(this.outbox);
+		}
+		int id = this.nextId++;
+		try {
+			this.storage.setItem(this.prefix + id, field + "\n" + value); //$NON-NLS-1$
+			this.storage.setItem(this.prefix + "copy", copy); //$NON-NLS-1$
+			this.outbox.removeAll(replaced);
+			this.outbox.add(id);
+			writeOutbox();
+		} catch (Exception e) {
+			this.storage.removeItem(this.prefix + id);
+			logger.severe("Could not store review locally " + e.getMessage());
+			callback.onFailure(new Throwable(e));
+			return;
+		}
+		for(int old : replaced)
+			this.storage.removeItem(this.prefix + old);
+		callback.onSuccess("Saved locally");
+		if(!this.failed)
+			schedule(SYNC_DELAY);
+	}
+
+	/**
+	 * Sends the oldest saves of the outbox to the remote loader, if nothing is
+	 * being sent. Consecutive deltas, or journal entries, are sent as one. The next saves
+	 * are sent once these are confirmed, so the remote loader receives them
+	 * strictly in order, and nothing is sent after a save that failed until
+	 * it is sent again.
+	 */
+	private void sync() {
+		if(this.sending || this.outbox.isEmpty())
+			return;
+		if(!isOnline()) {
+			// Sent when the browser goes back online
+			logger.fine("Offline, " + this.outbox.size() + " saves waiting");
+			return;
+		}
+
+		this.failed = false;
+		List<Integer> ids = new ArrayList<Integer>(this.outbox);
+		List<Integer> lines = new ArrayList<Integer>();
+		StringBuilder batch = new StringBuilder();
+		String batchField = null;
+		for(int id : ids) {
+			String entry = this.storage.getItem(this.prefix + id);
+			int newline = entry == null ? -1 : entry.indexOf('\n');
+			if(newline < 0) {
+				logger.severe("Lost local save " + id);
+				confirm(id);
+				continue;
+			}
+			String field = entry.substring(0, newline);
+			String value = entry.substring(newline + 1);
+			if(field.equals(VALUE)) {
+				if(lines.isEmpty()) {
+					lines.add(id);
+					send(field, value, lines);
+					return;
+				}
+				break;
+			}
+			if(batchField != null && !field.equals(batchField))
+				break;
+			batchField = field;
+			if(batch.length() > 0)
+				batch.append('\n');
+			batch.append(value);
+			lines.add(id);
+		}
+		if(!lines.isEmpty())
+			send(batchField, batch.toString(), lines);
+	}
+
+	/**
+	 * Sends saves to the remote loader. Remote loaders that can not save deltas
+	 * or journals receive the whole local copy instead.
+	 * 
+	 * @param field the kind of save
+	 * @param value the data
+	 * @param ids the saves sent
+	 */
+	private void send(String field, String value, final List<Integer> ids) {
+		this.sending = true;
+		AsyncCallback<String> callback = new AsyncCallback<String>() {
+			public void onFailure(Throwable caught) {
+				logger.warning("Sending saves failed " + caught.getMessage());
+				failed = true;
+				sent();
+			}
+			public void onSuccess(String result) {
+				for(int id : ids)
+					confirm(id);
+				sent();
+			}
+		};
+		if(field.equals(DELTA) && this.remote instanceof DeltaReviewLoader)
+			((DeltaReviewLoader) this.remote).saveDelta(value, callback);
+		else if(field.equals(JOURNAL) && this.remote instanceof JournalReviewLoader)
+			((JournalReviewLoader) this.remote).appendJournal(value, callback);
+		else if(field.equals(VALUE))
+			this.remote.save(value, callback);
+		else
+			this.remote.save(this.storage.getItem(this.prefix + "copy"), callback); //$NON-NLS-1$
+	}
+
+	/**
+	 * Called when the remote loader answers a save, sends the next saves
+	 * in the outbox, or schedules a retry if the save failed.
+	 */
+	private void sent() {
+		this.sending = false;
+		if(this.failed) {
+			logger.fine("Retrying in " + this.retryDelay + " ms");
+			schedule(this.retryDelay);
+			this.retryDelay = Math.min(this.retryDelay * 2, MAX_RETRY);
+		} else {
+			this.retryDelay = INITIAL_RETRY;
+			sync();
+		}
+	}
+
+	/**
+	 * Removes a save confirmed by the remote loader from the outbox.
+	 * 
+	 * @param id the save id
+	 */
+	private void confirm(int id) {
+		if(!this.outbox.remove(Integer.valueOf(id)))
+			return;
+		this.storage.removeItem(this.prefix + id);
+		writeOutbox();
+	}
+
+	/**
+	 * Schedules sending the outbox, unless it is already scheduled.
+	 * 
+	 * @param delay milliseconds before sending
+	 */
+	private void schedule(int delay) {
+		if(this.scheduled)
+			return;
+		this.scheduled = true;
+		if(delay > 0)
+			this.timer.schedule(delay);
+		else
+			this.timer.schedule(1);
+	}
+
+	/**
+	 * Sends the outbox right away, called when the browser goes back online.
+	 */
+	private void online() {
+		logger.fine("Back online");
+		this.retryDelay = INITIAL_RETRY;
+		this.timer.cancel();
+		this.scheduled = false;
+		sync();
+	}
+
+	/**
+	 * Saves the ids of the outbox in storage.
+	 */
+	private void writeOutbox() {
+		StringBuilder ids = new StringBuilder();
+		for(int id : this.outbox) {
+			if(ids.length() > 0)
+				ids.append(' ');
+			ids.append(id);
+		}
+		this.storage.setItem(this.prefix + "outbox", ids.toString()); //$NON-NLS-1$
+	}
+
+	/**
+	 * @return false if the browser knows it is offline
+	 */
+	private native boolean isOnline() /*-{
+		return $wnd.navigator.onLine !== false;
+	}-*/;
+
+	/**
+	 * Listens to the browser going back online.
+	 */
+	private native void listenOnline() /*-{
+		var loader = this;
+		var handler = $entry(function() {
+			loader.@cl.uai.client.loaders.OfflineReviewLoader::online()();
+		});
+		if($wnd.addEventListener)
+			$wnd.addEventListener('online', handler, false);
+	}-*/;
+}
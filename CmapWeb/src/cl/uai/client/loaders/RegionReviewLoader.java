@@ -0,0 +1,48 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.client.loaders;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * A loader that can load a region of a CM, so the viewer shows the
+ * elements it displays first, and loads the rest as they are scrolled
+ * into view. A region is a URL encoded XML CM with:
+ * <ul>
+ * <li>the concepts positioned inside the box</li>
+ * <li>the relationships from or to those concepts, or positioned inside
+ * the box, and the concepts at their ends</li>
+ * </ul>
+ * Its conceptmap element has the size of the whole CM, as width and
+ * height, and the next ids for new concepts and relationships, as
+ * conceptIdSequence and relationshipIdSequence. As the viewer only has
+ * part of the CM, it must be saved with
+ * {@link DeltaReviewLoader#saveDelta(String, AsyncCallback)}.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public interface RegionReviewLoader extends DeltaReviewLoader {
+
+	public void loadRegion(int x, int y, int width, int height, final AsyncCallback<String> callback);
+}
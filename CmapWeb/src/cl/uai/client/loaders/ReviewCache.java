@@ -0,0 +1,276 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.client.loaders;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.google.gwt.http.client.URL;
+import com.google.gwt.storage.client.Storage;
+
+/**
+ * A cache of loaded reviews in the browser's local storage, so a review
+ * that did not change since it was last loaded is not downloaded again.
+ * Each review is stored with the ETag and Last-Modified headers the
+ * servlet sent with it, to validate it with a conditional GET.
+ * <p>
+ * The cache holds at most {@link #MAX_ENTRIES} reviews and
+ * {@link #MAX_SIZE} characters. When it is full, or the browser's quota is
+ * exceeded, the least recently used reviews are removed. The order of use
+ * is kept in an index item, one line per review with its encoded key and
+ * size, from the least to the most recently used.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class ReviewCache {
+
+	/** For logging purposes */
+	private static Logger logger = Logger.getLogger(ReviewCache.class.getName());
+
+	/** Maximum number of cached reviews */
+	public static final int MAX_ENTRIES = 32;
+	/** Maximum characters of all cached reviews */
+	public static final int MAX_SIZE = 1000000;
+
+	/** Prefix of the storage items of the cache */
+	private static final String PREFIX = "cmapweb.review."; //$NON-NLS-1$
+	/** Storage item with the order of use of the reviews */
+	private static final String INDEX = "cmapweb.reviews"; //$NON-NLS-1$
+
+	/**
+	 * A cached review.
+	 */
+	public static class Entry {
+		private String etag;
+		private String lastModified;
+		private String text;
+
+		private Entry(String etag, String lastModified, String text) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.text = text;
+		}
+
+		/**
+		 * @return the ETag of the review, or null
+		 */
+		public String getEtag() {
+			return etag;
+		}
+
+		/**
+		 * @return the Last-Modified date of the review, or null
+		 */
+		public String getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return the review
+		 */
+		public String getText() {
+			return text;
+		}
+	}
+
+	/**
+	 * Creates a cache in the local storage of the browser.
+	 * 
+	 * @return the cache, or null if the browser has no local storage
+	 */
+	public static ReviewCache create() {
+		Storage storage = Storage.getLocalStorageIfSupported();
+		if(storage == null)
+			return null;
+		return new ReviewCache(storage);
+	}
+
+	/** Where reviews are stored */
+	private Storage storage;
+	/** Encoded keys of the reviews, from least to most recently used */
+	private List<String> keys;
+	/** Sizes of the reviews, in the same order */
+	private List<Integer> sizes;
+
+	/**
+	 * @param storage where reviews are stored
+	 */
+	private ReviewCache(Storage storage) {
+		this.storage = storage;
+		this.keys = new ArrayList<String>();
+		this.sizes = new ArrayList<Integer>();
+		readIndex();
+	}
+
+	/**
+	 * Gets a review from the cache, making it the most recently used.
+	 * 
+	 * @param key the review key
+	 * @return the review, or null if it is not in the cache
+	 */
+	public Entry get(String key) {
+		String encoded = URL.encodeQueryString(key);
+		int position = this.keys.indexOf(encoded);
+		if(position < 0)
+			return null;
+
+		String item = this.storage.getItem(PREFIX + encoded);
+		int etagEnd = item == null ? -1 : item.indexOf('\n');
+		int dateEnd = etagEnd < 0 ? -1 : item.indexOf('\n', etagEnd + 1);
+		if(dateEnd < 0) {
+			// The item was removed or corrupted outside the cache
+			remove(position);
+			writeIndex();
+			return null;
+		}
+
+		this.keys.add(this.keys.remove(position));
+		this.sizes.add(this.sizes.remove(position));
+		writeIndex();
+
+		String etag = item.substring(0, etagEnd);
+		String lastModified = item.substring(etagEnd + 1, dateEnd);
+		return new Entry(
+				etag.length() == 0 ? null : etag,
+				lastModified.length() == 0 ? null : lastModified,
+				item.substring(dateEnd + 1));
+	}
+
+	/**
+	 * Stores a review as the most recently used, removing the least
+	 * recently used reviews if there is no room. Reviews without ETag nor
+	 * Last-Modified can not be validated and are not stored.
+	 * 
+	 * @param key the review key
+	 * @param etag the ETag header, or null
+	 * @param lastModified the Last-Modified header, or null
+	 * @param text the review
+	 */
+	public void put(String key, String etag, String lastModified, String text) {
+		String encoded = URL.encodeQueryString(key);
+		int position = this.keys.indexOf(encoded);
+		if(position >= 0)
+			remove(position);
+
+		if((etag == null || etag.length() == 0) && (lastModified == null || lastModified.length() == 0)
+				|| text.length() > MAX_SIZE) {
+			writeIndex();
+			return;
+		}
+
+		while(this.keys.size() >= MAX_ENTRIES || size() + text.length() > MAX_SIZE)
+			remove(0);
+
+		String item = (etag == null ? "" : etag) + "\n" //$NON-NLS-1$ //$NON-NLS-2$
+				+ (lastModified == null ? "" : lastModified) + "\n" + text; //$NON-NLS-1$ //$NON-NLS-2$
+		while(true) {
+			try {
+				this.storage.setItem(PREFIX + encoded, item);
+				break;
+			} catch (Exception e) {
+				// Quota exceeded, make room with the least recently used
+				if(this.keys.isEmpty()) {
+					logger.warning("Review too large for the cache " + key);
+					writeIndex();
+					return;
+				}
+				remove(0);
+			}
+		}
+		this.keys.add(encoded);
+		this.sizes.add(text.length());
+		writeIndex();
+	}
+
+	/**
+	 * Removes a review from the cache.
+	 * 
+	 * @param key the review key
+	 */
+	public void remove(String key) {
+		int position = this.keys.indexOf(URL.encodeQueryString(key));
+		if(position < 0)
+			return;
+		remove(position);
+		writeIndex();
+	}
+
+	/**
+	 * Removes a review from storage and the index, without saving the index.
+	 * 
+	 * @param position the position of the review in the index
+	 */
+	private void remove(int position) {
+		this.storage.removeItem(PREFIX + this.keys.remove(position));
+		this.sizes.remove(position);
+	}
+
+	/**
+	 * @return the characters of all cached reviews
+	 */
+	private int size() {
+		int size = 0;
+		for(int s : this.sizes)
+			size += s;
+		return size;
+	}
+
+	/**
+	 * Reads the order of use of the reviews from storage.
+	 */
+	private void readIndex() {
+		String index = this.storage.getItem(INDEX);
+		if(index == null || index.length() == 0)
+			return;
+		for(String line : index.split("\n")) { //$NON-NLS-1$
+			int space = line.indexOf(' ');
+			if(space < 0)
+				continue;
+			try {
+				this.sizes.add(Integer.parseInt(line.substring(space + 1)));
+				this.keys.add(line.substring(0, space));
+			} catch (NumberFormatException e) {
+				logger.warning("Invalid review cache entry " + line);
+			}
+		}
+	}
+
+	/**
+	 * Saves the order of use of the reviews in storage.
+	 */
+	private void writeIndex() {
+		StringBuilder index = new StringBuilder();
+		for(int i = 0; i < this.keys.size(); i++) {
+			if(i > 0)
+				index.append('\n');
+			index.append(this.keys.get(i)).append(' ').append(this.sizes.get(i));
+		}
+		try {
+			this.storage.setItem(INDEX, index.toString());
+		} catch (Exception e) {
+			logger.severe("Could not save the review cache index " + e.getMessage());
+		}
+	}
+}
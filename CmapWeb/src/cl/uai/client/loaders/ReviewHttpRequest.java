@@ -33,12 +33,17 @@ import com.google.gwt.http.client.URL;
 import com.google.gwt.user.client.rpc.AsyncCallback;
 
 /**
- * Class implementing load/save using HttpRequests
+ * Class implementing load/save using HttpRequests. Full CMs are posted
+ * as review_value, deltas as review_delta and journal lines to append
+ * as review_journal, through a {@link ReviewTransport}. Loaded reviews are
+ * kept in a {@link ReviewCache} and validated with a conditional GET.
+ * Regions of a review are requested with a bounding box, as x, y, width
+ * and height parameters.
  * 
  * @author Jorge Villalon
  *
  */
-public class ReviewHttpRequest implements ReviewLoader {
+public class ReviewHttpRequest implements RegionReviewLoader, JournalReviewLoader {
 
 	private static Logger logger = Logger.getLogger(ReviewHttpRequest.class.getName());
 
@@ -46,6 +51,8 @@ public class ReviewHttpRequest implements ReviewLoader {
 	private String documentId;
 	private String reviewAuthor;
 	private String reviewName;
+	/** Posts review data in order, retrying failed requests */
+	private ReviewTransport transport;
 
 	/**
 	 * 
@@ -103,11 +110,22 @@ public class ReviewHttpRequest implements ReviewLoader {
 	public void load(final AsyncCallback<String> callback) {
 
 		String url = this.urlTmlServlet + 
-			"?document=" + this.documentId + 
-			"&review_author=" + this.reviewAuthor + 
-			"&review_name=" + this.reviewName;
+			"?document=" + URL.encodeQueryString(this.documentId) + 
+			"&review_author=" + URL.encodeQueryString(this.reviewAuthor) + 
+			"&review_name=" + URL.encodeQueryString(this.reviewName);
 		RequestBuilder request = new RequestBuilder(RequestBuilder.GET, url);
 
+		// A cached review is validated with a conditional GET
+		final ReviewCache cache = ReviewCache.create();
+		final String key = this.urlTmlServlet + "|" + this.documentId + "|" + this.reviewAuthor + "|" + this.reviewName; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		final ReviewCache.Entry cached = cache == null ? null : cache.get(key);
+		if(cached != null) {
+			if(cached.getEtag() != null)
+				request.setHeader("If-None-Match", cached.getEtag()); //$NON-NLS-1$
+			if(cached.getLastModified() != null)
+				request.setHeader("If-Modified-Since", cached.getLastModified()); //$NON-NLS-1$
+		}
+
 		try {
 			request.sendRequest(null, new RequestCallback() {			
 				public void onError(Request request, Throwable exception) {
@@ -115,11 +133,18 @@ public class ReviewHttpRequest implements ReviewLoader {
 					callback.onFailure(new Throwable(exception));
 				}			
 				public void onResponseReceived(Request request, Response response) {
+					if(response.getStatusCode()==Response.SC_NOT_MODIFIED && cached != null) {
+						logger.fine("Review not modified, using cached copy");
+						callback.onSuccess(cached.getText());
+						return;
+					}
 					if(response.getStatusCode()!=200) {
 						logger.severe("Server returned an error " + response.getStatusCode());
 						callback.onFailure(new Throwable("Server returned an error " + response.getStatusCode()));
 						return;
 					}
+					if(cache != null)
+						cache.put(key, response.getHeader("ETag"), response.getHeader("Last-Modified"), response.getText()); //$NON-NLS-1$ //$NON-NLS-2$
 					callback.onSuccess(response.getText());
 				}
 			});
@@ -130,33 +155,76 @@ public class ReviewHttpRequest implements ReviewLoader {
 	}
 
 	/* (non-Javadoc)
-	 * @see cl.uai.client.loaders.ReviewLoader#save(java.lang.String)
+	 * @see cl.uai.client.loaders.RegionReviewLoader#loadRegion(int, int, int, int)
 	 */
-	public void save(String xml, final AsyncCallback<String> callback) {
-		RequestBuilder request = new RequestBuilder(RequestBuilder.POST, this.urlTmlServlet);
-		request.setHeader("Content-type", "application/x-www-form-urlencoded");
-		String data = "review_author=" + this.reviewAuthor + 
-		"&review_name=" + this.reviewName
-		+ "&document_id=" + this.documentId + "&review_value=" + URL.encode(xml);
+	public void loadRegion(int x, int y, int width, int height, final AsyncCallback<String> callback) {
+
+		String url = this.urlTmlServlet + 
+			"?document=" + URL.encodeQueryString(this.documentId) + 
+			"&review_author=" + URL.encodeQueryString(this.reviewAuthor) + 
+			"&review_name=" + URL.encodeQueryString(this.reviewName) +
+			"&x=" + x + "&y=" + y + "&width=" + width + "&height=" + height;
+		RequestBuilder request = new RequestBuilder(RequestBuilder.GET, url);
+
 		try {
-			request.sendRequest(data, new RequestCallback() {			
+			request.sendRequest(null, new RequestCallback() {			
 				public void onError(Request request, Throwable exception) {
-					exception.printStackTrace();
-					callback.onFailure(new Throwable("Error trying to save review data!"));
+					logger.severe(exception.getMessage());
+					callback.onFailure(new Throwable(exception));
 				}			
 				public void onResponseReceived(Request request, Response response) {
 					if(response.getStatusCode()!=200) {
+						logger.severe("Server returned an error " + response.getStatusCode());
 						callback.onFailure(new Throwable("Server returned an error " + response.getStatusCode()));
 						return;
 					}
-					callback.onSuccess("Saved!");
+					callback.onSuccess(response.getText());
 				}
 			});
 		} catch (RequestException e) {
-			e.printStackTrace();
-			callback.onFailure(e);
+			logger.severe(e.getMessage());
+			callback.onFailure(new Throwable(e));
 		}
 	}
+
+	/* (non-Javadoc)
+	 * @see cl.uai.client.loaders.ReviewLoader#save(java.lang.String)
+	 */
+	public void save(String xml, final AsyncCallback<String> callback) {
+		post("review_value", xml, callback);
+	}
+
+	/* (non-Javadoc)
+	 * @see cl.uai.client.loaders.DeltaReviewLoader#saveDelta(java.lang.String)
+	 */
+	public void saveDelta(String delta, final AsyncCallback<String> callback) {
+		post("review_delta", delta, callback);
+	}
+
+	/* (non-Javadoc)
+	 * @see cl.uai.client.loaders.JournalReviewLoader#appendJournal(java.lang.String)
+	 */
+	public void appendJournal(String lines, final AsyncCallback<String> callback) {
+		post("review_journal", lines, callback);
+	}
+
+	/**
+	 * Posts review data to the servlet. Fields are sent through the
+	 * transport, which orders, batches and retries them.
+	 * 
+	 * @param field the form field for the data
+	 * @param value the data
+	 * @param callback called when the servlet answers
+	 */
+	private void post(String field, String value, final AsyncCallback<String> callback) {
+		if(this.transport == null || !this.transport.getUrl().equals(this.urlTmlServlet))
+			this.transport = new ReviewTransport(this.urlTmlServlet);
+		String form = "review_author=" + URL.encodeQueryString(this.reviewAuthor) + 
+		"&review_name=" + URL.encodeQueryString(this.reviewName)
+		+ "&document_id=" + URL.encodeQueryString(this.documentId);
+		this.transport.post(form, field, value, callback);
+	}
+
 	/**
 	 * @param reviewAuthor the author to set
 	 */
@@ -0,0 +1,281 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.client.loaders;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.google.gwt.http.client.Request;
+import com.google.gwt.http.client.RequestBuilder;
+import com.google.gwt.http.client.RequestCallback;
+import com.google.gwt.http.client.RequestException;
+import com.google.gwt.http.client.Response;
+import com.google.gwt.http.client.URL;
+import com.google.gwt.user.client.Random;
+import com.google.gwt.user.client.Timer;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * Posts review data to a servlet in order, one request at a time. Data
+ * posted while a request is in flight waits and is sent with the next
+ * request, so several deltas or journal lines go out in a single POST.
+ * A full CM replaces any full CM or delta still waiting, as it already
+ * contains their changes.
+ * <p>
+ * Every request carries a session id (random per page load) and a
+ * sequence number, as review_session and review_seq. Requests that fail
+ * with a network error, a timeout or a 5xx status are sent again with the
+ * same sequence number after an exponential backoff, so the servlet can
+ * ignore a retry it already applied, and an older request can never be
+ * applied after a newer one.
+ * <p>
+ * When a request fails for good, the deltas and journal lines waiting
+ * behind it fail with it, as they were made on top of its data, up to the
+ * first full CM waiting. Failures are told from the latest post back, so
+ * each post can restore its changes before those of the posts after it.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class ReviewTransport {
+
+	/** For logging purposes */
+	private static Logger logger = Logger.getLogger(ReviewTransport.class.getName());
+
+	/** Times a request is sent before failing */
+	public static final int MAX_ATTEMPTS = 6;
+	/** Milliseconds before the first retry, doubled with each retry */
+	public static final int INITIAL_BACKOFF = 500;
+	/** Maximum milliseconds between retries */
+	public static final int MAX_BACKOFF = 16000;
+	/** Milliseconds before a request in flight is considered failed */
+	public static final int TIMEOUT = 20000;
+
+	/** Form field for full CMs, which replace waiting full CMs and deltas */
+	private static final String VALUE_FIELD = "review_value"; //$NON-NLS-1$
+	/** Form field for deltas */
+	private static final String DELTA_FIELD = "review_delta"; //$NON-NLS-1$
+
+	/**
+	 * A form field to post, and whom to tell when it is saved.
+	 */
+	private static class Post {
+		private String field;
+		private String value;
+		private List<AsyncCallback<String>> callbacks = new ArrayList<AsyncCallback<String>>();
+	}
+
+	/** The servlet URL */
+	private String url;
+	/** The form fields that identify the review, URL encoded */
+	private String form;
+	/** Identifies the page load in the servlet */
+	private String session;
+	/** Sequence number of the last request */
+	private int sequence = 0;
+	/** Posts waiting for the next request */
+	private List<Post> waiting = new ArrayList<Post>();
+	/** Posts in the request in flight, or waiting to be retried */
+	private List<Post> sending = null;
+	/** Form data of the request in flight */
+	private String sendingData;
+	/** Times the request in flight was sent */
+	private int attempts;
+	/** Sends the request in flight again */
+	private Timer retryTimer = new Timer() {
+		@Override
+		public void run() {
+			send();
+		}
+	};
+	/** If the request in flight is waiting to be retried */
+	private boolean retryScheduled = false;
+
+	/**
+	 * Creates a transport for a servlet.
+	 * 
+	 * @param url the servlet URL
+	 */
+	public ReviewTransport(String url) {
+		this.url = url;
+		this.session = Integer.toString(Random.nextInt(Integer.MAX_VALUE), 36)
+				+ Integer.toString(Random.nextInt(Integer.MAX_VALUE), 36);
+	}
+
+	/**
+	 * @return the servlet URL
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Posts a form field with review data.
+	 * 
+	 * @param form the form fields that identify the review, URL encoded
+	 * @param field the form field for the data
+	 * @param value the data
+	 * @param callback called when the data is saved or the request fails
+	 */
+	public void post(String form, String field, String value, AsyncCallback<String> callback) {
+		Post post = new Post();
+		post.field = field;
+		post.value = value;
+		post.callbacks.add(callback);
+		this.form = form;
+
+		if(field.equals(VALUE_FIELD)) {
+			// A request waiting to be retried is superseded too
+			if(this.sending != null && this.retryScheduled && supersedes(this.sending)) {
+				this.retryTimer.cancel();
+				this.retryScheduled = false;
+				this.waiting.addAll(0, this.sending);
+				this.sending = null;
+			}
+			for(int i=this.waiting.size()-1; i>=0; i--) {
+				Post old = this.waiting.get(i);
+				if(old.field.equals(VALUE_FIELD) || old.field.equals(DELTA_FIELD)) {
+					post.callbacks.addAll(0, old.callbacks);
+					this.waiting.remove(i);
+				}
+			}
+		}
+		this.waiting.add(post);
+
+		if(this.sending == null)
+			next();
+	}
+
+	/**
+	 * @param posts the posts of a request
+	 * @return if a full CM replaces all of them
+	 */
+	private static boolean supersedes(List<Post> posts) {
+		for(Post post : posts) {
+			if(!post.field.equals(VALUE_FIELD) && !post.field.equals(DELTA_FIELD))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Sends all waiting posts in a new request.
+	 */
+	private void next() {
+		if(this.waiting.isEmpty())
+			return;
+		this.sending = this.waiting;
+		this.waiting = new ArrayList<Post>();
+		this.sequence++;
+		StringBuilder data = new StringBuilder(this.form);
+		data.append("&review_session=").append(this.session); //$NON-NLS-1$
+		data.append("&review_seq=").append(this.sequence); //$NON-NLS-1$
+		for(Post post : this.sending) {
+			data.append('&').append(post.field).append('=').append(URL.encodeQueryString(post.value));
+		}
+		this.sendingData = data.toString();
+		this.attempts = 0;
+		send();
+	}
+
+	/**
+	 * Sends (or sends again) the request in flight.
+	 */
+	private void send() {
+		this.retryScheduled = false;
+		this.attempts++;
+		RequestBuilder request = new RequestBuilder(RequestBuilder.POST, this.url);
+		request.setHeader("Content-type", "application/x-www-form-urlencoded");
+		request.setTimeoutMillis(TIMEOUT);
+		try {
+			request.sendRequest(this.sendingData, new RequestCallback() {
+				public void onError(Request request, Throwable exception) {
+					retry(exception.getMessage());
+				}
+				public void onResponseReceived(Request request, Response response) {
+					int status = response.getStatusCode();
+					if(status == 200) {
+						finish(null);
+					} else if(status == 0 || status >= 500) {
+						retry("Server returned an error " + status);
+					} else {
+						finish(new Throwable("Server returned an error " + status));
+					}
+				}
+			});
+		} catch (RequestException e) {
+			retry(e.getMessage());
+		}
+	}
+
+	/**
+	 * Schedules the request in flight to be sent again, or fails it after
+	 * too many attempts.
+	 * 
+	 * @param error the reason of the failure
+	 */
+	private void retry(String error) {
+		logger.warning("Error saving review data (attempt " + this.attempts + "): " + error);
+		if(this.attempts >= MAX_ATTEMPTS) {
+			finish(new Throwable("Error trying to save review data! " + error));
+			return;
+		}
+		int backoff = Math.min(MAX_BACKOFF, INITIAL_BACKOFF << (this.attempts - 1));
+		// Jitter avoids a whole classroom retrying at once
+		backoff += Random.nextInt(backoff / 2 + 1);
+		this.retryScheduled = true;
+		this.retryTimer.schedule(backoff);
+	}
+
+	/**
+	 * Finishes the request in flight, notifying its callbacks, and sends the
+	 * posts that were waiting. If it failed, the posts that depend on it
+	 * fail too.
+	 * 
+	 * @param failure the reason of the failure, null if the request succeeded
+	 */
+	private void finish(Throwable failure) {
+		List<Post> sent = this.sending;
+		this.sending = null;
+		this.sendingData = null;
+		if(failure == null) {
+			for(Post post : sent) {
+				for(AsyncCallback<String> callback : post.callbacks)
+					callback.onSuccess("Saved!");
+			}
+		} else {
+			// A full CM does not depend on what was posted before it
+			while(!this.waiting.isEmpty() && !this.waiting.get(0).field.equals(VALUE_FIELD))
+				sent.add(this.waiting.remove(0));
+			for(int i=sent.size()-1; i>=0; i--) {
+				List<AsyncCallback<String>> callbacks = sent.get(i).callbacks;
+				for(int j=callbacks.size()-1; j>=0; j--)
+					callbacks.get(j).onFailure(failure);
+			}
+		}
+		// A callback may have posted again already
+		if(this.sending == null)
+			next();
+	}
+}
@@ -48,7 +48,10 @@ public interface Messages extends ConstantsWithLookup {
 	public String Redo();
 	public String RenameConcept();
 	public String Save();
+	public String Saved();
+	public String Saving();
 	public String Undo();
+	public String UnsavedChanges();
 	public String Untitled();
 	public String getString(String key);
 }
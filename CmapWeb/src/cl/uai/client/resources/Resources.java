@@ -24,9 +24,17 @@ package cl.uai.client.resources;
 
 import com.google.gwt.core.client.GWT;
 import com.google.gwt.resources.client.ClientBundle;
+import com.google.gwt.resources.client.CssResource;
+import com.google.gwt.resources.client.DataResource;
 import com.google.gwt.resources.client.ImageResource;
+import com.google.gwt.resources.client.ImageResource.ImageOptions;
+import com.google.gwt.resources.client.ImageResource.RepeatStyle;
 
 /**
+ * The images and styles of the interface. They are compiled into the
+ * application with content hashed names, so browsers can cache them
+ * forever: the label borders are a sprite and the cursors are files.
+ * 
  * @author Jorge Villalon
  *
  */
@@ -59,4 +67,84 @@ public interface Resources extends ClientBundle {
 
 	@Source("delete.png")
 	ImageResource delete();
+
+	/**
+	 * Styles of labels and cursors, their class names are not obfuscated
+	 * as they are used in the labels HTML.
+	 */
+	public interface Style extends CssResource {
+	}
+
+	@Source("cmapweb.css")
+	Style css();
+
+	@Source("addconcept.cur")
+	@DataResource.DoNotEmbed
+	@DataResource.MimeType("image/x-icon")
+	DataResource addconceptcursor();
+
+	@Source("addrelationship.cur")
+	@DataResource.DoNotEmbed
+	@DataResource.MimeType("image/x-icon")
+	DataResource addrelationshipcursor();
+
+	// Borders of relationship labels
+
+	@Source("tl.gif")
+	ImageResource relationshipTopLeft();
+
+	@Source("top.gif")
+	@ImageOptions(repeatStyle = RepeatStyle.Horizontal)
+	ImageResource relationshipTop();
+
+	@Source("tr.gif")
+	ImageResource relationshipTopRight();
+
+	@Source("left.gif")
+	@ImageOptions(repeatStyle = RepeatStyle.Vertical)
+	ImageResource relationshipLeft();
+
+	@Source("right.gif")
+	@ImageOptions(repeatStyle = RepeatStyle.Vertical)
+	ImageResource relationshipRight();
+
+	@Source("bl.gif")
+	ImageResource relationshipBottomLeft();
+
+	@Source("bottom.gif")
+	@ImageOptions(repeatStyle = RepeatStyle.Horizontal)
+	ImageResource relationshipBottom();
+
+	@Source("br.gif")
+	ImageResource relationshipBottomRight();
+
+	// Borders of concept labels
+
+	@Source("tl2.gif")
+	ImageResource conceptTopLeft();
+
+	@Source("top2.gif")
+	@ImageOptions(repeatStyle = RepeatStyle.Horizontal)
+	ImageResource conceptTop();
+
+	@Source("tr2.gif")
+	ImageResource conceptTopRight();
+
+	@Source("left2.gif")
+	@ImageOptions(repeatStyle = RepeatStyle.Vertical)
+	ImageResource conceptLeft();
+
+	@Source("right2.gif")
+	@ImageOptions(repeatStyle = RepeatStyle.Vertical)
+	ImageResource conceptRight();
+
+	@Source("bl2.gif")
+	ImageResource conceptBottomLeft();
+
+	@Source("bottom2.gif")
+	@ImageOptions(repeatStyle = RepeatStyle.Horizontal)
+	ImageResource conceptBottom();
+
+	@Source("br2.gif")
+	ImageResource conceptBottomRight();
 }
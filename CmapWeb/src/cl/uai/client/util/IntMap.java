@@ -0,0 +1,230 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.client.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A map from int keys to values. Concept and relationship ids come from
+ * sequences that start at 1, so keys from 0 up to about twice the number
+ * of values are stored in a dense array indexed by key: lookups are a
+ * bounds check and an array access, and no Integer is ever boxed. Negative
+ * keys and keys far above the others, as in imported CMs, are kept in a
+ * sorted map instead, so the array never grows with the largest key.
+ * Values are iterated in ascending order of their keys.
+ *
+ * @author Jorge Villalon
+ *
+ * @param <V> the type of the values
+ */
+public class IntMap<V> implements Iterable<V> {
+
+	/** Initial capacity of the array */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** Values indexed by key, null means no value */
+	private Object[] values;
+	/** Values whose key is negative or not below the array length */
+	private TreeMap<Integer, V> sparse;
+	/** Number of keys with a value */
+	private int size;
+
+	/**
+	 * Creates an empty map.
+	 */
+	public IntMap() {
+		this.values = new Object[DEFAULT_CAPACITY];
+		this.sparse = new TreeMap<Integer, V>();
+		this.size = 0;
+	}
+
+	/**
+	 * Removes all values from the map.
+	 */
+	public void clear() {
+		this.values = new Object[DEFAULT_CAPACITY];
+		this.sparse.clear();
+		this.size = 0;
+	}
+
+	/**
+	 * @param key the key
+	 * @return if there is a value for the key
+	 */
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Gets the value for a key.
+	 *
+	 * @param key the key
+	 * @return the value, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		if(key >= 0 && key < this.values.length)
+			return (V) this.values[key];
+		if(this.sparse.isEmpty())
+			return null;
+		return this.sparse.get(key);
+	}
+
+	/**
+	 * @return if the map has no values
+	 */
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Iterates the values in ascending order of their keys: negative keys,
+	 * then the array, then the keys above it.
+	 */
+	public Iterator<V> iterator() {
+		final Iterator<V> below = this.sparse.headMap(0).values().iterator();
+		final Iterator<V> above = this.sparse.tailMap(this.values.length).values().iterator();
+		final Object[] array = this.values;
+		return new Iterator<V>() {
+			private int next = nextKey(array, 0);
+
+			public boolean hasNext() {
+				return below.hasNext() || next >= 0 || above.hasNext();
+			}
+
+			@SuppressWarnings("unchecked")
+			public V next() {
+				if(below.hasNext())
+					return below.next();
+				if(next < 0)
+					return above.next();
+				V value = (V) array[next];
+				next = nextKey(array, next + 1);
+				return value;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Finds the first key with a value in an array starting at a key.
+	 *
+	 * @param array the array
+	 * @param from the first key to check
+	 * @return the key, or -1 if there are no more values
+	 */
+	private static int nextKey(Object[] array, int from) {
+		for(int i=from; i<array.length; i++) {
+			if(array[i] != null)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Sets the value for a key.
+	 *
+	 * @param key the key
+	 * @param value the value, null removes the key
+	 * @return the previous value for the key, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if(value == null)
+			return remove(key);
+		V previous;
+		if(key >= this.values.length && key < 2 * (this.size + 1) + DEFAULT_CAPACITY)
+			grow(key);
+		if(key >= 0 && key < this.values.length) {
+			previous = (V) this.values[key];
+			this.values[key] = value;
+		} else {
+			previous = this.sparse.put(key, value);
+		}
+		if(previous == null)
+			this.size++;
+		return previous;
+	}
+
+	/**
+	 * Grows the array to hold a key, moving the values of the keys it now
+	 * holds from the sorted map.
+	 *
+	 * @param key the key
+	 */
+	private void grow(int key) {
+		int length = this.values.length;
+		Object[] grown = new Object[Math.max(key + 1, length * 2)];
+		System.arraycopy(this.values, 0, grown, 0, length);
+		this.values = grown;
+		if(this.sparse.isEmpty())
+			return;
+		Iterator<Map.Entry<Integer, V>> moved = this.sparse.subMap(length, grown.length).entrySet().iterator();
+		while(moved.hasNext()) {
+			Map.Entry<Integer, V> entry = moved.next();
+			grown[entry.getKey()] = entry.getValue();
+			moved.remove();
+		}
+	}
+
+	/**
+	 * Removes the value for a key.
+	 *
+	 * @param key the key
+	 * @return the removed value, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		V previous;
+		if(key >= 0 && key < this.values.length) {
+			previous = (V) this.values[key];
+			this.values[key] = null;
+		} else {
+			previous = this.sparse.isEmpty() ? null : this.sparse.remove(key);
+		}
+		if(previous != null)
+			this.size--;
+		return previous;
+	}
+
+	/**
+	 * @return the number of keys with a value
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * All values in the map, in ascending order of their keys.
+	 *
+	 * @return the values
+	 */
+	public Iterable<V> values() {
+		return this;
+	}
+}
@@ -0,0 +1,248 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.server;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A review servlet for development and testing, that keeps reviews in memory.
+ * It implements the protocol of {@link cl.uai.client.loaders.ReviewHttpRequest}:
+ * a GET returns the stored review, and a POST replaces it with a
+ * review_value, and appends each review_delta and review_journal to it, one
+ * per line, so the client applies them when loading. POSTs with a
+ * review_seq not greater than the last one of their review_session are
+ * acknowledged but ignored, as they are retries or were superseded.
+ * Reviews are sent with an ETag and a Last-Modified date, and GETs with a
+ * matching If-None-Match or If-Modified-Since are answered with a 304.
+ * A GET with x, y, width and height returns the region of the CM inside
+ * that box, see {@link StoredConceptMap}.
+ * <p>
+ * The init parameters failureRate (0 to 1) and delay (milliseconds) make
+ * the servlet fail randomly with a 503 and answer slowly, to test retries
+ * and batching in the client.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class ReviewStubServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	/** For logging purposes */
+	private static Logger logger = Logger.getLogger(ReviewStubServlet.class.getName());
+
+	/** Reviews by document, author and name */
+	private Map<String, String> reviews = new HashMap<String, String>();
+	/** When the servlet started, so ETags are not reused after a restart */
+	private long started = System.currentTimeMillis();
+	/** Times each review changed, for its ETag */
+	private Map<String, Integer> versions = new HashMap<String, Integer>();
+	/** Milliseconds when each review last changed */
+	private Map<String, Long> modified = new HashMap<String, Long>();
+	/** Reviews read for region queries, by review, until they change */
+	private Map<String, StoredConceptMap> parsed = new HashMap<String, StoredConceptMap>();
+	/** Last sequence number applied, by review and session */
+	private Map<String, Integer> sequences = new HashMap<String, Integer>();
+	/** Fraction of the POSTs that fail */
+	private double failureRate = 0;
+	/** Milliseconds before answering */
+	private long delay = 0;
+	/** For random failures */
+	private Random random = new Random();
+
+	@Override
+	public void init() throws ServletException {
+		if(getInitParameter("failureRate") != null)
+			this.failureRate = Double.parseDouble(getInitParameter("failureRate"));
+		if(getInitParameter("delay") != null)
+			this.delay = Long.parseLong(getInitParameter("delay"));
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		String key = key(req.getParameter("document"),
+				req.getParameter("review_author"),
+				req.getParameter("review_name"));
+		if(req.getParameter("x") != null) {
+			doGetRegion(key, req, resp);
+			return;
+		}
+
+		String review;
+		String etag;
+		long lastModified;
+		synchronized (this) {
+			review = this.reviews.get(key);
+			etag = "\"" + this.started + "-" + (this.versions.containsKey(key) ? this.versions.get(key) : 0) + "\"";
+			lastModified = this.modified.containsKey(key) ? this.modified.get(key) : 0;
+		}
+		pause();
+		resp.setHeader("Cache-Control", "no-cache");
+		resp.setHeader("ETag", etag);
+		if(lastModified > 0)
+			resp.setDateHeader("Last-Modified", lastModified);
+
+		// Dates in headers have a precision of seconds
+		String ifNoneMatch = req.getHeader("If-None-Match");
+		long ifModifiedSince = req.getDateHeader("If-Modified-Since");
+		if(ifNoneMatch != null ? ifNoneMatch.equals(etag)
+				: ifModifiedSince >= 0 && lastModified > 0 && lastModified / 1000 <= ifModifiedSince / 1000) {
+			resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		resp.setContentType("text/plain");
+		resp.setCharacterEncoding("UTF-8");
+		resp.getWriter().write(review == null ? "" : review);
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		pause();
+		if(this.random.nextDouble() < this.failureRate) {
+			logger.info("Failing on purpose");
+			resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
+
+		String key = key(req.getParameter("document_id"),
+				req.getParameter("review_author"),
+				req.getParameter("review_name"));
+		String session = req.getParameter("review_session");
+		String seq = req.getParameter("review_seq");
+
+		synchronized (this) {
+			if(session != null && seq != null) {
+				int sequence = Integer.parseInt(seq);
+				Integer last = this.sequences.get(key + "|" + session);
+				if(last != null && sequence <= last) {
+					logger.info("Ignoring request " + sequence + " of " + session + ", last was " + last);
+					resp.setContentType("text/plain");
+					resp.getWriter().write("Duplicate");
+					return;
+				}
+				this.sequences.put(key + "|" + session, sequence);
+			}
+
+			StringBuilder review = new StringBuilder();
+			if(this.reviews.get(key) != null)
+				review.append(this.reviews.get(key));
+			String value = req.getParameter("review_value");
+			if(value != null) {
+				review.setLength(0);
+				review.append(value);
+			}
+			append(review, req.getParameterValues("review_delta"));
+			append(review, req.getParameterValues("review_journal"));
+			this.reviews.put(key, review.toString());
+			this.parsed.remove(key);
+			this.versions.put(key, this.versions.containsKey(key) ? this.versions.get(key) + 1 : 1);
+			this.modified.put(key, System.currentTimeMillis());
+			logger.fine("Review " + key + " has " + review.length() + " characters");
+		}
+		resp.setContentType("text/plain");
+		resp.getWriter().write("Saved");
+	}
+
+	/**
+	 * Answers a region query.
+	 * 
+	 * @param key the review key
+	 * @param req the request, with the box as x, y, width and height
+	 * @param resp the response
+	 * @throws IOException
+	 */
+	private void doGetRegion(String key, HttpServletRequest req, HttpServletResponse resp) 
+			throws IOException {
+		int x, y, width, height;
+		try {
+			x = Integer.parseInt(req.getParameter("x"));
+			y = Integer.parseInt(req.getParameter("y"));
+			width = Integer.parseInt(req.getParameter("width"));
+			height = Integer.parseInt(req.getParameter("height"));
+		} catch (NumberFormatException e) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		StoredConceptMap cmap;
+		synchronized (this) {
+			cmap = this.parsed.get(key);
+			if(cmap == null) {
+				String review = this.reviews.get(key);
+				cmap = new StoredConceptMap(review == null ? "" : review);
+				this.parsed.put(key, cmap);
+			}
+		}
+		pause();
+		resp.setHeader("Cache-Control", "no-cache");
+		resp.setContentType("text/plain");
+		resp.setCharacterEncoding("UTF-8");
+		resp.getWriter().write(cmap.exportRegion(x, y, width, height));
+	}
+
+	/**
+	 * Appends lines to a review.
+	 * 
+	 * @param review the review
+	 * @param lines the lines, may be null
+	 */
+	private static void append(StringBuilder review, String[] lines) {
+		if(lines == null)
+			return;
+		for(String line : lines) {
+			if(review.length() > 0)
+				review.append('\n');
+			review.append(line);
+		}
+	}
+
+	/**
+	 * @return the key of a review
+	 */
+	private static String key(String document, String author, String name) {
+		return document + "|" + author + "|" + name;
+	}
+
+	/**
+	 * Waits before answering, if a delay was configured.
+	 */
+	private void pause() {
+		if(this.delay <= 0)
+			return;
+		try {
+			Thread.sleep(this.delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
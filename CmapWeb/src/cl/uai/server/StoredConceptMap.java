@@ -0,0 +1,479 @@
+// This file is part of Moodle - http://moodle.org/
+//
+// Moodle is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Moodle is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with Moodle.  If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * Strings for component 'block_news_items', language 'en', branch 'MOODLE_20_STABLE' 
+*
+* @package   block_news_items
+* @copyright 2011 onwards Jorge Villalon {@link http://villalon.cl}
+* @license   http://www.gnu.org/copyleft/gpl.html GNU GPL v3 or later
+*/
+package cl.uai.server;
+
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A CM as stored by the {@link ReviewStubServlet}, a full CM followed by deltas,
+ * one URL encoded XML per line, read to answer region queries from
+ * {@link cl.uai.client.loaders.RegionReviewLoader}, to keep the revisions
+ * of a review and to find equal CMs. Journal entries are not replayed, CMs loaded by regions are
+ * always saved as deltas.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class StoredConceptMap {
+
+	/** For logging purposes */
+	private static Logger logger = Logger.getLogger(StoredConceptMap.class.getName());
+
+	/** Space for the label right and below a concept position, for the CM size */
+	private static final int LABEL_WIDTH = 200;
+	private static final int LABEL_HEIGHT = 50;
+
+	/** The CM title */
+	private String title = "";
+	/** Concepts {id, posx, posy} by id */
+	private Map<Integer, int[]> concepts = new LinkedHashMap<Integer, int[]>();
+	/** Concept labels by id */
+	private Map<Integer, String> labels = new LinkedHashMap<Integer, String>();
+	/** Relationships {id, source, target, posx, posy} by id */
+	private Map<Integer, int[]> relationships = new LinkedHashMap<Integer, int[]>();
+	/** Relationship linking words by id */
+	private Map<Integer, String> linkingWords = new LinkedHashMap<Integer, String>();
+	/** Next ids for concepts and relationships */
+	private int conceptIdSequence = 1;
+	private int relationshipIdSequence = 1;
+
+	/**
+	 * Creates an empty CM.
+	 */
+	public StoredConceptMap() {
+	}
+
+	/**
+	 * Reads a stored CM.
+	 * 
+	 * @param stored the stored review
+	 */
+	public StoredConceptMap(String stored) {
+		read(stored);
+	}
+
+	/**
+	 * Applies stored lines to the CM, a full CM replaces it and deltas
+	 * change it.
+	 * 
+	 * @param stored one URL encoded XML per line
+	 */
+	public void read(String stored) {
+		DocumentBuilder builder = builder();
+		for(String line : stored.split("\n")) {
+			line = line.trim();
+			if(line.length() > 0)
+				read(builder, line);
+		}
+	}
+
+	/**
+	 * Writes a stored CM in a canonical form, with its concepts and
+	 * relationships ordered by id, so equal CMs are equal texts.
+	 * 
+	 * @param stored the stored CM
+	 * @return the CM as a URL encoded XML, or null if the text is not exactly one full CM
+	 */
+	public static String canonical(String stored) {
+		String line = stored.trim();
+		if(line.length() == 0 || line.indexOf('\n') >= 0)
+			return null;
+		StoredConceptMap cmap = new StoredConceptMap();
+		if(!"conceptmap".equals(cmap.read(builder(), line)))
+			return null;
+		return cmap.export(new TreeMap<Integer, int[]>(cmap.concepts).values(), 
+				new TreeMap<Integer, int[]>(cmap.relationships).values(), false);
+	}
+
+	/**
+	 * @return a copy of the CM
+	 */
+	public StoredConceptMap copy() {
+		StoredConceptMap copy = new StoredConceptMap();
+		copy.title = this.title;
+		for(int[] c : this.concepts.values())
+			copy.concepts.put(c[0], c.clone());
+		copy.labels.putAll(this.labels);
+		for(int[] r : this.relationships.values())
+			copy.relationships.put(r[0], r.clone());
+		copy.linkingWords.putAll(this.linkingWords);
+		copy.conceptIdSequence = this.conceptIdSequence;
+		copy.relationshipIdSequence = this.relationshipIdSequence;
+		return copy;
+	}
+
+	/**
+	 * Exports the region of the CM inside a box, as a URL encoded XML CM.
+	 * 
+	 * @param x X coordinate of the box
+	 * @param y Y coordinate of the box
+	 * @param width width of the box
+	 * @param height height of the box
+	 * @return the region
+	 */
+	public String exportRegion(int x, int y, int width, int height) {
+		Map<Integer, int[]> regionConcepts = new LinkedHashMap<Integer, int[]>();
+		List<int[]> regionRelationships = new ArrayList<int[]>();
+		for(int[] c : this.concepts.values()) {
+			if(inside(c[1], c[2], x, y, width, height))
+				regionConcepts.put(c[0], c);
+		}
+		for(int[] r : this.relationships.values()) {
+			if(regionConcepts.containsKey(r[1]) || regionConcepts.containsKey(r[2])
+					|| inside(r[3], r[4], x, y, width, height))
+				regionRelationships.add(r);
+		}
+		// Concepts at the ends of the relationships
+		for(int[] r : regionRelationships) {
+			regionConcepts.put(r[1], this.concepts.get(r[1]));
+			regionConcepts.put(r[2], this.concepts.get(r[2]));
+		}
+
+		return export(regionConcepts.values(), regionRelationships, true);
+	}
+
+	/**
+	 * Exports the whole CM, as a URL encoded XML CM.
+	 * 
+	 * @return the CM
+	 */
+	public String exportXML() {
+		return export(this.concepts.values(), this.relationships.values(), true);
+	}
+
+	/**
+	 * Exports the changes from an earlier version of the CM, as a URL
+	 * encoded delta in the format saved by the client. Applying it to the
+	 * earlier version gives this one.
+	 * 
+	 * @param earlier the earlier version
+	 * @return the delta, or null if nothing changed
+	 */
+	public String exportDelta(StoredConceptMap earlier) {
+		StringBuilder xml = new StringBuilder();
+		for(int[] c : this.concepts.values()) {
+			int[] before = earlier.concepts.get(c[0]);
+			String label = this.labels.get(c[0]);
+			if(before == null) {
+				concept(xml, "add", c, label);
+			} else {
+				if(before[1] != c[1] || before[2] != c[2])
+					concept(xml, "move", c, null);
+				if(!same(earlier.labels.get(c[0]), label))
+					concept(xml, "rename", new int[] { c[0] }, label);
+			}
+		}
+		for(int[] c : earlier.concepts.values()) {
+			if(!this.concepts.containsKey(c[0]))
+				xml.append("<concept op=\"remove\" id=\"").append(c[0]).append("\"/>");
+		}
+		for(int[] r : this.relationships.values()) {
+			int[] before = earlier.relationships.get(r[0]);
+			String linkingWord = this.linkingWords.get(r[0]);
+			if(before == null || before[1] != r[1] || before[2] != r[2]) {
+				relationship(xml, "add", r, linkingWord);
+			} else {
+				if(before[3] != r[3] || before[4] != r[4])
+					relationship(xml, "move", r, null);
+				if(!same(earlier.linkingWords.get(r[0]), linkingWord))
+					relationship(xml, "rename", new int[] { r[0] }, linkingWord);
+			}
+		}
+		for(int[] r : earlier.relationships.values()) {
+			if(!this.relationships.containsKey(r[0]))
+				xml.append("<relationship op=\"remove\" id=\"").append(r[0]).append("\"/>");
+		}
+		boolean titleChanged = !same(earlier.title, this.title);
+		if(xml.length() == 0 && !titleChanged)
+			return null;
+
+		StringBuilder delta = new StringBuilder("<?xml version=\"1.0\" ?><conceptmapdelta");
+		if(titleChanged)
+			delta.append(" title=\"").append(escape(this.title)).append("\"");
+		delta.append(">").append(xml).append("</conceptmapdelta>");
+		return encode(delta.toString());
+	}
+
+	/**
+	 * Exports concepts and relationships as a URL encoded XML CM, with the
+	 * id sequences of the whole CM, and its size if required.
+	 */
+	private String export(Iterable<int[]> exportConcepts, Iterable<int[]> exportRelationships, boolean size) {
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" ?>");
+		xml.append("<conceptmap title=\"").append(escape(this.title));
+		if(size) {
+			int mapWidth = 0, mapHeight = 0;
+			for(int[] c : this.concepts.values()) {
+				mapWidth = Math.max(mapWidth, c[1] + LABEL_WIDTH);
+				mapHeight = Math.max(mapHeight, c[2] + LABEL_HEIGHT);
+			}
+			xml.append("\" width=\"").append(mapWidth)
+			.append("\" height=\"").append(mapHeight);
+		}
+		xml.append("\" conceptIdSequence=\"").append(this.conceptIdSequence)
+		.append("\" relationshipIdSequence=\"").append(this.relationshipIdSequence)
+		.append("\">");
+		for(int[] c : exportConcepts)
+			concept(xml, null, c, this.labels.get(c[0]));
+		for(int[] r : exportRelationships)
+			relationship(xml, null, r, this.linkingWords.get(r[0]));
+		xml.append("</conceptmap>");
+		return encode(xml.toString());
+	}
+
+	/**
+	 * Writes a concept element, with its position if it has one and its
+	 * label if not null.
+	 */
+	private static void concept(StringBuilder xml, String op, int[] c, String label) {
+		xml.append("<concept");
+		if(op != null)
+			xml.append(" op=\"").append(op).append("\"");
+		xml.append(" id=\"").append(c[0]).append("\"");
+		if(label != null)
+			xml.append(" label=\"").append(escape(label)).append("\"");
+		if(c.length > 1)
+			xml.append(" posx=\"").append(c[1]).append("\" posy=\"").append(c[2]).append("\"");
+		xml.append("/>");
+	}
+
+	/**
+	 * Writes a relationship element, with its concepts and position if it
+	 * has them and its linking word if not null.
+	 */
+	private static void relationship(StringBuilder xml, String op, int[] r, String linkingWord) {
+		xml.append("<relationship");
+		if(op != null)
+			xml.append(" op=\"").append(op).append("\"");
+		xml.append(" id=\"").append(r[0]).append("\"");
+		if(r.length > 1 && (op == null || op.equals("add")))
+			xml.append(" source=\"").append(r[1]).append("\" target=\"").append(r[2]).append("\"");
+		if(linkingWord != null)
+			xml.append(" linkingWord=\"").append(escape(linkingWord)).append("\"");
+		if(r.length > 1)
+			xml.append(" posx=\"").append(r[3]).append("\" posy=\"").append(r[4]).append("\"");
+		xml.append("/>");
+	}
+
+	/**
+	 * @return an XML URL encoded as by encodeURIComponent
+	 */
+	private static String encode(String xml) {
+		try {
+			return URLEncoder.encode(xml, "UTF-8").replace("+", "%20");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return if two texts are equal, or both null
+	 */
+	private static boolean same(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * Applies a stored line to the CM.
+	 * 
+	 * @param builder the parser
+	 * @param line a URL encoded XML
+	 * @return the root element of the line applied, null if it was skipped
+	 */
+	private String read(DocumentBuilder builder, String line) {
+		try {
+			// Encoded as by encodeURI, which leaves + as is
+			String xml = URLDecoder.decode(line.replace("+", "%2B"), "UTF-8");
+			Element root = builder.parse(new InputSource(new StringReader(xml))).getDocumentElement();
+			if(root.getTagName().equals("conceptmap"))
+				clear();
+			else if(!root.getTagName().equals("conceptmapdelta"))
+				return null;
+			if(root.hasAttribute("title"))
+				this.title = root.getAttribute("title");
+			// Ids of removed elements are not reused
+			if(root.hasAttribute("conceptIdSequence"))
+				this.conceptIdSequence = Math.max(this.conceptIdSequence, number(root, "conceptIdSequence"));
+			if(root.hasAttribute("relationshipIdSequence"))
+				this.relationshipIdSequence = Math.max(this.relationshipIdSequence, number(root, "relationshipIdSequence"));
+			apply(root);
+			return root.getTagName();
+		} catch (Exception e) {
+			logger.warning("Skipping invalid line " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Applies the concepts and relationships of a CM or a delta.
+	 * 
+	 * @param root the conceptmap or conceptmapdelta element
+	 */
+	private void apply(Element root) {
+		NodeList children = root.getChildNodes();
+		for(int i = 0; i < children.getLength(); i++) {
+			Node node = children.item(i);
+			if(node.getNodeType() != Node.ELEMENT_NODE)
+				continue;
+			Element e = (Element) node;
+			String op = e.hasAttribute("op") ? e.getAttribute("op") : "add";
+			int id = number(e, "id");
+			if(e.getTagName().equals("concept")) {
+				if(op.equals("remove")) {
+					removeConcept(id);
+				} else if(op.equals("add")) {
+					this.concepts.put(id, new int[] { id, number(e, "posx"), number(e, "posy") });
+					this.labels.put(id, e.getAttribute("label"));
+					this.conceptIdSequence = Math.max(this.conceptIdSequence, id + 1);
+				} else if(this.concepts.containsKey(id)) {
+					if(op.equals("move")) {
+						this.concepts.get(id)[1] = number(e, "posx");
+						this.concepts.get(id)[2] = number(e, "posy");
+					} else if(op.equals("rename")) {
+						this.labels.put(id, e.getAttribute("label"));
+					}
+				}
+			} else if(e.getTagName().equals("relationship")) {
+				if(op.equals("remove")) {
+					this.relationships.remove(id);
+					this.linkingWords.remove(id);
+				} else if(op.equals("add")) {
+					int source = number(e, "source");
+					int target = number(e, "target");
+					if(!this.concepts.containsKey(source) || !this.concepts.containsKey(target))
+						continue;
+					this.relationships.put(id, new int[] { id, source, target, number(e, "posx"), number(e, "posy") });
+					this.linkingWords.put(id, e.getAttribute("linkingWord"));
+					this.relationshipIdSequence = Math.max(this.relationshipIdSequence, id + 1);
+				} else if(this.relationships.containsKey(id)) {
+					if(op.equals("move")) {
+						this.relationships.get(id)[3] = number(e, "posx");
+						this.relationships.get(id)[4] = number(e, "posy");
+					} else if(op.equals("rename")) {
+						this.linkingWords.put(id, e.getAttribute("linkingWord"));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes a concept and its relationships.
+	 * 
+	 * @param id the concept id
+	 */
+	private void removeConcept(int id) {
+		this.concepts.remove(id);
+		this.labels.remove(id);
+		for(Iterator<int[]> it = this.relationships.values().iterator(); it.hasNext();) {
+			int[] r = it.next();
+			if(r[1] == id || r[2] == id) {
+				it.remove();
+				this.linkingWords.remove(r[0]);
+			}
+		}
+	}
+
+	/**
+	 * Removes all concepts and relationships, before reading a full CM.
+	 */
+	private void clear() {
+		this.concepts.clear();
+		this.labels.clear();
+		this.relationships.clear();
+		this.linkingWords.clear();
+	}
+
+	/**
+	 * @return a new XML parser. CMs come from students, so documents with a
+	 * DOCTYPE are rejected and no external entity or DTD is ever loaded.
+	 */
+	private static DocumentBuilder builder() {
+		DocumentBuilder builder;
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+			factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+			factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+			factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+			factory.setXIncludeAware(false);
+			factory.setExpandEntityReferences(false);
+			builder = factory.newDocumentBuilder();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+		// Errors are logged when the line is skipped, not printed
+		builder.setErrorHandler(new DefaultHandler());
+		return builder;
+	}
+
+	/**
+	 * @return if a point is inside a box
+	 */
+	private static boolean inside(int px, int py, int x, int y, int width, int height) {
+		return px >= x && px < x + width && py >= y && py < y + height;
+	}
+
+	/**
+	 * Reads a number attribute, older CMs may have decimals.
+	 * 
+	 * @return the number, 0 if it is missing or invalid
+	 */
+	private static int number(Element e, String name) {
+		try {
+			return (int) Double.parseDouble(e.getAttribute(name).replace(',', '.'));
+		} catch (NumberFormatException ex) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @return a text escaped for an XML attribute
+	 */
+	private static String escape(String text) {
+		if(text == null)
+			return "";
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+}